@@ -0,0 +1,120 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Renders the 3D view (walls, ceiling and floor) the same way the game panel does,
+ * while turning the player by a few degrees on every invocation.
+ *
+ * Walls are either flat colored or textured, floor and ceiling either background color or cast.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ColumnRendererBenchmark
+{
+	private static final int MAX_RENDER_DISTANCE = 20;
+	private static final int BACKGROUND = 0xffeeeeee;
+
+	@Param({"320x240","640x480","1280x720","1920x1080"})
+	public String resolution;
+
+	// 0 = one thread per CPU
+	@Param({"1","0"})
+	public int threads;
+
+	@Param({"false","true"})
+	public boolean fog;
+
+	@Param({"false","true"})
+	public boolean textures;
+
+	@Param({"false","true"})
+	public boolean floorCasting;
+
+	private ColumnRenderer renderer;
+	private Player player;
+	private FrameBuffer frame;
+	private ColumnBuffer columns;
+	private int heading;
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		final String[] parts = resolution.split("x");
+		final int width = Integer.parseInt( parts[0] );
+		final int height = Integer.parseInt( parts[1] );
+
+		final TileManager tileManager = new TileManager( new TileFactory(25) );
+		player = newPlayer( tileManager );
+		renderer = new ColumnRenderer( tileManager , MAX_RENDER_DISTANCE , threads > 0 ? threads : Runtime.getRuntime().availableProcessors() , fog );
+		if ( textures ) {
+			renderer.setTextures( TextureAtlas.createDefault() );
+		}
+		renderer.setFloorCasting( floorCasting );
+		frame = new FrameBuffer( width , height );
+		columns = new ColumnBuffer( width );
+
+		// generate all visible tiles up-front
+		for ( int i = 0 ; i < 360 ; i++ ) {
+			render();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		renderer.dispose();
+		frame.dispose();
+	}
+
+	@Benchmark
+	public int render()
+	{
+		heading = ( heading + 7 ) % 360;
+		player.setHeading( heading );
+		renderer.render( player , frame , columns , BACKGROUND );
+		return frame.pixels[ frame.pixels.length / 2 ];
+	}
+
+	protected static Player newPlayer(TileManager tileManager)
+	{
+		return new Player( tileManager.findStartingPosition( new GameLogic() ) ) {
+			@Override
+			protected boolean canMoveTo(double x, double y) {
+				return true;
+			}
+		};
+	}
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Tile generation, both the maze itself and rendering the maze into a tile.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MazeBenchmark
+{
+	@Param({"25","51","101"})
+	public int tileSize;
+
+	private TileFactory tileFactory;
+	private int seed;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		tileFactory = new TileFactory( tileSize );
+	}
+
+	@Benchmark
+	public Maze generateMaze()
+	{
+		final Maze maze = new Maze( tileSize / 2 );
+		maze.generateMaze( seed++ );
+		return maze;
+	}
+
+	@Benchmark
+	public Tile createMazeTile() {
+		return tileFactory.createMazeTile( new TileId( seed++ , 0 ) );
+	}
+}
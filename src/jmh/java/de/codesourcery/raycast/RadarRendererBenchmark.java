@@ -0,0 +1,81 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Renders the radar into an off-screen image.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class RadarRendererBenchmark
+{
+	@Param({"200","400"})
+	public int size;
+
+	private RadarRenderer radarRenderer;
+	private BufferedImage image;
+	private Graphics2D graphics;
+	private Rectangle bounds;
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		final TileManager tileManager = new TileManager( new TileFactory(25) );
+		final Player player = ColumnRendererBenchmark.newPlayer( tileManager );
+		radarRenderer = new RadarRenderer( tileManager , player );
+		image = new BufferedImage( size , size , BufferedImage.TYPE_INT_ARGB );
+		graphics = image.createGraphics();
+		bounds = new Rectangle( 0 , 0 , size , size );
+
+		// generate all visible tiles up-front
+		render();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		graphics.dispose();
+	}
+
+	@Benchmark
+	public BufferedImage render()
+	{
+		radarRenderer.render( bounds , graphics , Color.WHITE );
+		return image;
+	}
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Casts all rays of a 640 pixel wide frame with and without empty space skipping,
+ * in the regular maze and in a mostly empty map, and traces the same frame's wall faces.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RayCasterBenchmark
+{
+	private static final int W = 640;
+	private static final int H = 480;
+
+	@Param({"20","100","400"})
+	public int renderDistance;
+
+	@Param({"maze","open"})
+	public String map;
+
+	@Param({"true","false"})
+	public boolean skipEmptySpace;
+
+	private RayCaster rayCaster;
+	private Player player;
+	private ColumnBuffer columns;
+	private final RayTable.Cache rayTables = new RayTable.Cache( 360 );
+	private int heading;
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		final TileFactory factory = "open".equals( map ) ? openMap() : new TileFactory(25);
+
+		// generate all visible tiles up-front
+		final int range = renderDistance / factory.tileSize + 2;
+		final TileManager tileManager = new TileManager( factory , (2*range+1)*(2*range+1) , TileIndex.CapacityUnit.TILES , new ClockEvictionPolicy() );
+		for ( int x = -range ; x <= range ; x++ ) {
+			for ( int y = -range ; y <= range ; y++ ) {
+				tileManager.getTile( x , y );
+			}
+		}
+		player = ColumnRendererBenchmark.newPlayer( tileManager );
+		rayCaster = new RayCaster( tileManager , renderDistance , skipEmptySpace );
+		columns = new ColumnBuffer( W );
+	}
+
+	static TileFactory openMap()
+	{
+		return new TileFactory(51)
+		{
+			@Override
+			public Tile createTile(TileId coordinates)
+			{
+				final Tile tile = new Tile( coordinates , tileSize );
+				for ( int x = 3 ; x < tileSize ; x += 17 ) {
+					for ( int y = 5 ; y < tileSize ; y += 13 ) {
+						tile.setWall( x , y , 1 );
+					}
+				}
+				tile.emptyRadii();
+				return tile;
+			}
+		};
+	}
+
+	@Benchmark
+	public double castRays()
+	{
+		heading = ( heading + 7 ) % 360;
+		player.setHeading( heading );
+		rayCaster.castColumns( player , rayTables.get( W , player.headingIndex ) , 0 , W , H , columns );
+		return columns.perpWallDist[ W / 2 ];
+	}
+
+	@Benchmark
+	public double traceRays()
+	{
+		heading = ( heading + 7 ) % 360;
+		player.setHeading( heading );
+		rayCaster.traceColumns( player , rayTables.get( W , player.headingIndex ) , 0 , W , H , columns );
+		return columns.perpWallDist[ W / 2 ];
+	}
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cell lookups through {@link TileManager#getCellAt(double, double)}.
+ *
+ * The 'hit' benchmarks only touch cached tiles, the 'miss' benchmark
+ * always looks up a tile that has not been generated yet.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TileManagerBenchmark
+{
+	private static final int TILE_SIZE = 25;
+
+	// lookups within the 3x3 tiles around the origin
+	private static final int POSITIONS = 1024;
+
+	private TileManager cachedTiles;
+	private TileManager uncachedTiles;
+
+	private final double[] x = new double[ POSITIONS ];
+	private final double[] y = new double[ POSITIONS ];
+	private int index;
+
+	private int missTileX;
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		cachedTiles = new TileManager( new TileFactory( TILE_SIZE ) );
+		// capacity of one, every lookup of another tile evicts the previous one
+		uncachedTiles = new TileManager( new TileFactory( TILE_SIZE ) , 1 , TileIndex.CapacityUnit.TILES , new ClockEvictionPolicy() );
+
+		final Random rnd = new Random(0xdeadbeef);
+		final double range = 3 * TILE_SIZE;
+		for ( int i = 0 ; i < POSITIONS ; i++ )
+		{
+			x[i] = rnd.nextDouble() * range - range/2;
+			y[i] = rnd.nextDouble() * range - range/2;
+			cachedTiles.getCellAt( x[i] , y[i] );
+		}
+	}
+
+	@Benchmark
+	public Cell getCellAtSameTile()
+	{
+		index = ( index + 1 ) & ( POSITIONS - 1 );
+		return cachedTiles.getCellAt( x[index] * 0.1 , y[index] * 0.1 );
+	}
+
+	@Benchmark
+	public Cell getCellAtHit()
+	{
+		index = ( index + 1 ) & ( POSITIONS - 1 );
+		return cachedTiles.getCellAt( x[index] , y[index] );
+	}
+
+	@Benchmark
+	public int getPaletteIndexAtHit()
+	{
+		index = ( index + 1 ) & ( POSITIONS - 1 );
+		return cachedTiles.getPaletteIndexAt( x[index] , y[index] );
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public Cell getCellAtMiss()
+	{
+		missTileX++;
+		return uncachedTiles.getCellAt( missTileX * TILE_SIZE , 0 );
+	}
+}
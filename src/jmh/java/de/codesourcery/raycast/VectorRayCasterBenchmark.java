@@ -0,0 +1,103 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Casts all rays of a 640 pixel wide frame one at a time (with and without empty space skipping)
+ * and several at a time using the Vector API.
+ *
+ * Needs to be built with both the 'benchmark' and the 'vector' profile.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules" , "jdk.incubator.vector" })
+@State(Scope.Thread)
+public class VectorRayCasterBenchmark
+{
+	private static final int W = 640;
+	private static final int H = 480;
+
+	@Param({"20","100"})
+	public int renderDistance;
+
+	@Param({"maze","open"})
+	public String map;
+
+	@Param({"scalar","scalarSkip","vector"})
+	public String caster;
+
+	private ColumnCaster columnCaster;
+	private Player player;
+	private ColumnBuffer columns;
+	private final RayTable.Cache rayTables = new RayTable.Cache( 360 );
+	private int heading;
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		final TileFactory factory = "open".equals( map ) ? RayCasterBenchmark.openMap() : new TileFactory(25);
+
+		// generate all visible tiles up-front
+		final int range = renderDistance / factory.tileSize + 2;
+		final TileManager tileManager = new TileManager( factory , (2*range+1)*(2*range+1) , TileIndex.CapacityUnit.TILES , new ClockEvictionPolicy() );
+		for ( int x = -range ; x <= range ; x++ ) {
+			for ( int y = -range ; y <= range ; y++ ) {
+				tileManager.getTile( x , y );
+			}
+		}
+		player = ColumnRendererBenchmark.newPlayer( tileManager );
+		switch( caster )
+		{
+			case "scalar":       columnCaster = new RayCaster( tileManager , renderDistance , false ); break;
+			case "scalarSkip":   columnCaster = new RayCaster( tileManager , renderDistance , true ); break;
+			case "vector":
+				columnCaster = VectorSupport.newCaster( tileManager , renderDistance );
+				if ( columnCaster == null ) {
+					throw new IllegalStateException("Vector API not available, build with -Pbenchmark,vector");
+				}
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown caster: "+caster);
+		}
+		columns = new ColumnBuffer( W );
+	}
+
+	@Benchmark
+	public double castRays()
+	{
+		heading = ( heading + 7 ) % 360;
+		player.setHeading( heading );
+		columnCaster.castColumns( player , rayTables.get( W , player.headingIndex ) , 0 , W , H , columns );
+		return columns.perpWallDist[ W / 2 ];
+	}
+}
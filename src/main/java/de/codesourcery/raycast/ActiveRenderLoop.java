@@ -0,0 +1,260 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+import java.awt.Canvas;
+import java.awt.Graphics;
+import java.awt.Toolkit;
+import java.awt.image.BufferStrategy;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs simulation and rendering on two dedicated threads, drawing to a {@link Canvas} through a {@link BufferStrategy}.
+ *
+ * The simulation thread advances in fixed time steps and publishes an immutable {@link Snapshot}
+ * of the player after each step. The render thread picks up the latest snapshot (atomic swap, no locking)
+ * and renders an interpolation between the snapshot's last two simulation states, so simulating the 
+ * next step overlaps with rendering the current frame and movement stays smooth even if the frame rate 
+ * is not a multiple of the simulation rate.
+ * 
+ * The simulated player is only ever touched by the simulation thread, the view player only by the render thread.
+ * 
+ * Every frame is presented in full, even if nothing changed: the contents of a {@link BufferStrategy}'s back buffer
+ * are undefined after flipping and may get lost at any time (the window got exposed, restored, ...) without
+ * notice, as repaints are ignored. The {@link RenderEngine} still only re-renders the parts of the frame that changed.
+ */
+public class ActiveRenderLoop 
+{
+	// upper bound for the time simulated at once, prevents a 'spiral of death' after stalls
+	private static final long MAX_CATCH_UP_NANOS = 250_000_000L;
+	
+	/**
+	 * Advances the simulation.
+	 */
+	@FunctionalInterface
+	public interface Simulation 
+	{
+		public void step(float deltaSeconds);
+	}
+	
+	/**
+	 * Player state after a simulation step, together with the state of the step before.
+	 */
+	protected static final class Snapshot 
+	{
+		public final PlayerState previous;
+		public final PlayerState current;
+		// System.nanoTime() when 'current' was published
+		public final long timestamp;
+		
+		public Snapshot(PlayerState previous,PlayerState current,long timestamp) 
+		{
+			this.previous = previous;
+			this.current = current;
+			this.timestamp = timestamp;
+		}
+	}
+	
+	private final Canvas canvas;
+	private final Simulation simulation;
+	private final Player player;
+	private final Player viewPlayer;
+	private final RenderEngine renderEngine;
+	private final FrameMetrics.Timer frameTimer;
+	
+	private final long stepNanos;
+	private final long frameNanos;
+	
+	private final AtomicReference<Snapshot> latestSnapshot = new AtomicReference<>();
+	
+	private volatile boolean running;
+	private Thread simulationThread;
+	private Thread renderThread;
+	
+	// only used by the render thread
+	private FrameBuffer frame;
+	
+	/**
+	 * Create instance.
+	 * 
+	 * @param canvas canvas to draw to, must be displayable before {@link #start()} is called
+	 * @param simulation
+	 * @param player player that gets updated by the simulation
+	 * @param viewPlayer player that the render engine renders, receives the interpolated simulation state before each frame
+	 * @param renderEngine
+	 * @param frameTimer timer for the render thread
+	 * @param simulationRate simulation steps per second
+	 * @param maxFps frame cap, 0 renders as often as possible
+	 */
+	public ActiveRenderLoop(Canvas canvas,Simulation simulation,Player player,Player viewPlayer,RenderEngine renderEngine,
+			FrameMetrics.Timer frameTimer,int simulationRate,int maxFps) 
+	{
+		if ( simulationRate < 1 ) {
+			throw new IllegalArgumentException("Simulation rate must be >= 1, was: "+simulationRate);
+		}
+		if ( maxFps < 0 ) {
+			throw new IllegalArgumentException("Max. FPS must be >= 0, was: "+maxFps);
+		}
+		this.canvas = canvas;
+		this.simulation = simulation;
+		this.player = player;
+		this.viewPlayer = viewPlayer;
+		this.renderEngine = renderEngine;
+		this.frameTimer = frameTimer;
+		this.stepNanos = 1_000_000_000L / simulationRate;
+		this.frameNanos = maxFps == 0 ? 0 : 1_000_000_000L / maxFps;
+	}
+	
+	public synchronized void start() 
+	{
+		if ( simulationThread != null ) {
+			throw new IllegalStateException("Already started");
+		}
+		canvas.setIgnoreRepaint( true );
+		canvas.createBufferStrategy( 2 );
+		
+		final PlayerState initial = PlayerState.of( player );
+		latestSnapshot.set( new Snapshot( initial , initial , System.nanoTime() ) );
+		
+		running = true;
+		simulationThread = new Thread( this::simulationLoop , "simulation" );
+		renderThread = new Thread( this::renderLoop , "render" );
+		simulationThread.start();
+		renderThread.start();
+	}
+	
+	public synchronized void stop() throws InterruptedException 
+	{
+		if ( simulationThread != null ) 
+		{
+			running = false;
+			simulationThread.join();
+			renderThread.join();
+			simulationThread = renderThread = null;
+		}
+	}
+	
+	private void simulationLoop() 
+	{
+		final float stepSeconds = stepNanos / 1_000_000_000f;
+		
+		PlayerState current = latestSnapshot.get().current;
+		long nextStep = System.nanoTime();
+		while ( running ) 
+		{
+			final long now = System.nanoTime();
+			if ( now - nextStep > MAX_CATCH_UP_NANOS ) {
+				// fell behind, don't try to catch up
+				nextStep = now;
+			}
+			while ( nextStep - now <= 0 && running ) 
+			{
+				simulation.step( stepSeconds );
+				final PlayerState previous = current;
+				current = PlayerState.of( player );
+				latestSnapshot.set( new Snapshot( previous , current , System.nanoTime() ) );
+				nextStep += stepNanos;
+			}
+			parkUntil( nextStep );
+		}
+	}
+	
+	private void renderLoop() 
+	{
+		final BufferStrategy strategy = canvas.getBufferStrategy();
+		
+		long nextFrame = System.nanoTime();
+		long fpsWindowStart = nextFrame;
+		int fpsFrames = 0;
+		
+		while ( running ) 
+		{
+			frameTimer.beginFrame();
+			
+			// the latest snapshot becomes fully visible one simulation step after it has been published
+			final Snapshot snapshot = latestSnapshot.get();
+			final double alpha = Math.min( 1 , ( System.nanoTime() - snapshot.timestamp ) / (double) stepNanos );
+			PlayerState.interpolate( snapshot.previous , snapshot.current , alpha , viewPlayer );
+			render( strategy );
+			frameTimer.endFrame();
+			
+			// update FPS once per second
+			fpsFrames++;
+			final long fpsElapsed = System.nanoTime() - fpsWindowStart;
+			if ( fpsElapsed >= 1_000_000_000L ) 
+			{
+				renderEngine.setFps( fpsFrames * 1_000_000_000f / fpsElapsed );
+				fpsFrames = 0;
+				fpsWindowStart += fpsElapsed;
+			}
+			
+			if ( frameNanos > 0 ) 
+			{
+				nextFrame += frameNanos;
+				if ( System.nanoTime() - nextFrame > frameNanos ) {
+					// fell behind, don't try to catch up
+					nextFrame = System.nanoTime();
+				}
+				parkUntil( nextFrame );
+			}
+		}
+	}
+	
+	private static void parkUntil(long deadline) 
+	{
+		long remaining;
+		while ( ( remaining = deadline - System.nanoTime() ) > 0 ) {
+			LockSupport.parkNanos( remaining );
+		}
+	}
+	
+	private void render(BufferStrategy strategy) 
+	{
+		final int width = canvas.getWidth();
+		final int height = canvas.getHeight();
+		if ( width < 1 || height < 1 ) {
+			return;
+		}
+		if ( frame == null || ! frame.hasSize( width , height ) ) 
+		{
+			if ( frame != null ) {
+				frame.dispose();
+			}
+			frame = new FrameBuffer( width , height );
+		}
+		renderEngine.setBackgroundColor( canvas.getBackground() );
+		renderEngine.render( frame );
+		
+		frameTimer.beginStage();
+		do 
+		{
+			do 
+			{
+				final Graphics g = strategy.getDrawGraphics();
+				try {
+					g.drawImage( frame.getImage() , 0 , 0 , null );
+				} finally {
+					g.dispose();
+				}
+			} 
+			while ( strategy.contentsRestored() );
+			strategy.show();
+		} 
+		while ( strategy.contentsLost() );
+		Toolkit.getDefaultToolkit().sync();
+		frameTimer.endStage( FrameStage.BLIT );
+	}
+}
@@ -17,16 +17,39 @@ package de.codesourcery.raycast;
 
 import java.awt.Color;
 
+/**
+ * A single cell of the map.
+ * 
+ * Cells returned by {@link Tile#getCellAt(int, int)} are views of the tile's 
+ * compact storage, consuming a pill through such a view updates the tile.
+ */
 public final class Cell {
 	
 	public final Color lightColor;
 	public final Color darkColor;
 	
+	// tile this cell is a view of, NULL for stand-alone cells
+	private final Tile tile;
+	private final int x;
+	private final int y;
+	
 	private boolean hasPill;
 	
 	private Cell(boolean hasPill) {
 		this.hasPill = hasPill;
 		this.lightColor = this.darkColor = null;
+		this.tile = null;
+		this.x = this.y = 0;
+	}
+	
+	protected Cell(Tile tile,int x,int y) 
+	{
+		final int index = tile.paletteIndex( x , y );
+		this.lightColor = index == Palette.EMPTY ? null : Palette.lightColor( index );
+		this.darkColor = index == Palette.EMPTY ? null : Palette.darkColor( index );
+		this.tile = tile;
+		this.x = x;
+		this.y = y;
 	}
 	
 	public static Cell cellWithPill() {
@@ -42,10 +65,16 @@ public final class Cell {
 	}
 	
 	public boolean hasPill() {
+		if ( tile != null ) {
+			return tile.hasPill( x , y );
+		}
 		return hasPill && ! isWall();
 	}
 	
 	public boolean consumePill() {
+		if ( tile != null ) {
+			return tile.consumePill( x , y );
+		}
 		if ( hasPill() ) {
 			hasPill = false;
 			return true;
@@ -59,13 +88,17 @@ public final class Cell {
 	
 	public Cell(Color color1) {
 		this.lightColor=color1;
-		this.darkColor=darken( color1 );
+		this.darkColor=Palette.darken( color1 );
+		this.tile = null;
+		this.x = this.y = 0;
 	}
 	
-	protected static Color darken(Color color) 
+	@Override
+	public String toString() 
 	{
-		int newColor = ( color.getRGB()>> 1 ) & 0b00000000_011111111_011111111_011111111;
-		newColor |= color.getRGB() & 0xff000000; // preserve alpha
-		return new Color(newColor);		
-	}	
+		if ( tile != null ) {
+			return "Cell[ "+tile.tileId+" , x="+x+", y="+y+" ]";
+		}
+		return isWall() ? "Cell[ wall ]" : "Cell[ pill="+hasPill+" ]";
+	}
 }
\ No newline at end of file
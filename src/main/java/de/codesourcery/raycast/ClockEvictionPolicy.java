@@ -0,0 +1,48 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+/**
+ * Approximation of LRU using the CLOCK algorithm.
+ *
+ * Every lookup sets a tile's 'referenced' flag, the clock hand sweeps over all
+ * tiles clearing these flags and evicts the first tile it finds without one.
+ */
+public final class ClockEvictionPolicy implements EvictionPolicy
+{
+	private int hand;
+
+	@Override
+	public Tile selectVictim(Tile[] tiles,int count)
+	{
+		// readers may keep setting 'referenced' flags while we're sweeping,
+		// give up after two full rounds
+		for ( int inspected = 0 ; inspected < 2*count ; inspected++ )
+		{
+			if ( hand >= count ) {
+				hand = 0;
+			}
+			final Tile tile = tiles[ hand++ ];
+			if ( ! tile.referenced ) {
+				return tile;
+			}
+			tile.referenced = false;
+		}
+		if ( hand >= count ) {
+			hand = 0;
+		}
+		return tiles[ hand++ ];
+	}
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+
+/**
+ * Per-column results of casting one frame.
+ *
+ * Every column is written by exactly one render thread so
+ * no synchronization is needed as long as the buffer is only
+ * read after all threads have finished.
+ */
+public final class ColumnBuffer
+{
+	public final int width;
+
+	/**
+	 * Whether the ray hit a wall within the maximum render distance.
+	 */
+	public final boolean[] hit;
+	public final int[] drawStart;
+	public final int[] drawEnd;
+	/**
+	 * Distance of the wall along the view direction, infinite if no wall was hit.
+	 *
+	 * Doubles as depth buffer for sprites.
+	 */
+	public final double[] perpWallDist;
+	/**
+	 * Packed ARGB wall color.
+	 */
+	public final int[] color;
+	/**
+	 * Palette index of the wall.
+	 */
+	public final int[] paletteIndex;
+	/**
+	 * Whether the wall faces east or west and should be drawn darker.
+	 */
+	public final boolean[] darkSide;
+	/**
+	 * Where the ray hit the wall (0...1), from left to right as seen by the player.
+	 */
+	public final double[] wallX;
+	/**
+	 * First screen row of the wall and its height, not clipped to the screen.
+	 */
+	public final int[] wallTop;
+	public final int[] wallHeight;
+	/**
+	 * Map cell of the wall.
+	 */
+	public final int[] mapX;
+	public final int[] mapY;
+
+	public ColumnBuffer(int width)
+	{
+		this.width = width;
+		this.hit = new boolean[width];
+		this.drawStart = new int[width];
+		this.drawEnd = new int[width];
+		this.perpWallDist = new double[width];
+		this.color = new int[width];
+		this.paletteIndex = new int[width];
+		this.darkSide = new boolean[width];
+		this.wallX = new double[width];
+		this.wallTop = new int[width];
+		this.wallHeight = new int[width];
+		this.mapX = new int[width];
+		this.mapY = new int[width];
+	}
+
+	public boolean hasWidth(int width) {
+		return this.width == width;
+	}
+}
@@ -0,0 +1,37 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+
+/**
+ * Casts the rays for a range of screen columns.
+ *
+ * @see RayCaster
+ * @see VectorSupport#newCaster(TileManager, int)
+ */
+public interface ColumnCaster
+{
+	/**
+	 * Casts rays for screen columns <code>[fromX,toX)</code>.
+	 *
+	 * @param player
+	 * @param rays ray setup for the current screen width and player heading
+	 * @param fromX first column (inclusive)
+	 * @param toX last column (exclusive)
+	 * @param h screen height
+	 * @param out buffer receiving the results
+	 */
+	public void castColumns(Player player,RayTable rays,int fromX,int toX,int h,ColumnBuffer out);
+}
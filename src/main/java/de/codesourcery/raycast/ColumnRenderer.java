@@ -0,0 +1,440 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Casts all columns of a frame and writes them into a {@link FrameBuffer}, either on the calling thread or
+ * split into column strips that are processed by a {@link ForkJoinPool}.
+ *
+ * Columns are independent of each other so both modes produce
+ * exactly the same results.
+ *
+ * Walls are drawn using flat colors unless a {@link TextureAtlas} has been set. Floor and ceiling
+ * are either filled with the background color or, if enabled, rendered by a {@link FloorRenderer}
+ * before the walls are drawn on top. If enabled, pills are drawn last by a {@link SpriteRenderer}.
+ *
+ * Lighting and distance fog are looked up in a {@link ShadingTable}.
+ *
+ * With temporal reprojection enabled, consecutive frames cast alternating halves of the columns (odd or even).
+ * The other half reuses the walls the same columns hit in the previous frame (see {@link RayCaster#reprojectColumn}),
+ * falling back to casting whenever neither neighboring column confirms the wall or the camera moved too far.
+ * Frames rendered with an unchanged camera cast all columns, so the image converges once the camera stops.
+ *
+ * With wall tracing enabled, rays are only cast where wall faces begin or end (see {@link RayCaster#traceColumns}),
+ * which produces exactly the same image. Otherwise, rays may be cast several at a time using the Vector API
+ * if available (see {@link VectorSupport}), again with the same results.
+ */
+public final class ColumnRenderer
+{
+	/**
+	 * Strips narrower than this are not split any further.
+	 */
+	private static final int MIN_STRIP_WIDTH = 32;
+
+	/**
+	 * Number of ray tables (one per heading) to keep.
+	 */
+	private static final int RAY_TABLE_CACHE_SIZE = 16;
+
+	/**
+	 * Frames that turn by more than this many degrees or move further than
+	 * {@link #MAX_REPROJECTED_DISTANCE} cells cast all columns.
+	 */
+	private static final double MAX_REPROJECTED_ROTATION = 10;
+	private static final double MAX_REPROJECTED_DISTANCE = 0.5;
+
+	private final TileManager tileManager;
+	private final int maxRenderDistance;
+	private final int threadCount;
+	private final boolean renderDistanceFog;
+
+	private final RayCaster rayCaster;
+	private final ForkJoinPool pool;
+
+	private final ThreadLocal<RayCaster> workerCaster;
+	private final ThreadLocal<ColumnCaster> vectorCaster;
+	
+	private final RayTable.Cache rayTables = new RayTable.Cache( RAY_TABLE_CACHE_SIZE );
+
+	private final FloorRenderer floorRenderer;
+	private final SpriteRenderer spriteRenderer;
+
+	private volatile ShadingTable shading;
+	private volatile TextureAtlas textures;
+	private volatile boolean floorCasting;
+	private volatile boolean renderSprites;
+	private volatile boolean temporalReprojection;
+	private volatile boolean wallTracing;
+	private volatile boolean vectorCasting;
+
+	// camera of the last frame, used to decide whether columns may be reprojected
+	private ColumnBuffer lastColumns;
+	private int lastHeight;
+	private double lastX;
+	private double lastY;
+	private double lastHeading;
+	private int parity;
+
+	private final AtomicInteger reprojectedColumns = new AtomicInteger();
+	private final AtomicInteger castRays = new AtomicInteger();
+
+	public ColumnRenderer(TileManager tileManager,int maxRenderDistance,int threadCount,boolean renderDistanceFog)
+	{
+		if ( threadCount < 1 ) {
+			throw new IllegalArgumentException("Thread count must be >= 1, was: "+threadCount);
+		}
+		this.tileManager = tileManager;
+		this.maxRenderDistance = maxRenderDistance;
+		this.threadCount = threadCount;
+		this.renderDistanceFog = renderDistanceFog;
+		this.rayCaster = new RayCaster( tileManager , maxRenderDistance );
+		this.pool = threadCount > 1 ? new ForkJoinPool( threadCount ) : null;
+		this.workerCaster = ThreadLocal.withInitial( () -> new RayCaster( this.tileManager , this.maxRenderDistance ) );
+		this.vectorCaster = ThreadLocal.withInitial( () -> VectorSupport.newCaster( this.tileManager , this.maxRenderDistance ) );
+		this.floorRenderer = new FloorRenderer( maxRenderDistance , pool , threadCount );
+		this.spriteRenderer = new SpriteRenderer( tileManager , maxRenderDistance );
+		this.shading = new ShadingTable( maxRenderDistance , renderDistanceFog , 1.0 );
+	}
+
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	/**
+	 * Sets the wall textures.
+	 *
+	 * @param textures textures, <code>null</code> draws all walls with flat colors
+	 */
+	public void setTextures(TextureAtlas textures) {
+		this.textures = textures;
+	}
+
+	public TextureAtlas getTextures() {
+		return textures;
+	}
+
+	/**
+	 * Sets how much surfaces darken with distance.
+	 *
+	 * Must not be called while a frame is being rendered.
+	 *
+	 * @param minBrightness brightness at the max. render distance (0...1), 1 disables lighting
+	 */
+	public void setLighting(double minBrightness) {
+		this.shading = new ShadingTable( maxRenderDistance , renderDistanceFog , minBrightness );
+	}
+
+	/**
+	 * Enables or disables rendering floor and ceiling.
+	 *
+	 * @param floorCasting whether to render floor and ceiling, <code>false</code> fills them with the background color
+	 */
+	public void setFloorCasting(boolean floorCasting) {
+		this.floorCasting = floorCasting;
+	}
+
+	public FloorRenderer getFloorRenderer() {
+		return floorRenderer;
+	}
+
+	/**
+	 * Enables or disables drawing pills.
+	 */
+	public void setRenderSprites(boolean renderSprites) {
+		this.renderSprites = renderSprites;
+	}
+
+	/**
+	 * Enables or disables casting only every other column per frame and reprojecting the rest.
+	 */
+	public void setTemporalReprojection(boolean temporalReprojection) {
+		this.temporalReprojection = temporalReprojection;
+	}
+
+	/**
+	 * Enables or disables casting rays only at the edges of wall faces.
+	 */
+	public void setWallTracing(boolean wallTracing) {
+		this.wallTracing = wallTracing;
+	}
+
+	/**
+	 * Enables or disables casting several rays at once using the Vector API.
+	 *
+	 * Has no effect if the Vector API is not available or wall tracing is enabled.
+	 *
+	 * @see VectorSupport#isAvailable()
+	 */
+	public void setVectorCasting(boolean vectorCasting) {
+		this.vectorCasting = vectorCasting;
+	}
+
+	/**
+	 * Returns the number of rays cast in the last frame.
+	 */
+	public int getCastRayCount() {
+		return castRays.get();
+	}
+
+	/**
+	 * Returns the number of columns in the last frame that have been reprojected instead of cast.
+	 */
+	public int getReprojectedColumnCount() {
+		return reprojectedColumns.get();
+	}
+
+	/**
+	 * Returns the number of sprites drawn in the last frame.
+	 */
+	public int getSpriteCount() {
+		return renderSprites ? spriteRenderer.getSpriteCount() : 0;
+	}
+
+	/**
+	 * Casts all columns of the current frame and renders them.
+	 *
+	 * Every pixel of the frame buffer gets written, there is no need to clear it upfront.
+	 *
+	 * @param player
+	 * @param frame frame to render to
+	 * @param out buffer receiving the cast results, must be as wide as the frame
+	 * @param backgroundColor packed ARGB color used for everything that is not a wall
+	 */
+	public void render(Player player,FrameBuffer frame,ColumnBuffer out,int backgroundColor)
+	{
+		final int w = frame.width;
+		if ( ! out.hasWidth( w ) ) {
+			throw new IllegalArgumentException("Column buffer has width "+out.width+" but frame is "+w+" pixels wide");
+		}
+		final RayTable rays = rayTables.get( w , player.headingIndex );
+		final int parity = nextParity( player , out , frame.height );
+		reprojectedColumns.set( 0 );
+		castRays.set( 0 );
+		final boolean tracing = this.wallTracing;
+		final boolean vector = this.vectorCasting && VectorSupport.isAvailable();
+		final TextureAtlas atlas = this.textures;
+		final boolean wallsOnly = floorCasting;
+
+		ShadingTable shading = this.shading;
+		shading.update( backgroundColor );
+		if ( shading.isIdentity() ) {
+			shading = null;
+		}
+
+		if ( wallsOnly ) {
+			floorRenderer.render( player , rays , frame , atlas , shading , backgroundColor );
+		}
+		final SpriteRenderer sprites = renderSprites ? spriteRenderer : null;
+		if ( sprites != null ) {
+			sprites.collect( player , rays , w , frame.height );
+		}
+		if ( pool == null || w < 2*MIN_STRIP_WIDTH ) {
+			renderStrip( rayCaster , player , rays , 0 , w , frame , out , atlas , shading , wallsOnly , sprites , parity , tracing , vector , backgroundColor );
+		} else {
+			final int stripWidth = Math.max( MIN_STRIP_WIDTH , w / (threadCount*4) );
+			pool.invoke( new StripTask( player , rays , 0 , w , stripWidth , frame , out , atlas , shading , wallsOnly , sprites , parity , tracing , vector , backgroundColor ) );
+		}
+	}
+
+	/*
+	 * Returns which columns to cast in the current frame (0 = even, 1 = odd)
+	 * or -1 if all columns need to be cast.
+	 */
+	private int nextParity(Player player,ColumnBuffer out,int height)
+	{
+		double rotation = Math.abs( player.heading - lastHeading ) % 360;
+		if ( rotation > 180 ) {
+			rotation = 360 - rotation;
+		}
+		final double dx = player.position.x - lastX;
+		final double dy = player.position.y - lastY;
+		// a camera that stopped gets all columns cast, so wrongly reprojected columns don't stay on screen
+		final boolean moved = rotation != 0 || dx != 0 || dy != 0;
+		final boolean coherent = temporalReprojection && moved && out == lastColumns && height == lastHeight &&
+				rotation <= MAX_REPROJECTED_ROTATION && dx*dx + dy*dy <= MAX_REPROJECTED_DISTANCE*MAX_REPROJECTED_DISTANCE;
+
+		lastColumns = out;
+		lastHeight = height;
+		lastX = player.position.x;
+		lastY = player.position.y;
+		lastHeading = player.heading;
+		if ( ! coherent ) {
+			return -1;
+		}
+		parity ^= 1;
+		return parity;
+	}
+
+	/*
+	 * Casts and draws columns [fromX,toX). If 'wallsOnly' is set, only the rows covered by walls get written,
+	 * otherwise everything else is filled with the background color. Sprites are drawn last, if any.
+	 * A shading table of <code>null</code> leaves all colors unchanged. If 'parity' is not -1, only columns
+	 * of that parity are cast, the others get reprojected if possible.
+	 */
+	private void renderStrip(RayCaster caster,Player player,RayTable rays,int fromX,int toX,FrameBuffer frame,ColumnBuffer columns,
+			TextureAtlas atlas,ShadingTable shading,boolean wallsOnly,SpriteRenderer sprites,int parity,boolean tracing,boolean vector,int backgroundColor)
+	{
+		if ( parity < 0 && tracing ) {
+			castRays.addAndGet( caster.traceColumns( player , rays , fromX , toX , frame.height , columns ) );
+		} else if ( parity < 0 && vector ) {
+			vectorCaster.get().castColumns( player , rays , fromX , toX , frame.height , columns );
+			castRays.addAndGet( toX - fromX );
+		} else if ( parity < 0 ) {
+			caster.castColumns( player , rays , fromX , toX , frame.height , columns );
+			castRays.addAndGet( toX - fromX );
+		} else {
+			castInterleaved( caster , player , rays , fromX , toX , frame.height , columns , parity );
+		}
+
+		for ( int x = fromX ; x < toX ; x++ )
+		{
+			if ( ! columns.hit[x] ) {
+				if ( ! wallsOnly ) {
+					frame.fillColumn( x , backgroundColor , 0 , -1 , 0 , backgroundColor );
+				}
+				continue;
+			}
+
+			final int bucket = shading != null ? shading.bucket( columns.perpWallDist[x] ) : 0;
+
+			final int texture = atlas != null ? atlas.getTexture( columns.paletteIndex[x] ) : TextureAtlas.NO_TEXTURE;
+			if ( texture != TextureAtlas.NO_TEXTURE )
+			{
+				final int level = atlas.mipLevel( columns.wallHeight[x] );
+				final int size = atlas.textureSize >> level;
+				final int u = Math.min( (int) ( columns.wallX[x] * size ) , size - 1 );
+				final int offset = atlas.offset( texture , columns.darkSide[x] , level ) + u * size;
+				final int[] channels = shading != null ? shading.channels() : null;
+				final int channelOffset = ShadingTable.channelOffset( bucket );
+				if ( wallsOnly ) {
+					frame.textureWall( x , columns.wallTop[x] , columns.wallHeight[x] , atlas.texels , offset , size , channels , channelOffset );
+				} else {
+					frame.textureColumn( x , backgroundColor , columns.wallTop[x] , columns.wallHeight[x] , atlas.texels , offset , size ,
+							channels , channelOffset , backgroundColor );
+				}
+				continue;
+			}
+
+			final int color = shading != null ? shading.paletteColor( columns.paletteIndex[x] , columns.darkSide[x] , bucket ) : columns.color[x];
+			if ( wallsOnly ) {
+				frame.fillWall( x , columns.drawStart[x] , columns.drawEnd[x] , color );
+			} else {
+				frame.fillColumn( x , backgroundColor , columns.drawStart[x] , columns.drawEnd[x] , color , backgroundColor );
+			}
+		}
+
+		if ( sprites != null ) {
+			sprites.draw( frame , columns , fromX , toX , shading );
+		}
+	}
+
+	private void castInterleaved(RayCaster caster,Player player,RayTable rays,int fromX,int toX,int h,ColumnBuffer columns,int parity)
+	{
+		int cast = 0;
+		final int first = ( fromX & 1 ) == parity ? fromX : fromX + 1;
+		for ( int x = first ; x < toX ; x += 2 ) {
+			caster.castColumn( player , rays , x , h , columns );
+			cast++;
+		}
+
+		// a wall that still covers a freshly cast neighbor is very likely to cover the column in between as well,
+		// neighbors outside of the strip may belong to another thread
+		int reprojected = 0;
+		final int second = first == fromX ? fromX + 1 : fromX;
+		for ( int x = second ; x < toX ; x += 2 )
+		{
+			final boolean confirmed = ( x > fromX && sameWall( columns , x , x-1 ) ) || ( x+1 < toX && sameWall( columns , x , x+1 ) );
+			if ( confirmed && caster.reprojectColumn( player , rays , x , h , columns ) ) {
+				reprojected++;
+			} else {
+				caster.castColumn( player , rays , x , h , columns );
+				cast++;
+			}
+		}
+		reprojectedColumns.addAndGet( reprojected );
+		castRays.addAndGet( cast );
+	}
+
+	private static boolean sameWall(ColumnBuffer columns,int x1,int x2)
+	{
+		return columns.hit[x1] && columns.hit[x2] && columns.mapX[x1] == columns.mapX[x2] &&
+				columns.mapY[x1] == columns.mapY[x2] && columns.darkSide[x1] == columns.darkSide[x2];
+	}
+
+	public void dispose() {
+		if ( pool != null ) {
+			pool.shutdown();
+		}
+	}
+
+	protected final class StripTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final Player player;
+		private final RayTable rays;
+		private final int fromX;
+		private final int toX;
+		private final int stripWidth;
+		private final FrameBuffer frame;
+		private final ColumnBuffer out;
+		private final TextureAtlas atlas;
+		private final ShadingTable shading;
+		private final boolean wallsOnly;
+		private final SpriteRenderer sprites;
+		private final int parity;
+		private final boolean tracing;
+		private final boolean vector;
+		private final int backgroundColor;
+
+		public StripTask(Player player, RayTable rays, int fromX, int toX, int stripWidth, FrameBuffer frame, ColumnBuffer out,
+				TextureAtlas atlas,ShadingTable shading,boolean wallsOnly,SpriteRenderer sprites,int parity,boolean tracing,boolean vector,int backgroundColor)
+		{
+			this.player = player;
+			this.rays = rays;
+			this.fromX = fromX;
+			this.toX = toX;
+			this.stripWidth = stripWidth;
+			this.frame = frame;
+			this.out = out;
+			this.atlas = atlas;
+			this.shading = shading;
+			this.wallsOnly = wallsOnly;
+			this.sprites = sprites;
+			this.parity = parity;
+			this.tracing = tracing;
+			this.vector = vector;
+			this.backgroundColor = backgroundColor;
+		}
+
+		@Override
+		protected void compute()
+		{
+			final int len = toX - fromX;
+			if ( len <= stripWidth ) {
+				renderStrip( workerCaster.get() , player , rays , fromX , toX , frame , out , atlas , shading , wallsOnly , sprites , parity , tracing , vector , backgroundColor );
+				return;
+			}
+			final int mid = fromX + len/2;
+			invokeAll( new StripTask( player , rays , fromX , mid , stripWidth , frame , out , atlas , shading , wallsOnly , sprites , parity , tracing , vector , backgroundColor ) ,
+					   new StripTask( player , rays , mid , toX , stripWidth , frame , out , atlas , shading , wallsOnly , sprites , parity , tracing , vector , backgroundColor ) );
+		}
+	}
+}
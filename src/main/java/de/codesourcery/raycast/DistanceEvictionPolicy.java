@@ -0,0 +1,104 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+/**
+ * Evicts the tile that is farthest away from the player, tiles behind the player
+ * count as being farther away than tiles in front of the player.
+ *
+ * Unlike LRU this does not thrash when the player walks back and forth along a tile border,
+ * as the tiles on both sides are always the closest ones.
+ * Among tiles at the same distance, tiles that have not been accessed recently are evicted first.
+ */
+public final class DistanceEvictionPolicy implements EvictionPolicy
+{
+	private final double behindPenalty;
+
+	// updated by the game loop, read by threads adding tiles to the cache
+	private volatile State state = new State( 0 , 0 , 0 , 0 );
+
+	private static final class State
+	{
+		public final int tileX;
+		public final int tileY;
+		public final double dirX;
+		public final double dirY;
+
+		public State(int tileX,int tileY,double dirX,double dirY)
+		{
+			this.tileX = tileX;
+			this.tileY = tileY;
+			this.dirX = dirX;
+			this.dirY = dirY;
+		}
+	}
+
+	public DistanceEvictionPolicy() {
+		this( 1 );
+	}
+
+	/**
+	 * Create instance.
+	 *
+	 * @param behindPenalty distance (in tiles) added to tiles directly behind the player, scaled
+	 * down to zero for tiles to the left or right of the player
+	 */
+	public DistanceEvictionPolicy(double behindPenalty) {
+		this.behindPenalty = behindPenalty;
+	}
+
+	@Override
+	public void playerMoved(Player player,TileId playerTile)
+	{
+		final State current = state;
+		if ( current.tileX != playerTile.x || current.tileY != playerTile.y || current.dirX != player.direction.x || current.dirY != player.direction.y ) {
+			state = new State( playerTile.x , playerTile.y , player.direction.x , player.direction.y );
+		}
+	}
+
+	@Override
+	public Tile selectVictim(Tile[] tiles,int count)
+	{
+		final State current = state;
+		Tile victim = null;
+		double maxScore = -1;
+		for ( int i = 0 ; i < count ; i++ )
+		{
+			final Tile tile = tiles[i];
+			double score = score( tile.tileId , current );
+			if ( tile.referenced ) {
+				score -= 0.5;
+				tile.referenced = false;
+			}
+			if ( score > maxScore ) {
+				maxScore = score;
+				victim = tile;
+			}
+		}
+		return victim;
+	}
+
+	private double score(TileId tile,State current)
+	{
+		final double dx = tile.x - current.tileX;
+		final double dy = tile.y - current.tileY;
+		final double dist = Math.sqrt( dx*dx + dy*dy );
+		if ( dist == 0 ) {
+			return 0;
+		}
+		final double cos = ( dx*current.dirX + dy*current.dirY ) / dist;
+		return cos < 0 ? dist - cos * behindPenalty : dist;
+	}
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+/**
+ * Decides which tile to remove from a full {@link TileIndex}.
+ *
+ * Implementations are only ever invoked by one thread at a time.
+ *
+ * @see ClockEvictionPolicy
+ * @see DistanceEvictionPolicy
+ */
+public interface EvictionPolicy
+{
+	/**
+	 * Selects the tile to evict.
+	 *
+	 * @param tiles snapshot of all cached tiles except the one currently being added, only the first <code>count</code> elements are valid
+	 * @param count number of cached tiles, always &gt; 0
+	 * @return tile to evict, must be one of the given tiles
+	 */
+	public Tile selectVictim(Tile[] tiles,int count);
+
+	/**
+	 * Invoked whenever the player moved.
+	 *
+	 * @param player
+	 * @param playerTile tile the player is currently in
+	 */
+	public default void playerMoved(Player player,TileId playerTile) {
+	}
+}
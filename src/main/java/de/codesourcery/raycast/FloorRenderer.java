@@ -0,0 +1,255 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Renders floor and ceiling one horizontal scanline at a time.
+ *
+ * All pixels of a scanline have the same distance to the camera, so the map position under each pixel
+ * is found by stepping along the row with a constant increment. Floor and ceiling are either textured
+ * (see {@link TextureAtlas#setFloorTexture(int)}) or drawn using flat colors. Lighting and fog are looked up
+ * in a {@link ShadingTable} once per row, without one flat colors still get darker with distance.
+ *
+ * Rows are independent of each other and get split across the threads of a {@link ForkJoinPool}. 
+ */
+public final class FloorRenderer
+{
+	public static final int DEFAULT_FLOOR_COLOR = 0xff606060;
+	public static final int DEFAULT_CEILING_COLOR = 0xff9a9a9a;
+
+	/**
+	 * Bands narrower than this are not split any further.
+	 */
+	private static final int MIN_BAND_HEIGHT = 16;
+
+	/**
+	 * Height of the camera above the floor when the player stands on the ground,
+	 * walls are half a unit high. Must match the wall projection in {@link RayCaster}.
+	 */
+	private static final double EYE_HEIGHT = 0.25;
+	private static final double WALL_HEIGHT = 0.5;
+
+	// brightness of flat floor and ceiling at max. render distance (0...256) when not shaded
+	private static final int MIN_BRIGHTNESS = 80;
+
+	private final int maxRenderDistance;
+	private final ForkJoinPool pool;
+	private final int threadCount;
+
+	private volatile int floorColor = DEFAULT_FLOOR_COLOR;
+	private volatile int ceilingColor = DEFAULT_CEILING_COLOR;
+
+	/**
+	 * Create instance.
+	 *
+	 * @param maxRenderDistance
+	 * @param pool pool to split rows across, <code>null</code> renders on the calling thread
+	 * @param threadCount parallelism of the pool
+	 */
+	public FloorRenderer(int maxRenderDistance,ForkJoinPool pool,int threadCount)
+	{
+		this.maxRenderDistance = maxRenderDistance;
+		this.pool = pool;
+		this.threadCount = threadCount;
+	}
+
+	/**
+	 * Sets the colors used if no texture is set.
+	 *
+	 * @param floorColor packed ARGB color
+	 * @param ceilingColor packed ARGB color
+	 */
+	public void setColors(int floorColor,int ceilingColor) {
+		this.floorColor = floorColor;
+		this.ceilingColor = ceilingColor;
+	}
+
+	/**
+	 * Renders all rows of a frame.
+	 *
+	 * Every pixel of the frame buffer gets written, there is no need to clear it upfront.
+	 *
+	 * @param player
+	 * @param rays ray setup for the current screen width and player heading
+	 * @param frame
+	 * @param textures textures to use, may be <code>null</code>
+	 * @param shading lighting and fog, <code>null</code> leaves textures unchanged
+	 * @param backgroundColor packed ARGB color used beyond the max. render distance
+	 */
+	public void render(Player player,RayTable rays,FrameBuffer frame,TextureAtlas textures,ShadingTable shading,int backgroundColor)
+	{
+		final int h = frame.height;
+		if ( pool == null || h < 2*MIN_BAND_HEIGHT ) {
+			renderRows( player , rays , 0 , h , frame , textures , shading , backgroundColor );
+		} else {
+			final int bandHeight = Math.max( MIN_BAND_HEIGHT , h / (threadCount*4) );
+			pool.invoke( new BandTask( player , rays , 0 , h , bandHeight , frame , textures , shading , backgroundColor ) );
+		}
+	}
+
+	private void renderRows(Player player,RayTable rays,int fromY,int toY,FrameBuffer frame,TextureAtlas textures,ShadingTable shading,int backgroundColor)
+	{
+		final int w = frame.width;
+		final int h = frame.height;
+		final int[] pixels = frame.pixels;
+
+		final double eyeHeight = eyeHeight( player );
+		final double posX = player.position.x;
+		final double posY = player.position.y;
+
+		// ray direction of the leftmost column and increment per column
+		final double dirX0 = rays.dirX - rays.planeX;
+		final double dirY0 = rays.dirY - rays.planeY;
+		final double stepDirX = 2 * rays.planeX / w;
+		final double stepDirY = 2 * rays.planeY / w;
+		final double stepDirLength = Math.sqrt( stepDirX*stepDirX + stepDirY*stepDirY );
+
+		for ( int y = fromY ; y < toY ; y++ )
+		{
+			final int rowStart = y*w;
+			final boolean ceiling = 2*y+1 < h;
+
+			// distance of the row's center from the horizon (in pixels) and of the plane from the camera
+			final double rowOffset = Math.abs( 2*y+1 - h ) * 0.5;
+			final double planeDistance = ceiling ? WALL_HEIGHT - eyeHeight : eyeHeight;
+			if ( planeDistance <= 0 ) { // jumped above the ceiling
+				Arrays.fill( pixels , rowStart , rowStart+w , backgroundColor );
+				continue;
+			}
+
+			final double rowDistance = h * planeDistance / rowOffset;
+			if ( rowDistance > maxRenderDistance ) {
+				Arrays.fill( pixels , rowStart , rowStart+w , backgroundColor );
+				continue;
+			}
+
+			final int bucket = shading != null ? shading.bucket( rowDistance ) : 0;
+
+			final int texture = textures == null ? TextureAtlas.NO_TEXTURE : ceiling ? textures.getCeilingTexture() : textures.getFloorTexture();
+			if ( texture == TextureAtlas.NO_TEXTURE )
+			{
+				final int color;
+				if ( shading != null ) {
+					color = shading.shade( ceiling ? ceilingColor : floorColor , bucket );
+				} else {
+					final int brightness = 256 - (int) ( ( 256 - MIN_BRIGHTNESS ) * rowDistance / maxRenderDistance );
+					color = shade( ceiling ? ceilingColor : floorColor , brightness );
+				}
+				Arrays.fill( pixels , rowStart , rowStart+w , color );
+				continue;
+			}
+
+			final int level = textures.mipLevel( rowDistance * stepDirLength * textures.textureSize );
+			final int size = textures.textureSize >> level;
+			final int shift = textures.levels - 1 - level; // log2( size )
+			final int mask = size - 1;
+			final int offset = textures.offset( texture , false , level );
+			final int[] texels = textures.texels;
+
+			// map position in texels, 16.16 fixed point ; the texture repeats in every cell
+			final double scale = size * 65536.0;
+			long u = (long) ( ( posX + rowDistance * dirX0 ) * scale );
+			long v = (long) ( ( posY + rowDistance * dirY0 ) * scale );
+			final long du = (long) ( rowDistance * stepDirX * scale );
+			final long dv = (long) ( rowDistance * stepDirY * scale );
+			if ( shading == null )
+			{
+				for ( int ptr = rowStart , end = rowStart + w ; ptr < end ; ptr++ , u += du , v += dv )
+				{
+					final int tu = (int) ( u >> 16 ) & mask;
+					final int tv = (int) ( v >> 16 ) & mask;
+					pixels[ptr] = texels[ offset + ( tu << shift | tv ) ];
+				}
+				continue;
+			}
+			final int[] channels = shading.channels();
+			final int channelOffset = ShadingTable.channelOffset( bucket );
+			for ( int ptr = rowStart , end = rowStart + w ; ptr < end ; ptr++ , u += du , v += dv )
+			{
+				final int tu = (int) ( u >> 16 ) & mask;
+				final int tv = (int) ( v >> 16 ) & mask;
+				pixels[ptr] = ShadingTable.shade( texels[ offset + ( tu << shift | tv ) ] , channels , channelOffset );
+			}
+		}
+	}
+
+	/**
+	 * Returns the height of the camera above the floor, including the jump height.
+	 */
+	static double eyeHeight(Player player) {
+		return EYE_HEIGHT + player.z / Player.MAX_Z;
+	}
+
+	/**
+	 * Scales the RGB components of a color.
+	 *
+	 * @param color
+	 * @param brightness 0...256
+	 */
+	private static int shade(int color,int brightness)
+	{
+		final int r = ( ( ( color >> 16 ) & 0xff ) * brightness ) >> 8;
+		final int g = ( ( ( color >>  8 ) & 0xff ) * brightness ) >> 8;
+		final int b = ( (   color         & 0xff ) * brightness ) >> 8;
+		return ( color & 0xff000000 ) | r << 16 | g << 8 | b;
+	}
+
+	protected final class BandTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final Player player;
+		private final RayTable rays;
+		private final int fromY;
+		private final int toY;
+		private final int bandHeight;
+		private final FrameBuffer frame;
+		private final TextureAtlas textures;
+		private final ShadingTable shading;
+		private final int backgroundColor;
+
+		public BandTask(Player player,RayTable rays,int fromY,int toY,int bandHeight,FrameBuffer frame,TextureAtlas textures,
+				ShadingTable shading,int backgroundColor)
+		{
+			this.player = player;
+			this.rays = rays;
+			this.fromY = fromY;
+			this.toY = toY;
+			this.bandHeight = bandHeight;
+			this.frame = frame;
+			this.textures = textures;
+			this.shading = shading;
+			this.backgroundColor = backgroundColor;
+		}
+
+		@Override
+		protected void compute()
+		{
+			final int len = toY - fromY;
+			if ( len <= bandHeight ) {
+				renderRows( player , rays , fromY , toY , frame , textures , shading , backgroundColor );
+				return;
+			}
+			final int mid = fromY + len/2;
+			invokeAll( new BandTask( player , rays , fromY , mid , bandHeight , frame , textures , shading , backgroundColor ) ,
+					   new BandTask( player , rays , mid , toY , bandHeight , frame , textures , shading , backgroundColor ) );
+		}
+	}
+}
@@ -0,0 +1,297 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * A <code>TYPE_INT_ARGB</code> image whose pixels are written directly
+ * through the backing <code>int[]</code> array.
+ *
+ * Pixels are stored row by row, the pixel at (x,y) lives at index <code>x + y*width</code>.
+ * 
+ * Besides allocating its own image, a frame buffer may also wrap a caller-supplied pixel array
+ * or image so that rendering writes straight into it.
+ */
+public final class FrameBuffer
+{
+	public final int width;
+	public final int height;
+	public final int[] pixels;
+
+	private final BufferedImage image;
+	private Graphics2D graphics;
+
+	public FrameBuffer(int width,int height)
+	{
+		if ( width < 1 || height < 1 ) {
+			throw new IllegalArgumentException("Invalid size "+width+"x"+height);
+		}
+		this.width = width;
+		this.height = height;
+		this.image = new BufferedImage( width , height , BufferedImage.TYPE_INT_ARGB );
+		this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+	}
+
+	/**
+	 * Wraps an existing pixel array, pixels are interpreted as ARGB.
+	 *
+	 * @param pixels pixels, row by row, must hold at least <code>width*height</code> elements
+	 * @param width
+	 * @param height
+	 */
+	public FrameBuffer(int[] pixels,int width,int height)
+	{
+		if ( width < 1 || height < 1 ) {
+			throw new IllegalArgumentException("Invalid size "+width+"x"+height);
+		}
+		if ( pixels.length < width*height ) {
+			throw new IllegalArgumentException("Pixel array too small for "+width+"x"+height+": "+pixels.length);
+		}
+		this.width = width;
+		this.height = height;
+		this.pixels = pixels;
+		final DirectColorModel colorModel = (DirectColorModel) ColorModel.getRGBdefault();
+		final WritableRaster raster = Raster.createPackedRaster( new DataBufferInt( pixels , width*height ) , width , height , width , colorModel.getMasks() , null );
+		this.image = new BufferedImage( colorModel , raster , false , null );
+	}
+
+	/**
+	 * Wraps an existing image.
+	 *
+	 * @param image
+	 * @see #canWrap(BufferedImage)
+	 */
+	public FrameBuffer(BufferedImage image)
+	{
+		if ( ! canWrap( image ) ) {
+			throw new IllegalArgumentException("Unsupported image type: "+image);
+		}
+		this.width = image.getWidth();
+		this.height = image.getHeight();
+		this.image = image;
+		this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+	}
+
+	/**
+	 * Returns whether an image stores its pixels as a plain <code>int[]</code> array
+	 * (<code>TYPE_INT_ARGB</code> or <code>TYPE_INT_RGB</code> and not a sub-image).
+	 */
+	public static boolean canWrap(BufferedImage image)
+	{
+		if ( image.getType() != BufferedImage.TYPE_INT_ARGB && image.getType() != BufferedImage.TYPE_INT_RGB ) {
+			return false;
+		}
+		final WritableRaster raster = image.getRaster();
+		if ( raster.getParent() != null || ! ( raster.getSampleModel() instanceof SinglePixelPackedSampleModel ) ) {
+			return false;
+		}
+		final SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+		return sampleModel.getScanlineStride() == image.getWidth() && raster.getDataBuffer().getOffset() == 0;
+	}
+
+	public boolean hasSize(int width,int height) {
+		return this.width == width && this.height == height;
+	}
+
+	public BufferedImage getImage() {
+		return image;
+	}
+
+	/**
+	 * Returns a graphics context for drawing overlays (text etc.) on top of
+	 * the raster.
+	 *
+	 * The context is created lazily and must not be disposed by the caller.
+	 */
+	public Graphics2D getGraphics()
+	{
+		if ( graphics == null ) {
+			graphics = image.createGraphics();
+		}
+		return graphics;
+	}
+
+	/**
+	 * Scales this buffer's contents to the size of another buffer (nearest neighbor)
+	 * and writes the result into it.
+	 *
+	 * @param target
+	 */
+	public void scaleTo(FrameBuffer target)
+	{
+		final int[] src = this.pixels;
+		final int[] dst = target.pixels;
+		final int targetWidth = target.width;
+
+		// source position in 16.16 fixed point
+		final int stepX = (int) ( ( (long) width << 16 ) / targetWidth );
+		final int stepY = (int) ( ( (long) height << 16 ) / target.height );
+		int previousRow = -1;
+		for ( int y = 0 , v = 0 , ptr = 0 ; y < target.height ; y++ , v += stepY , ptr += targetWidth )
+		{
+			final int row = v >>> 16;
+			if ( row == previousRow ) {
+				System.arraycopy( dst , ptr - targetWidth , dst , ptr , targetWidth );
+				continue;
+			}
+			previousRow = row;
+			final int rowStart = row * width;
+			for ( int x = 0 , u = 0 ; x < targetWidth ; x++ , u += stepX ) {
+				dst[ ptr + x ] = src[ rowStart + ( u >>> 16 ) ];
+			}
+		}
+	}
+
+	public void dispose()
+	{
+		if ( graphics != null ) {
+			graphics.dispose();
+			graphics = null;
+		}
+	}
+
+	/**
+	 * Fills a whole column in one pass: <code>ceilingColor</code> above the wall,
+	 * <code>wallColor</code> for rows <code>[wallStart,wallEnd]</code> and
+	 * <code>floorColor</code> below it.
+	 *
+	 * Wall rows outside of the screen are clipped, if <code>wallStart > wallEnd</code>
+	 * the whole column is filled with ceiling and floor color.
+	 */
+	public void fillColumn(int x,int ceilingColor,int wallStart,int wallEnd,int wallColor,int floorColor)
+	{
+		final int start = wallStart < 0 ? 0 : wallStart > height ? height : wallStart;
+		final int end = wallEnd < start ? start : wallEnd >= height ? height : wallEnd+1;
+
+		final int[] pixels = this.pixels;
+		final int stride = width;
+		int ptr = x;
+		for ( int y = 0 ; y < start ; y++ , ptr += stride ) {
+			pixels[ptr] = ceilingColor;
+		}
+		for ( int y = start ; y < end ; y++ , ptr += stride ) {
+			pixels[ptr] = wallColor;
+		}
+		for ( int y = end ; y < height ; y++ , ptr += stride ) {
+			pixels[ptr] = floorColor;
+		}
+	}
+
+	/**
+	 * Fills a whole column in one pass like {@link #fillColumn(int, int, int, int, int, int)} but
+	 * draws the wall by stretching one column of a texture over rows <code>[wallTop,wallTop+wallHeight)</code>.
+	 *
+	 * @param texels texture storage
+	 * @param offset index of the texture column's first texel
+	 * @param textureHeight number of texels in the texture column, must be a power of two
+	 */
+	public void textureColumn(int x,int ceilingColor,int wallTop,int wallHeight,int[] texels,int offset,int textureHeight,int floorColor) {
+		textureColumn( x , ceilingColor , wallTop , wallHeight , texels , offset , textureHeight , null , 0 , floorColor );
+	}
+
+	/**
+	 * Like {@link #textureColumn(int, int, int, int, int[], int, int, int)} but shades every texel.
+	 *
+	 * @param shading channel tables to shade texels with or <code>null</code>
+	 * @param shadingOffset offset of the channel tables
+	 * @see ShadingTable#channelOffset(int)
+	 */
+	public void textureColumn(int x,int ceilingColor,int wallTop,int wallHeight,int[] texels,int offset,int textureHeight,
+			int[] shading,int shadingOffset,int floorColor)
+	{
+		final int start = wallTop < 0 ? 0 : wallTop > height ? height : wallTop;
+		final long bottom = (long) wallTop + wallHeight;
+		final int end = bottom < start ? start : bottom > height ? height : (int) bottom;
+
+		final int[] pixels = this.pixels;
+		final int stride = width;
+		int ptr = x;
+		for ( int y = 0 ; y < start ; y++ , ptr += stride ) {
+			pixels[ptr] = ceilingColor;
+		}
+		textureWall( x , wallTop , wallHeight , texels , offset , textureHeight , shading , shadingOffset );
+		ptr = x + end * stride;
+		for ( int y = end ; y < height ; y++ , ptr += stride ) {
+			pixels[ptr] = floorColor;
+		}
+	}
+
+	/**
+	 * Draws rows <code>[wallStart,wallEnd]</code> of a column, leaving all other rows untouched.
+	 *
+	 * Rows outside of the screen are clipped.
+	 */
+	public void fillWall(int x,int wallStart,int wallEnd,int wallColor)
+	{
+		final int start = wallStart < 0 ? 0 : wallStart;
+		final int end = wallEnd >= height ? height : wallEnd+1;
+
+		final int[] pixels = this.pixels;
+		final int stride = width;
+		for ( int y = start , ptr = x + start * stride ; y < end ; y++ , ptr += stride ) {
+			pixels[ptr] = wallColor;
+		}
+	}
+
+	/**
+	 * Stretches one column of a texture over rows <code>[wallTop,wallTop+wallHeight)</code>,
+	 * leaving all other rows untouched.
+	 *
+	 * Rows outside of the screen are clipped.
+	 *
+	 * @param texels texture storage
+	 * @param offset index of the texture column's first texel
+	 * @param textureHeight number of texels in the texture column, must be a power of two
+	 * @param shading channel tables to shade texels with or <code>null</code>
+	 * @param shadingOffset offset of the channel tables
+	 * @see ShadingTable#channelOffset(int)
+	 */
+	public void textureWall(int x,int wallTop,int wallHeight,int[] texels,int offset,int textureHeight,int[] shading,int shadingOffset)
+	{
+		final int start = wallTop < 0 ? 0 : wallTop > height ? height : wallTop;
+		final long bottom = (long) wallTop + wallHeight;
+		final int end = bottom < start ? start : bottom > height ? height : (int) bottom;
+		if ( start >= end ) {
+			return;
+		}
+
+		// texture row in 16.16 fixed point
+		final int[] pixels = this.pixels;
+		final int stride = width;
+		final int mask = textureHeight - 1;
+		final long scale = (long) textureHeight << 16;
+		final int step = (int) ( scale / wallHeight );
+		int v = (int) ( ( start - wallTop ) * scale / wallHeight );
+		if ( shading == null )
+		{
+			for ( int y = start , ptr = x + start * stride ; y < end ; y++ , ptr += stride , v += step ) {
+				pixels[ptr] = texels[ offset + ( ( v >>> 16 ) & mask ) ];
+			}
+			return;
+		}
+		for ( int y = start , ptr = x + start * stride ; y < end ; y++ , ptr += stride , v += step ) {
+			pixels[ptr] = ShadingTable.shade( texels[ offset + ( ( v >>> 16 ) & mask ) ] , shading , shadingOffset );
+		}
+	}
+}
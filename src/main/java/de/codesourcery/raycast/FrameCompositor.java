@@ -0,0 +1,295 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Assembles frames from three layers: the 3D view, the radar and the HUD.
+ *
+ * The 3D view is rendered straight into the target frame and a copy of the rows underneath
+ * the HUD is kept, so the HUD can be redrawn without casting rays again. Radar and HUD are
+ * rendered into layers of their own and copied on top. The radar is opaque, HUD pixels
+ * with an alpha value of zero are transparent.
+ *
+ * Layers are only re-rendered after they changed, only the rectangles they cover get
+ * rewritten and reported as dirty (see {@link #getDirtyRegions()}).
+ *
+ * Instances are not thread-safe.
+ */
+public final class FrameCompositor
+{
+	/**
+	 * Height of the HUD layer in pixels, the HUD must be drawn within rows <code>[0,HUD_HEIGHT)</code>.
+	 */
+	public static final int HUD_HEIGHT = 100;
+
+	// target frame and state used to detect changes
+	private FrameBuffer target;
+	private int[] targetPixels;
+	private boolean invalid = true;
+
+	// 3D view pixels underneath the HUD
+	private int[] backdrop = new int[0];
+	private int backdropRows;
+
+	private FrameBuffer radar;
+	private int radarX;
+	private int radarY;
+	private boolean radarVisible;
+
+	private FrameBuffer hud;
+	// everything drawn into the HUD layer
+	private Rectangle hudBounds = new Rectangle();
+	private boolean hudVisible;
+
+	private boolean viewChanged;
+
+	// regions of the target that need to be composed from the layers
+	private final List<Rectangle> pending = new ArrayList<>();
+	private final List<Rectangle> dirty = new ArrayList<>();
+	private final List<Rectangle> dirtyView = Collections.unmodifiableList( dirty );
+
+	/**
+	 * Starts a new frame.
+	 *
+	 * @param frame frame to compose into
+	 * @return <code>true</code> if the target's contents are unknown (because it is a different
+	 * frame, has been resized or {@link #invalidate()} has been called) and all layers need to be rendered again
+	 */
+	public boolean beginFrame(FrameBuffer frame)
+	{
+		pending.clear();
+		dirty.clear();
+		viewChanged = false;
+
+		final boolean changed = invalid || frame.pixels != targetPixels || target == null || ! target.hasSize( frame.width , frame.height );
+		target = frame;
+		targetPixels = frame.pixels;
+		invalid = false;
+		if ( changed ) {
+			radarVisible = false;
+			hudVisible = false;
+		}
+		return changed;
+	}
+
+	/**
+	 * Forgets about the target's contents, the next frame needs to render all layers.
+	 */
+	public void invalidate() {
+		invalid = true;
+	}
+
+	/**
+	 * To be called after the 3D view has been rendered into the target.
+	 *
+	 * Marks the whole target as dirty.
+	 */
+	public void viewRendered()
+	{
+		backdropRows = Math.min( HUD_HEIGHT , target.height );
+		final int size = backdropRows * target.width;
+		if ( backdrop.length < size ) {
+			backdrop = new int[ size ];
+		}
+		System.arraycopy( target.pixels , 0 , backdrop , 0 , size );
+
+		viewChanged = true;
+		if ( radarVisible ) {
+			pending.add( radarBounds() );
+		}
+		if ( hudVisible && ! hudBounds.isEmpty() ) {
+			pending.add( hudBounds );
+		}
+	}
+
+	/**
+	 * Returns the radar layer.
+	 *
+	 * @param width
+	 * @param height
+	 * @return layer, its contents are undefined if the size changed since the last call
+	 */
+	public FrameBuffer getRadarLayer(int width,int height)
+	{
+		if ( radar == null || ! radar.hasSize( width , height ) )
+		{
+			if ( radar != null ) {
+				radar.dispose();
+			}
+			radar = new FrameBuffer( width , height );
+		}
+		return radar;
+	}
+
+	/**
+	 * To be called after the radar layer has been rendered.
+	 *
+	 * @param x position of the radar within the target
+	 * @param y
+	 */
+	public void radarRendered(int x,int y)
+	{
+		if ( radarVisible && ( x != radarX || y != radarY ) ) {
+			throw new IllegalStateException("Radar must not move without invalidating the target");
+		}
+		radarX = x;
+		radarY = y;
+		radarVisible = true;
+		pending.add( radarBounds() );
+	}
+
+	private Rectangle radarBounds() {
+		return new Rectangle( radarX , radarY , radar.width , radar.height );
+	}
+
+	/**
+	 * Clears the HUD layer and returns a graphics context for drawing the new HUD into it.
+	 *
+	 * Drawing must stay within rows <code>[0,HUD_HEIGHT)</code> and needs to be
+	 * followed by {@link #hudRendered(Rectangle)}.
+	 */
+	public Graphics2D beginHud()
+	{
+		final int width = target.width;
+		if ( hud == null || hud.width != width )
+		{
+			if ( hud != null ) {
+				hud.dispose();
+			}
+			hud = new FrameBuffer( width , HUD_HEIGHT );
+			hud.getGraphics().setRenderingHint( RenderingHints.KEY_TEXT_ANTIALIASING , RenderingHints.VALUE_TEXT_ANTIALIAS_OFF );
+			hudBounds = new Rectangle();
+		}
+		final Rectangle old = hudBounds.intersection( new Rectangle( 0 , 0 , hud.width , hud.height ) );
+		if ( ! old.isEmpty() )
+		{
+			for ( int y = old.y ; y < old.y + old.height ; y++ ) {
+				Arrays.fill( hud.pixels , y * width + old.x , y * width + old.x + old.width , 0 );
+			}
+		}
+		return hud.getGraphics();
+	}
+
+	/**
+	 * To be called after the HUD has been drawn.
+	 *
+	 * @param bounds bounding box of everything that has been drawn
+	 */
+	public void hudRendered(Rectangle bounds)
+	{
+		final Rectangle newBounds = bounds.intersection( new Rectangle( 0 , 0 , hud.width , Math.min( hud.height , target.height ) ) );
+		if ( hudVisible && ! hudBounds.isEmpty() ) {
+			pending.add( hudBounds );
+		}
+		if ( ! newBounds.isEmpty() ) {
+			pending.add( newBounds );
+		}
+		hudBounds = newBounds.isEmpty() ? new Rectangle() : newBounds;
+		hudVisible = true;
+	}
+
+	/**
+	 * Writes all layers that changed since {@link #beginFrame(FrameBuffer)} into the target.
+	 */
+	public void compose()
+	{
+		for ( Rectangle region : pending )
+		{
+			compose( region );
+			if ( ! viewChanged ) {
+				dirty.add( region );
+			}
+		}
+		pending.clear();
+		if ( viewChanged ) {
+			dirty.add( new Rectangle( 0 , 0 , target.width , target.height ) );
+		}
+	}
+
+	/*
+	 * Composes a region that lies within the radar or the HUD rows.
+	 */
+	private void compose(Rectangle region)
+	{
+		final int[] pixels = target.pixels;
+		final int width = target.width;
+		final int x0 = Math.max( 0 , region.x );
+		final int x1 = Math.min( width , region.x + region.width );
+		final int y0 = Math.max( 0 , region.y );
+		final int y1 = Math.min( target.height , region.y + region.height );
+
+		final int radarX1 = radarVisible ? radarX + radar.width : radarX;
+		final int radarY1 = radarVisible ? radarY + radar.height : radarY;
+		final int hudRows = hudVisible ? Math.min( hud.height , backdropRows ) : 0;
+
+		for ( int y = y0 ; y < y1 ; y++ )
+		{
+			final int row = y * width;
+			final boolean radarRow = y >= radarY && y < radarY1;
+			for ( int x = x0 ; x < x1 ; x++ )
+			{
+				int pixel;
+				if ( radarRow && x >= radarX && x < radarX1 ) {
+					pixel = radar.pixels[ ( x - radarX ) + ( y - radarY ) * radar.width ];
+				} else if ( y < backdropRows ) {
+					pixel = backdrop[ row + x ];
+				} else {
+					continue;
+				}
+				if ( y < hudRows )
+				{
+					final int hudPixel = hud.pixels[ row + x ];
+					if ( ( hudPixel >>> 24 ) != 0 ) {
+						pixel = hudPixel;
+					}
+				}
+				pixels[ row + x ] = pixel;
+			}
+		}
+	}
+
+	/**
+	 * Returns the regions of the target that changed in the current frame.
+	 *
+	 * @return regions, empty if nothing changed. Only valid until the next frame.
+	 */
+	public List<Rectangle> getDirtyRegions() {
+		return dirtyView;
+	}
+
+	public void dispose()
+	{
+		if ( radar != null ) {
+			radar.dispose();
+			radar = null;
+		}
+		if ( hud != null ) {
+			hud.dispose();
+			hud = null;
+		}
+		target = null;
+		targetPixels = null;
+		invalid = true;
+	}
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event covering one iteration of the game loop.
+ */
+@Name("de.codesourcery.raycast.Frame")
+@Label("Frame")
+@Category("Raycast")
+@Description("One iteration of the game loop, with the time spent in each stage")
+public class FrameEvent extends jdk.jfr.Event 
+{
+	@Label("Input") @Timespan
+	public long input;
+	
+	@Label("Simulation") @Timespan
+	public long simulation;
+	
+	@Label("Walls") @Timespan
+	public long walls;
+	
+	@Label("Radar") @Timespan
+	public long radar;
+	
+	@Label("HUD") @Timespan
+	public long hud;
+	
+	@Label("Blit") @Timespan
+	public long blit;
+}
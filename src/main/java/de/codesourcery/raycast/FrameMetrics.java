@@ -0,0 +1,244 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Duration histograms for all {@link FrameStage}s, exposed via JMX.
+ *
+ * Recording is lock-free and may happen from any thread.
+ *
+ * @see Timer
+ * @see #registerMBean()
+ */
+public final class FrameMetrics implements FrameMetricsMXBean
+{
+	public static final String OBJECT_NAME = "de.codesourcery.raycast:type=FrameMetrics";
+	
+	private final Histogram[] histograms = new Histogram[ FrameStage.values().length ];
+	private final Histogram frameTimes = new Histogram();
+	// simulation steps running on their own thread, see newSimulationTimer()
+	private final Histogram tickTimes = new Histogram();
+	
+	private volatile TileManager tileManager;
+	
+	/**
+	 * Times the stages of a single frame.
+	 * 
+	 * Each stage's duration is recorded in the histograms of the owning {@link FrameMetrics} 
+	 * and, if enabled, as a {@link FrameEvent} with JFR.
+	 * 
+	 * Instances are not thread-safe.
+	 */
+	public final class Timer 
+	{
+		private final long[] durations = new long[ FrameStage.values().length ];
+		private final Histogram frames;
+		
+		private FrameEvent event;
+		private long frameStart;
+		private long stageStart;
+		
+		protected Timer(Histogram frames) {
+			this.frames = frames;
+		}
+		
+		public FrameMetrics getMetrics() {
+			return FrameMetrics.this;
+		}
+		
+		/**
+		 * Starts a new frame and its first stage.
+		 */
+		public void beginFrame() 
+		{
+			for ( int i = 0 ; i < durations.length ; i++ ) {
+				durations[i] = 0;
+			}
+			event = new FrameEvent();
+			event.begin();
+			frameStart = stageStart = System.nanoTime();
+		}
+		
+		/**
+		 * Starts a new stage without recording the time since the end of the previous one.
+		 */
+		public void beginStage() {
+			stageStart = System.nanoTime();
+		}
+		
+		/**
+		 * Ends the current stage and starts the next one.
+		 * 
+		 * @param stage the stage that just ended
+		 */
+		public void endStage(FrameStage stage) 
+		{
+			final long now = System.nanoTime();
+			final long duration = now - stageStart;
+			stageStart = now;
+			durations[ stage.ordinal() ] += duration;
+			record( stage , duration );
+		}
+		
+		/**
+		 * Returns the time spent in a stage during the current (or last) frame.
+		 */
+		public long getDuration(FrameStage stage,TimeUnit unit) {
+			return unit.convert( durations[ stage.ordinal() ] , TimeUnit.NANOSECONDS );
+		}
+		
+		public void endFrame() 
+		{
+			frames.record( System.nanoTime() - frameStart );
+			if ( event != null && event.shouldCommit() ) 
+			{
+				event.input = durations[ FrameStage.INPUT.ordinal() ];
+				event.simulation = durations[ FrameStage.SIMULATION.ordinal() ];
+				event.walls = durations[ FrameStage.WALLS.ordinal() ];
+				event.radar = durations[ FrameStage.RADAR.ordinal() ];
+				event.hud = durations[ FrameStage.HUD.ordinal() ];
+				event.blit = durations[ FrameStage.BLIT.ordinal() ];
+				event.commit();
+			}
+			event = null;
+		}
+	}
+	
+	public FrameMetrics() 
+	{
+		for ( int i = 0 ; i < histograms.length ; i++ ) {
+			histograms[i] = new Histogram();
+		}
+	}
+	
+	public Timer newTimer() {
+		return new Timer( frameTimes );
+	}
+	
+	/**
+	 * Creates a timer for simulation steps that run separately from rendering,
+	 * their durations are recorded in {@link #getTickTimeHistogram()} instead of the frame times.
+	 */
+	public Timer newSimulationTimer() {
+		return new Timer( tickTimes );
+	}
+	
+	public void record(FrameStage stage,long durationNanos) {
+		histograms[ stage.ordinal() ].record( durationNanos );
+	}
+	
+	public Histogram getHistogram(FrameStage stage) {
+		return histograms[ stage.ordinal() ];
+	}
+	
+	/**
+	 * Histogram of the time between {@link Timer#beginFrame()} and {@link Timer#endFrame()}.
+	 */
+	public Histogram getFrameTimeHistogram() {
+		return frameTimes;
+	}
+	
+	/**
+	 * Histogram of the time between {@link Timer#beginFrame()} and {@link Timer#endFrame()} 
+	 * of timers created by {@link #newSimulationTimer()}.
+	 */
+	public Histogram getTickTimeHistogram() {
+		return tickTimes;
+	}
+	
+	/**
+	 * Sets the tile manager whose cache statistics should be exposed via JMX.
+	 */
+	public void setTileManager(TileManager tileManager) {
+		this.tileManager = tileManager;
+	}
+	
+	/**
+	 * Registers this instance with the platform MBean server as {@link #OBJECT_NAME}.
+	 */
+	public void registerMBean() 
+	{
+		try 
+		{
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName name = new ObjectName( OBJECT_NAME );
+			if ( server.isRegistered( name ) ) {
+				server.unregisterMBean( name );
+			}
+			server.registerMBean( this , name );
+		} 
+		catch (JMException e) {
+			throw new RuntimeException("Failed to register MBean "+OBJECT_NAME,e);
+		}
+	}
+	
+	@Override
+	public StageStatistics[] getStages() 
+	{
+		final FrameStage[] stages = FrameStage.values();
+		final StageStatistics[] result = new StageStatistics[ stages.length + 2 ];
+		for ( int i = 0 ; i < stages.length ; i++ ) {
+			result[i] = new StageStatistics( stages[i].name() , histograms[i] );
+		}
+		result[ stages.length ] = new StageStatistics( "FRAME" , frameTimes );
+		result[ stages.length + 1 ] = new StageStatistics( "TICK" , tickTimes );
+		return result;
+	}
+	
+	@Override
+	public long getCachedTiles() 
+	{
+		final TileManager manager = tileManager;
+		return manager == null ? 0 : manager.getCachedTileCount();
+	}
+	
+	@Override
+	public long getTileCacheHits() 
+	{
+		final TileManager manager = tileManager;
+		return manager == null ? 0 : manager.getStatistics().getHitCount();
+	}
+	
+	@Override
+	public long getTileCacheMisses() 
+	{
+		final TileManager manager = tileManager;
+		return manager == null ? 0 : manager.getStatistics().getMissCount();
+	}
+	
+	@Override
+	public long getTileEvictions() 
+	{
+		final TileManager manager = tileManager;
+		return manager == null ? 0 : manager.getStatistics().getEvictionCount();
+	}
+	
+	@Override
+	public void reset() 
+	{
+		for ( Histogram histogram : histograms ) {
+			histogram.reset();
+		}
+		frameTimes.reset();
+		tickTimes.reset();
+	}
+}
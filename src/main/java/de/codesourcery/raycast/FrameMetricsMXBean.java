@@ -0,0 +1,75 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+import java.beans.ConstructorProperties;
+
+/**
+ * JMX view of {@link FrameMetrics}, all durations are in nanoseconds.
+ */
+public interface FrameMetricsMXBean 
+{
+	public static final class StageStatistics 
+	{
+		private final String stage;
+		private final long count;
+		private final double mean;
+		private final long p50;
+		private final long p95;
+		private final long p99;
+		private final long max;
+		
+		protected StageStatistics(String stage,Histogram histogram) 
+		{
+			this( stage , histogram.getCount() , histogram.getMean() , histogram.getPercentile( 50 ) , 
+					histogram.getPercentile( 95 ) , histogram.getPercentile( 99 ) , histogram.getMax() );
+		}
+		
+		@ConstructorProperties({"stage","count","mean","p50","p95","p99","max"})
+		public StageStatistics(String stage, long count, double mean, long p50, long p95, long p99, long max) 
+		{
+			this.stage = stage;
+			this.count = count;
+			this.mean = mean;
+			this.p50 = p50;
+			this.p95 = p95;
+			this.p99 = p99;
+			this.max = max;
+		}
+		
+		public String getStage() { return stage; }
+		public long getCount() { return count; }
+		public double getMean() { return mean; }
+		public long getP50() { return p50; }
+		public long getP95() { return p95; }
+		public long getP99() { return p99; }
+		public long getMax() { return max; }
+	}
+	
+	public StageStatistics[] getStages();
+	
+	public long getCachedTiles();
+	
+	public long getTileCacheHits();
+	
+	public long getTileCacheMisses();
+	
+	public long getTileEvictions();
+	
+	/**
+	 * Clears all histograms.
+	 */
+	public void reset();
+}
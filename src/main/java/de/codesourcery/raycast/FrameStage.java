@@ -0,0 +1,39 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+/**
+ * Stages of a frame whose duration is recorded by {@link FrameMetrics}.
+ */
+public enum FrameStage 
+{
+	INPUT,
+	/**
+	 * {@link Player#tick(float)} and game logic.
+	 */
+	SIMULATION,
+	WALLS,
+	RADAR,
+	HUD,
+	BLIT,
+	/**
+	 * Generating a single tile, not part of the frame time as tiles may be generated in the background.
+	 */
+	TILE_GENERATION,
+	/**
+	 * Adding a tile to a full tile cache, including the eviction of other tiles.
+	 */
+	TILE_EVICTION;
+}
@@ -23,7 +23,6 @@ public class GameLogic {
 	
 	public boolean consumePill(Player player,Cell cell) {
 		if ( cell.consumePill() ) {
-			System.out.println("Consumed pill at "+cell);
 			player.incScore( 1 );
 			return true;
 		}
@@ -0,0 +1,126 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative values (durations in nanoseconds).
+ *
+ * Values are counted in logarithmic buckets, each power of two is split into 8 linear
+ * sub-buckets so percentiles are accurate to within 12.5%. Recording never locks
+ * or allocates and may happen concurrently with reading.
+ */
+public final class Histogram 
+{
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = ( 64 - SUB_BUCKET_BITS + 1 ) * SUB_BUCKETS;
+	
+	private final AtomicLongArray counts = new AtomicLongArray( BUCKETS );
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+	
+	public void record(long value) 
+	{
+		if ( value < 0 ) {
+			value = 0;
+		}
+		counts.incrementAndGet( index( value ) );
+		count.increment();
+		sum.add( value );
+		long current;
+		while ( value > ( current = max.get() ) && ! max.compareAndSet( current , value ) ) {
+			// retry
+		}
+	}
+	
+	private static int index(long value) 
+	{
+		if ( value < SUB_BUCKETS ) {
+			return (int) value;
+		}
+		final int exponent = 63 - Long.numberOfLeadingZeros( value );
+		final int subBucket = (int) ( value >>> ( exponent - SUB_BUCKET_BITS ) ) & ( SUB_BUCKETS - 1 );
+		return ( exponent - SUB_BUCKET_BITS + 1 ) * SUB_BUCKETS + subBucket;
+	}
+	
+	// largest value that falls into a bucket
+	private static long upperBound(int index) 
+	{
+		if ( index < SUB_BUCKETS ) {
+			return index;
+		}
+		final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		final long lower = (long) ( SUB_BUCKETS | ( index & ( SUB_BUCKETS - 1 ) ) ) << ( exponent - SUB_BUCKET_BITS );
+		return lower + ( 1L << ( exponent - SUB_BUCKET_BITS ) ) - 1;
+	}
+	
+	public long getCount() {
+		return count.sum();
+	}
+	
+	public long getMax() {
+		return max.get();
+	}
+	
+	public double getMean() 
+	{
+		final long n = getCount();
+		return n == 0 ? 0 : sum.sum() / (double) n;
+	}
+	
+	/**
+	 * Returns an upper bound for the p-th percentile.
+	 * 
+	 * @param p percentile, 0...100
+	 */
+	public long getPercentile(double p) 
+	{
+		long total = 0;
+		for ( int i = 0 ; i < BUCKETS ; i++ ) {
+			total += counts.get( i );
+		}
+		if ( total == 0 ) {
+			return 0;
+		}
+		final long rank = Math.max( 1 , (long) Math.ceil( p / 100.0 * total ) );
+		long seen = 0;
+		for ( int i = 0 ; i < BUCKETS ; i++ ) 
+		{
+			seen += counts.get( i );
+			if ( seen >= rank ) {
+				return Math.min( upperBound( i ) , getMax() );
+			}
+		}
+		return getMax();
+	}
+	
+	/**
+	 * Clears all counts, values recorded concurrently may or may not survive.
+	 */
+	public void reset() 
+	{
+		for ( int i = 0 ; i < BUCKETS ; i++ ) {
+			counts.set( i , 0 );
+		}
+		count.reset();
+		sum.reset();
+		max.set( 0 );
+	}
+}
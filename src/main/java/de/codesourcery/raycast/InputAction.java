@@ -0,0 +1,68 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+/**
+ * Actions triggered by user input.
+ *
+ * Input controllers translate key presses and mouse movement into these actions so
+ * that they can be recorded and replayed.
+ *
+ * @see InputTrace
+ */
+public enum InputAction 
+{
+	RESET_ORIENTATION,
+	ZOOM_IN,
+	ZOOM_OUT,
+	JUMP,
+	STRAFE_LEFT,
+	STRAFE_RIGHT,
+	ROTATE_LEFT,
+	ROTATE_RIGHT,
+	FORWARD,
+	BACKWARD,
+	/**
+	 * Rotate by an arbitrary number of degrees (mouse movement).
+	 */
+	ROTATE;
+	
+	/**
+	 * Applies this action.
+	 * 
+	 * @param player
+	 * @param radarRenderer 
+	 * @param amount rotation in degrees, only used by {@link #ROTATE}
+	 */
+	public void apply(Player player,RadarRenderer radarRenderer,double amount) 
+	{
+		switch( this ) 
+		{
+			case RESET_ORIENTATION: player.resetOrientation(); break;
+			case ZOOM_IN:           radarRenderer.zoomIn( 0.1 ); break;
+			case ZOOM_OUT:          radarRenderer.zoomOut( 0.1 ); break;
+			case JUMP:              player.jump(); break;
+			case STRAFE_LEFT:       player.strafeLeft( InputController.TRANSLATION_SPEED ); break;
+			case STRAFE_RIGHT:      player.strafeRight( InputController.TRANSLATION_SPEED ); break;
+			case ROTATE_LEFT:       player.rotateLeft( 3 ); break;
+			case ROTATE_RIGHT:      player.rotateRight( 3 ); break;
+			case FORWARD:           player.forward( InputController.TRANSLATION_SPEED ); break;
+			case BACKWARD:          player.backward( InputController.TRANSLATION_SPEED ); break;
+			case ROTATE:            player.rotate( amount ); break;
+			default:
+				throw new RuntimeException("Unhandled action: "+this);
+		}
+	}
+}
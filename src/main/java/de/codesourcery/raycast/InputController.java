@@ -15,7 +15,7 @@
  */
 package de.codesourcery.raycast;
 
-import javax.swing.JComponent;
+import java.awt.Component;
 
 public interface InputController {
 
@@ -23,9 +23,16 @@ public interface InputController {
 	
 	public static final double ROTATION_SPEED = 0.5;	
 	
-	public void attach(JComponent comp);
+	public void attach(Component comp);
 	
 	public void detach();
 	
 	public void processInput();
+	
+	/**
+	 * Sets the trace all applied actions get recorded into.
+	 * 
+	 * @param recorder trace to record into, <code>null</code> stops recording
+	 */
+	public void setRecorder(InputTrace recorder);
 }
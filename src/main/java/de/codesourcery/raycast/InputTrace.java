@@ -0,0 +1,228 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A recording of all {@link InputAction}s, grouped by the game loop iteration (frame) they were applied in.
+ *
+ * Replaying a trace applies each frame's actions followed by {@link Player#tick(float)} with the 
+ * recorded time step, this reproduces the recorded session exactly regardless of how 
+ * long each frame actually takes.
+ *
+ * Traces are stored as text, one frame per line:
+ * <pre>
+ * &lt;timestamp in nanoseconds&gt; &lt;time step in seconds&gt; [ACTION[:amount] ...]
+ * </pre>
+ * 
+ * Recording is not thread-safe, all actions need to be recorded by the thread running the game loop.
+ */
+public final class InputTrace 
+{
+	private static final String HEADER = "# raycast input trace v1";
+	
+	private final List<Frame> frames = new ArrayList<>();
+	
+	// actions recorded since the last call to endFrame()
+	private final List<InputAction> pendingActions = new ArrayList<>();
+	private final List<Double> pendingAmounts = new ArrayList<>();
+	
+	private long startTime = -1;
+	
+	public static final class Frame 
+	{
+		/**
+		 * Time since the first recorded frame, in nanoseconds.
+		 */
+		public final long timestamp;
+		public final float deltaSeconds;
+		public final InputAction[] actions;
+		public final double[] amounts;
+		
+		public Frame(long timestamp, float deltaSeconds, InputAction[] actions, double[] amounts) 
+		{
+			if ( actions.length != amounts.length ) {
+				throw new IllegalArgumentException("Need one amount per action");
+			}
+			this.timestamp = timestamp;
+			this.deltaSeconds = deltaSeconds;
+			this.actions = actions;
+			this.amounts = amounts;
+		}
+		
+		/**
+		 * Applies this frame's actions and advances the player by the recorded time step.
+		 */
+		public void apply(Player player,RadarRenderer radarRenderer) 
+		{
+			for ( int i = 0 ; i < actions.length ; i++ ) {
+				actions[i].apply( player , radarRenderer , amounts[i] );
+			}
+			player.tick( deltaSeconds );
+		}
+	}
+	
+	/**
+	 * Records an action that has been applied.
+	 * 
+	 * @param action
+	 * @param amount see {@link InputAction#apply(Player, RadarRenderer, double)}
+	 */
+	public void record(InputAction action,double amount) 
+	{
+		pendingActions.add( action );
+		pendingAmounts.add( amount );
+	}
+	
+	/**
+	 * Finishes the current frame, all actions recorded since the last
+	 * invocation of this method become part of it.
+	 * 
+	 * @param deltaSeconds time step the game loop advanced the player by
+	 */
+	public void endFrame(float deltaSeconds) 
+	{
+		final long now = System.nanoTime();
+		if ( startTime == -1 ) {
+			startTime = now;
+		}
+		endFrame( now - startTime , deltaSeconds );
+	}
+	
+	private void endFrame(long timestamp,float deltaSeconds) 
+	{
+		final double[] amounts = new double[ pendingAmounts.size() ];
+		for ( int i = 0 ; i < amounts.length ; i++ ) {
+			amounts[i] = pendingAmounts.get(i);
+		}
+		frames.add( new Frame( timestamp , deltaSeconds , pendingActions.toArray( new InputAction[ pendingActions.size() ] ) , amounts ) );
+		pendingActions.clear();
+		pendingAmounts.clear();
+	}
+	
+	public List<Frame> getFrames() {
+		return Collections.unmodifiableList( frames );
+	}
+	
+	public int size() {
+		return frames.size();
+	}
+	
+	/**
+	 * Creates a synthetic trace of a player running through the maze at 60 FPS,
+	 * turning, strafing and jumping at regular intervals.
+	 * 
+	 * @param frameCount
+	 */
+	public static InputTrace synthetic(int frameCount) 
+	{
+		final InputTrace result = new InputTrace();
+		final float delta = 1/60f;
+		final long frameNanos = 16_666_667;
+		for ( int i = 0 ; i < frameCount ; i++ ) 
+		{
+			if ( i % 240 == 0 ) {
+				result.record( InputAction.JUMP , 0 );
+			}
+			if ( i % 300 < 20 ) {
+				result.record( InputAction.STRAFE_LEFT , 0 );
+			}
+			if ( i % 150 < 30 ) {
+				result.record( InputAction.ROTATE_RIGHT , 0 );
+			} 
+			else if ( i % 400 >= 200 && i % 400 < 210 ) {
+				result.record( InputAction.ROTATE , -7.5 );
+			}
+			result.record( InputAction.FORWARD , 0 );
+			result.endFrame( i * frameNanos , delta );
+		}
+		return result;
+	}
+	
+	public void write(Path file) throws IOException 
+	{
+		try ( BufferedWriter writer = Files.newBufferedWriter( file , StandardCharsets.UTF_8 ) ) 
+		{
+			writer.write( HEADER );
+			writer.newLine();
+			for ( Frame frame : frames ) 
+			{
+				final StringBuilder line = new StringBuilder();
+				line.append( frame.timestamp ).append(' ').append( frame.deltaSeconds );
+				for ( int i = 0 ; i < frame.actions.length ; i++ ) 
+				{
+					line.append(' ').append( frame.actions[i].name() );
+					if ( frame.actions[i] == InputAction.ROTATE ) {
+						line.append(':').append( frame.amounts[i] );
+					}
+				}
+				writer.write( line.toString() );
+				writer.newLine();
+			}
+		}
+	}
+	
+	public static InputTrace read(Path file) throws IOException 
+	{
+		final InputTrace result = new InputTrace();
+		try ( BufferedReader reader = Files.newBufferedReader( file , StandardCharsets.UTF_8 ) ) 
+		{
+			String line;
+			int lineNo = 0;
+			while ( ( line = reader.readLine() ) != null ) 
+			{
+				lineNo++;
+				line = line.trim();
+				if ( line.isEmpty() || line.startsWith("#") ) {
+					continue;
+				}
+				final String[] parts = line.split("\\s+");
+				if ( parts.length < 2 ) {
+					throw new IOException("Malformed trace "+file+", line "+lineNo+": "+line);
+				}
+				final InputAction[] actions = new InputAction[ parts.length - 2 ];
+				final double[] amounts = new double[ actions.length ];
+				try 
+				{
+					for ( int i = 0 ; i < actions.length ; i++ ) 
+					{
+						final String part = parts[ i + 2 ];
+						final int idx = part.indexOf(':');
+						if ( idx != -1 ) {
+							actions[i] = InputAction.valueOf( part.substring( 0 , idx ) );
+							amounts[i] = Double.parseDouble( part.substring( idx + 1 ) );
+						} else {
+							actions[i] = InputAction.valueOf( part );
+						}
+					}
+					result.frames.add( new Frame( Long.parseLong( parts[0] ) , Float.parseFloat( parts[1] ) , actions , amounts ) );
+				} 
+				catch(IllegalArgumentException e) {
+					throw new IOException("Malformed trace "+file+", line "+lineNo+": "+line,e);
+				}
+			}
+		}
+		return result;
+	}
+}
@@ -15,18 +15,21 @@
  */
 package de.codesourcery.raycast;
 
+import java.awt.Component;
 import java.awt.Cursor;
+import java.awt.EventQueue;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 
-import javax.swing.JComponent;
-
 public class KeyboardAndMouseController extends KeyboardController {
 
 	private int lastX=-1;
 	
-	private boolean isTrackingMouse = false;
+	private volatile boolean isTrackingMouse = false;
+	
+	// rotation from mouse movement that has not been applied yet, guarded by 'this'
+	private double pendingRotation;
 	
 	private final MouseAdapter mouseListener = new MouseAdapter() 
 	{
@@ -36,7 +39,7 @@ public class KeyboardAndMouseController extends KeyboardController {
 			{
 				final int dx = e.getX() - lastX;
 				lastX = e.getX();				
-				player.rotate(dx*ROTATION_SPEED);
+				addPendingRotation( dx*ROTATION_SPEED );
 			}
 		}
 		
@@ -55,20 +58,40 @@ public class KeyboardAndMouseController extends KeyboardController {
 		super(p,renderer);
 	}
 	
+	private synchronized void addPendingRotation(double degrees) {
+		pendingRotation += degrees;
+	}
+	
+	private synchronized double takePendingRotation() 
+	{
+		final double result = pendingRotation;
+		pendingRotation = 0;
+		return result;
+	}
+	
 	@Override
 	public void processInput() 
 	{
 		super.processInput();
+		
+		// mouse events arrive on the EDT, apply them on the thread running the simulation
+		final double rotation = takePendingRotation();
+		if ( rotation != 0 ) {
+			perform( InputAction.ROTATE , rotation );
+		}
+		
 		ifPressed( KeyEvent.VK_ESCAPE , () -> {
-			if ( isTrackingMouse ) {
+			if ( isTrackingMouse ) 
+			{
 				isTrackingMouse = false;
-				component.setCursor( Cursor.getPredefinedCursor( Cursor.DEFAULT_CURSOR ) );
+				final Component comp = component;
+				EventQueue.invokeLater( () -> comp.setCursor( Cursor.getPredefinedCursor( Cursor.DEFAULT_CURSOR ) ) );
 			}			
 		} );
 	}
 	
 	@Override
-	protected void doAttach(JComponent component) 
+	protected void doAttach(Component component) 
 	{
 		super.doAttach( component );
 		component.addMouseListener( mouseListener );
@@ -76,7 +99,7 @@ public class KeyboardAndMouseController extends KeyboardController {
 	}
 
 	@Override
-	protected void doDetach(JComponent component) {
+	protected void doDetach(Component component) {
 		super.doDetach( component );
 		this.component.removeMouseListener( mouseListener );
 		this.component.removeMouseMotionListener( mouseListener );			
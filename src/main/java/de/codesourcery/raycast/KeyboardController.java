@@ -15,20 +15,23 @@
  */
 package de.codesourcery.raycast;
 
+import java.awt.Component;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
-import java.util.HashSet;
 import java.util.Set;
-
-import javax.swing.JComponent;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class KeyboardController implements InputController {
 
 	protected final Player player;
 	protected final RadarRenderer renderer;
-	protected JComponent component;
+	protected volatile Component component;
+	
+	// updated by the EDT, read by the thread calling processInput()
+	private final Set<Integer> pressedKeys = ConcurrentHashMap.newKeySet();
 	
-	private final Set<Integer> pressedKeys = new HashSet<>();
+	// records all actions if not NULL
+	private InputTrace recorder;
 	
 	@FunctionalInterface
 	protected interface Block 
@@ -65,22 +68,48 @@ public class KeyboardController implements InputController {
 		}
 	}	
 	
+	protected final void ifPressed(int key1,InputAction action1) 
+	{
+		ifPressed( key1 , () -> perform( action1 , 0 ) );
+	}
+	
+	protected final void ifPressed(int key1,InputAction action1,int key2,InputAction action2) 
+	{
+		ifPressed( key1 , () -> perform( action1 , 0 ) , key2 , () -> perform( action2 , 0 ) );
+	}
+	
+	/**
+	 * Applies an action and records it if a recorder is set.
+	 * 
+	 * @param action
+	 * @param amount
+	 * @see InputAction#apply(Player, RadarRenderer, double)
+	 */
+	protected final void perform(InputAction action,double amount) 
+	{
+		action.apply( player , renderer , amount );
+		if ( recorder != null ) {
+			recorder.record( action , amount );
+		}
+	}
+	
+	@Override
+	public void setRecorder(InputTrace recorder) {
+		this.recorder = recorder;
+	}
+	
 	public void processInput() 
 	{
-		ifPressed( KeyEvent.VK_BACK_SPACE , player::resetOrientation );
+		ifPressed( KeyEvent.VK_BACK_SPACE , InputAction.RESET_ORIENTATION );
 				
-		ifPressed( KeyEvent.VK_PLUS , () -> { renderer.zoomIn(0.1); } ,
-				   KeyEvent.VK_MINUS , () -> { renderer.zoomOut(0.1); } );
+		ifPressed( KeyEvent.VK_PLUS , InputAction.ZOOM_IN , KeyEvent.VK_MINUS , InputAction.ZOOM_OUT );
 		
-		ifPressed( KeyEvent.VK_SPACE  , player::jump );
-		ifPressed( KeyEvent.VK_A , () -> { player.strafeLeft( TRANSLATION_SPEED ); } , 
-				   KeyEvent.VK_D , () -> { player.strafeRight( TRANSLATION_SPEED ); } );
+		ifPressed( KeyEvent.VK_SPACE  , InputAction.JUMP );
+		ifPressed( KeyEvent.VK_A , InputAction.STRAFE_LEFT , KeyEvent.VK_D , InputAction.STRAFE_RIGHT );
 		
-		ifPressed( KeyEvent.VK_Q , () -> { player.rotateLeft( 3 ); } , 
-				   KeyEvent.VK_E , () -> { player.rotateRight( 3 ); } );
+		ifPressed( KeyEvent.VK_Q , InputAction.ROTATE_LEFT , KeyEvent.VK_E , InputAction.ROTATE_RIGHT );
 		
-		ifPressed( KeyEvent.VK_W , () -> { player.forward( TRANSLATION_SPEED ); } , 
-				   KeyEvent.VK_S , () -> { player.backward( TRANSLATION_SPEED ); } );		
+		ifPressed( KeyEvent.VK_W , InputAction.FORWARD , KeyEvent.VK_S , InputAction.BACKWARD );		
 	}
 	
 	public KeyboardController(Player p,RadarRenderer renderer) {
@@ -89,7 +118,7 @@ public class KeyboardController implements InputController {
 	}
 	
 	@Override
-	public final void attach(JComponent comp) 
+	public final void attach(Component comp) 
 	{
 		if ( component != null ) {
 			throw new IllegalStateException("Already attached");
@@ -101,7 +130,7 @@ public class KeyboardController implements InputController {
 		}
 	}
 	
-	protected void doAttach(JComponent comp) {
+	protected void doAttach(Component comp) {
 		comp.addKeyListener( adapter );
 	}
 
@@ -119,7 +148,7 @@ public class KeyboardController implements InputController {
 		}
 	}
 	
-	protected void doDetach(JComponent comp) {
+	protected void doDetach(Component comp) {
 		this.component.removeKeyListener( adapter );		
 	}	
 }
\ No newline at end of file
@@ -16,15 +16,16 @@
 package de.codesourcery.raycast;
 
 import java.awt.BorderLayout;
+import java.awt.Canvas;
 import java.awt.Color;
+import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.Graphics;
-import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.awt.image.BufferedImage;
-import java.text.DecimalFormat;
+import java.io.IOException;
+import java.nio.file.Paths;
 
 import javax.swing.JFrame;
 import javax.swing.JPanel;
@@ -34,34 +35,99 @@ public class Main {
 
 	private static final Dimension FRAME_SIZE = new Dimension(640,480);
 	
-	private static final int MAX_RENDER_DISTANCE = 20;
+	// max. distance in cells walls are rendered at, the tile cache should be able to hold all tiles within this radius
+	private static final int MAX_RENDER_DISTANCE = Integer.getInteger( "raycast.renderDistance" , 20 );
 	
-	private static final boolean RENDER_DISTANCE_FOG = false;
+	// blend distant surfaces towards the background color
+	private static final boolean RENDER_DISTANCE_FOG = Boolean.parseBoolean( System.getProperty( "raycast.fog" , "true" ) );
 	
-	private static final DecimalFormat DF = new DecimalFormat("###0.0#");
+	// brightness of surfaces at the max. render distance (0...1), 1 = no lighting
+	private static final double MIN_BRIGHTNESS = Double.parseDouble( System.getProperty( "raycast.lighting" , "1.0" ) );
+	
+	// number of threads used to cast rays, 1 = render on the game loop thread only
+	private static final int RENDER_THREADS = Integer.getInteger( "raycast.renderThreads" , Runtime.getRuntime().availableProcessors() );
+	
+	// number of threads generating tiles in the background
+	private static final int PREFETCH_THREADS = Integer.getInteger( "raycast.prefetchThreads" , 2 );
+	
+	// tile cache capacity, either in tiles or (if 'raycast.tileCacheBytes' is set) in bytes
+	private static final int TILE_CACHE_TILES = Integer.getInteger( "raycast.tileCacheTiles" , TileManager.DEFAULT_MAX_CACHED_TILES );
+	private static final Long TILE_CACHE_BYTES = Long.getLong( "raycast.tileCacheBytes" );
+	
+	// file to record all input to, can be replayed with ReplayBenchmark
+	private static final String RECORD_TRACE = System.getProperty( "raycast.recordTrace" );
+	
+	// simulate and render from a Swing timer on the EDT (default) or on dedicated threads ('active')
+	private static final boolean ACTIVE_RENDERING = "active".equals( System.getProperty( "raycast.loop" , "swing" ) );
+	
+	// fixed simulation steps per second, active rendering only
+	private static final int SIMULATION_RATE = Integer.getInteger( "raycast.simulationRate" , 60 );
+	
+	// frame cap, 0 = uncapped (benchmark mode), active rendering only
+	private static final int MAX_FPS = Integer.getInteger( "raycast.maxFps" , 60 );
+	
+	// textured or flat-colored walls
+	private static final boolean TEXTURES = Boolean.parseBoolean( System.getProperty( "raycast.textures" , "true" ) );
+	
+	// render floor and ceiling or just fill them with the background color
+	private static final boolean FLOOR_CASTING = Boolean.parseBoolean( System.getProperty( "raycast.floorCasting" , "true" ) );
+	
+	// draw pills in the 3D view
+	private static final boolean SPRITES = Boolean.parseBoolean( System.getProperty( "raycast.sprites" , "true" ) );
+	
+	// max. milliseconds to spend on rendering a frame before the 3D view's resolution gets lowered, 0 = always full resolution
+	private static final double FRAME_BUDGET_MILLIS = Double.parseDouble( System.getProperty( "raycast.frameBudget" , "0" ) );
 
-	private static final boolean BENCHMARK_MODE = false;
+	// cast every other column per frame, reprojecting the others from the previous frame
+	private static final boolean TEMPORAL_REPROJECTION = Boolean.parseBoolean( System.getProperty( "raycast.temporal" , "false" ) );
+	
+	// cast several rays at once using the Vector API, only used without wall tracing
+	private static final boolean VECTOR_CASTING = Boolean.parseBoolean( System.getProperty( "raycast.vector" , "false" ) );
+	
+	// cast rays only where wall faces begin or end
+	private static final boolean WALL_TRACING = Boolean.parseBoolean( System.getProperty( "raycast.wallTracing" , "false" ) );
 	
 	protected TileManager tileManager;
+	protected TilePrefetcher tilePrefetcher;
 	protected Player player;
 	protected InputController inputController; 	
+	protected InputTrace inputTrace;
+	protected final FrameMetrics metrics = new FrameMetrics();
+	protected final TextureAtlas textures = TEXTURES ? TextureAtlas.createDefault() : null;
+	// only used by the thread running the simulation, simulation steps are timed separately from rendering with active rendering
+	protected final FrameMetrics.Timer frameTimer = ACTIVE_RENDERING ? metrics.newSimulationTimer() : metrics.newTimer();
+	// only used by the render thread (active rendering only, the Swing loop renders with 'frameTimer')
+	protected final FrameMetrics.Timer renderTimer = metrics.newTimer();
+	protected RadarRenderer radarRenderer;
 	protected MyPanel panel;
+	protected ActiveRenderLoop renderLoop;
 	protected final GameLogic gameLogic = new GameLogic();
 	
 	protected long totalFrames;
 	protected float totalFrameTimeSeconds;
 	
-	protected enum Side {
-		NORTH_SOUTH, EAST_WEST;
-	}
-	
 	public static void main(String[] args) {
 		new Main().run(args);
 	}
 
 	private void run(String[] args) 
 	{
-		tileManager = new TileManager( new TileFactory(25) );
+		if ( VECTOR_CASTING && WALL_TRACING ) {
+			System.err.println("Ignoring -Draycast.vector=true, wall tracing takes precedence");
+		} else if ( VECTOR_CASTING && ! VectorSupport.isAvailable() ) {
+			System.err.println("Vector API not available (run with --add-modules jdk.incubator.vector), casting rays one at a time");
+		}
+		
+		if ( TILE_CACHE_BYTES != null ) {
+			tileManager = new TileManager( new TileFactory(25) , TILE_CACHE_BYTES , TileIndex.CapacityUnit.BYTES , new DistanceEvictionPolicy() );
+		} else {
+			tileManager = new TileManager( new TileFactory(25) , TILE_CACHE_TILES , TileIndex.CapacityUnit.TILES , new DistanceEvictionPolicy() );
+		}
+		tileManager.setMetrics( metrics );
+		metrics.setTileManager( tileManager );
+		metrics.registerMBean();
+
+		tilePrefetcher = new TilePrefetcher( tileManager , PREFETCH_THREADS , 8 );
 		
 		final Vec2d startingPosition = tileManager.findStartingPosition( gameLogic );
 		player = new Player( startingPosition ) 
@@ -81,12 +147,47 @@ public class Main {
 		
 		gameLogic.consumePill( player , tileManager.getCellAt( startingPosition ) );
 		
-		panel = new MyPanel( player , RENDER_DISTANCE_FOG );
-		
 		final JFrame frame = new JFrame("raycast");
 		frame.getContentPane().setLayout(new BorderLayout());
 		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-		frame.getContentPane().add(panel);
+		
+		final Component view;
+		if ( ACTIVE_RENDERING ) 
+		{
+			// render an interpolated copy of the simulated player 
+			final Player viewPlayer = new Player( startingPosition ) 
+			{
+				@Override
+				protected boolean canMoveTo(double x, double y) {
+					return false;
+				}
+			};
+			final RenderEngine renderEngine = new RenderEngine( tileManager , viewPlayer , MAX_RENDER_DISTANCE , RENDER_THREADS , RENDER_DISTANCE_FOG );
+			renderEngine.setFrameTimer( renderTimer );
+			renderEngine.setTextures( textures );
+			renderEngine.setFloorCasting( FLOOR_CASTING );
+			renderEngine.setRenderSprites( SPRITES );
+			renderEngine.setLighting( MIN_BRIGHTNESS );
+			renderEngine.setFrameTimeBudget( (long) ( FRAME_BUDGET_MILLIS * 1_000_000 ) );
+			renderEngine.setTemporalReprojection( TEMPORAL_REPROJECTION );
+			renderEngine.setWallTracing( WALL_TRACING );
+			renderEngine.setVectorCasting( VECTOR_CASTING );
+			radarRenderer = renderEngine.getRadarRenderer();
+			
+			final Canvas canvas = new Canvas();
+			canvas.setBackground( new Color( RenderEngine.DEFAULT_BACKGROUND_COLOR ) );
+			renderLoop = new ActiveRenderLoop( canvas , this::simulationStep , player , viewPlayer , renderEngine , renderTimer , SIMULATION_RATE , MAX_FPS );
+			view = canvas;
+		} 
+		else 
+		{
+			panel = new MyPanel( player , RENDER_DISTANCE_FOG );
+			radarRenderer = panel.radarRenderer;
+			view = panel;
+		}
+		prefetchTiles();
+		
+		frame.getContentPane().add( view );
 		
 		frame.setSize(FRAME_SIZE);
 		frame.setPreferredSize(FRAME_SIZE);
@@ -94,12 +195,23 @@ public class Main {
 		frame.pack();
 		frame.setVisible(true);
 		
-		inputController = new KeyboardAndMouseController(panel.player,panel.radarRenderer);
-		inputController.attach( panel );
-		panel.setFocusable( true );
-		panel.requestFocus();
+		inputController = new KeyboardAndMouseController( player , radarRenderer );
+		inputController.attach( view );
+		if ( RECORD_TRACE != null ) 
+		{
+			inputTrace = new InputTrace();
+			inputController.setRecorder( inputTrace );
+			Runtime.getRuntime().addShutdownHook( new Thread( this::saveInputTrace ) );
+		}
+		view.setFocusable( true );
+		view.requestFocus();
 
 		// start game loop
+		if ( ACTIVE_RENDERING ) {
+			renderLoop.start();
+			return;
+		}
+		
 		final Timer timer = new Timer(0, new ActionListener() {
 
 			private long lastCall = -1;
@@ -107,11 +219,10 @@ public class Main {
 			@Override
 			public void actionPerformed(ActionEvent e) 
 			{
-				final long now = System.currentTimeMillis();
+				final long now = System.nanoTime();
 				if ( lastCall != -1 ) 
 				{
-					float deltaMillis = now - lastCall;
-					gameLoop( deltaMillis / 1000.0f );
+					gameLoop( ( now - lastCall ) / 1_000_000_000.0f );
 				}
 				lastCall = now;
 			}
@@ -121,255 +232,157 @@ public class Main {
 		timer.start();
 	}
 	
-	private void gameLoop(float deltaSeconds) 
+	/**
+	 * Applies input and advances the simulation by one step.
+	 * 
+	 * @return <code>true</code> if a pill has been consumed
+	 */
+	private boolean simulate(float deltaSeconds) 
 	{
-		if ( BENCHMARK_MODE ) {
-			player.forward( 0.1 );
-		}
+		frameTimer.beginStage();
 		
 		// apply movement
 		inputController.processInput();
+		frameTimer.endStage( FrameStage.INPUT );
 		
 		// update player position
 		player.tick( deltaSeconds );
-		boolean pillConsumed = gameLogic.consumePill( player , tileManager.getCellAt( player.position ) );
+		if ( inputTrace != null ) {
+			synchronized( inputTrace ) {
+				inputTrace.endFrame( deltaSeconds );
+			}
+		}
+		final boolean pillConsumed = gameLogic.consumePill( player , tileManager.getCellAt( player.position ) );
+		prefetchTiles();
+		frameTimer.endStage( FrameStage.SIMULATION );
+		return pillConsumed;
+	}
+	
+	/**
+	 * Advances the simulation by one step when simulating on a separate thread.
+	 */
+	private void simulationStep(float deltaSeconds) 
+	{
+		frameTimer.beginFrame();
+		simulate( deltaSeconds );
+		frameTimer.endFrame();
+	}
+	
+	private void gameLoop(float deltaSeconds) 
+	{
+		frameTimer.beginFrame();
+		
+		final boolean pillConsumed = simulate( deltaSeconds );
 		
 		/* ===  REPAINT === */
 		
 		// update FPS
-		if ( pillConsumed || player.hasMoved() || panel.radarRenderer.hasZoomFactorChanged() ) 
+		if ( pillConsumed || player.hasMoved() || radarRenderer.hasZoomFactorChanged() ) 
 		{
 			totalFrames++;
 			totalFrameTimeSeconds+=deltaSeconds;
 			float avgSecondsPerFrame = totalFrameTimeSeconds / totalFrames;
 			panel.fps = 1.0f / avgSecondsPerFrame;
-			
-			if ( BENCHMARK_MODE && totalFrames == 1000 ) {
-				System.out.println("Benchmark finished: FPS: "+panel.fps);
-				System.exit(1);
-			}
-			// redraw panel
-			panel.paintImmediately( 0 ,  0 ,  panel.getWidth() ,  panel.getHeight() );
 		}		
+		
+		// render layers that changed and redraw the affected parts of the panel
+		panel.renderFrame();
+		frameTimer.endFrame();
 	}
 	
+	private void saveInputTrace() 
+	{
+		try 
+		{
+			synchronized( inputTrace ) {
+				inputTrace.write( Paths.get( RECORD_TRACE ) );
+			}
+			System.out.println("Recorded "+inputTrace.size()+" frames to "+RECORD_TRACE);
+		} 
+		catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private void prefetchTiles() {
+		tileManager.playerMoved( player );
+		tilePrefetcher.update( player , Math.max( MAX_RENDER_DISTANCE , radarRenderer.getViewRadius() ) );
+	}
+	
+	/**
+	 * Displays the frames rendered by a {@link RenderEngine}.
+	 */
 	protected class MyPanel extends JPanel {
 
-		final Vec2d rayPos = new Vec2d();
-		final Vec2d rayDir = new Vec2d();
-		final Vec2d cameraPlane = new Vec2d();		
+		private final RenderEngine renderEngine;
 		
 		public float fps;
 		
-		private BufferedImage buffer;
-		private Graphics2D bufferGraphics;
+		private FrameBuffer buffer;
 		
-		private final boolean renderDistanceFog;
 		public final Player player;
 		public final RadarRenderer radarRenderer;
 		
 		public MyPanel(Player player,boolean renderDistanceFog) 
 		{
 			this.player = player;
-			this.radarRenderer = new RadarRenderer(tileManager, player);
-			this.renderDistanceFog = renderDistanceFog;
-			if ( renderDistanceFog ) {
-				setOpaque(false); // enable alpha channel support
-			}
+			this.renderEngine = new RenderEngine( tileManager , player , MAX_RENDER_DISTANCE , RENDER_THREADS , renderDistanceFog );
+			this.renderEngine.setFrameTimer( frameTimer );
+			this.renderEngine.setTextures( textures );
+			this.renderEngine.setFloorCasting( FLOOR_CASTING );
+			this.renderEngine.setRenderSprites( SPRITES );
+			this.renderEngine.setLighting( MIN_BRIGHTNESS );
+			this.renderEngine.setFrameTimeBudget( (long) ( FRAME_BUDGET_MILLIS * 1_000_000 ) );
+			this.renderEngine.setTemporalReprojection( TEMPORAL_REPROJECTION );
+			this.renderEngine.setWallTracing( WALL_TRACING );
+			this.renderEngine.setVectorCasting( VECTOR_CASTING );
+			this.radarRenderer = renderEngine.getRadarRenderer();
 		}
 		
-		private BufferedImage getBuffer() 
+		private FrameBuffer getBuffer() 
 		{
-			if ( buffer == null || buffer.getWidth() != getWidth() || buffer.getHeight() != getHeight() ) 
+			if ( buffer == null || ! buffer.hasSize( getWidth() , getHeight() ) ) 
 			{
 				if ( buffer != null ) {
-					bufferGraphics.dispose();
+					buffer.dispose();
 				}
- 				buffer = new BufferedImage(getWidth() , getHeight() , BufferedImage.TYPE_INT_ARGB );
-				bufferGraphics = buffer.createGraphics();
+				buffer = new FrameBuffer( getWidth() , getHeight() );
 			}
 			return buffer;
 		}
 		
-		@Override
-		protected void paintComponent(Graphics g) 
+		/**
+		 * Renders the next frame and repaints the regions that changed.
+		 */
+		public void renderFrame() 
 		{
-			long start = System.currentTimeMillis();
-			final BufferedImage image = getBuffer();
-
-			// clear buffer
-			bufferGraphics.setColor( getBackground() );
-			bufferGraphics.fillRect( 0 ,  0 ,  image.getWidth() ,  image.getHeight() );
-			
-			render(bufferGraphics);
-			
-			// render radar
-			final int radarWidth = (int) (getWidth()*0.2);
-			final int radarHeight = (int) (getWidth()*0.2);
-			
-			final int x0 = getWidth() - radarWidth -10;
-			final int y0 = 20;
-			
-			radarRenderer.render( new Rectangle(x0,y0,radarWidth,radarHeight ) , bufferGraphics , getBackground() ) ;
-			
-			// render debug info
-			bufferGraphics.setColor(Color.BLACK);
-			
-			final TileId tileId = tileManager.getTileId( player.position );
-			int y = 15;
-			bufferGraphics.drawString( "Score:"+ player.score ,10,y);
-			y+=15;
-			
-			bufferGraphics.drawString( "FPS:"+ DF.format( fps ),10,y);
-			y+=15;
-			
-			bufferGraphics.drawString( "Player position: "+player.position+" @ tile "+tileId.x+" , "+tileId.y , 10 , y );
-			y+=15;
-			
-			bufferGraphics.drawString( "Player heading : "+player.direction , 10 , y );			
-			y+=15;
-			
-			g.drawImage( image ,  0 , 0 , null );
-			
-			final long totalTime = System.currentTimeMillis() - start;
-			g.drawString( "Rendering time: "+totalTime+" ms" , 10 , y );
+			if ( getWidth() < 1 || getHeight() < 1 ) {
+				return;
+			}
+			render();
+			for ( Rectangle r : renderEngine.getDirtyRegions() ) {
+				paintImmediately( r );
+			}
 		}
 		
-		protected void render(Graphics g) 
+		private FrameBuffer render() 
 		{
-			final int w = getWidth();
-			final int h = getHeight();
-			
-			/*
-			 * The following code is taken from/derived from
-			 * Lode Vandevenne's excellent tutorial at
-			 * 
-			 * http://lodev.org/cgtutor/raycasting.html
-			 */
-			
-			cameraPlane.set( player.direction );
-			cameraPlane.rotZ( 90 );
-			cameraPlane.scale(0.66); 
-			
-//			System.out.println("=========== Rendering ============");
+			final FrameBuffer frame = getBuffer();
+			renderEngine.setBackgroundColor( getBackground() );
+			renderEngine.setFps( fps );
+			renderEngine.render( frame );
+			return frame;
+		}
+		
+		@Override
+		protected void paintComponent(Graphics g) 
+		{
+			// the buffer is up-to-date unless the panel has been resized
+			final FrameBuffer frame = buffer != null && buffer.hasSize( getWidth() , getHeight() ) ? buffer : render();
 			
-forLoop:			
-			for (int x = 0; x < w; x++) 
-			{
-				// calculate ray position and direction
-				final double cameraX = 2.0 * x / w - 1.0; // x-coordinate in camera space (-1...1)
-				
-				rayPos.set( player.position );
-				
-				// which box of the map we're in
-				int mapX = (int) Math.floor( rayPos.x );
-				int mapY = (int) Math.floor( rayPos.y );
-				
-				rayDir.set( player.direction );
-				rayDir.x += (cameraPlane.x * cameraX);
-				rayDir.y += (cameraPlane.y * cameraX);
-
-				// length of ray from one x or y-side to next x or y-side
-				final double deltaDistX = Math.sqrt(1 + (rayDir.y * rayDir.y) / (rayDir.x * rayDir.x)); // = Math.sqrt( dx^2 + dy^2) = Math.sqrt( 1*1 + (y/x)^2 )
-				final double deltaDistY = Math.sqrt(1 + (rayDir.x * rayDir.x) / (rayDir.y * rayDir.y));
-
-				// calculate step and initial sideDist
-				
-				// what direction to step in x or y-direction (either +1 or -1)
-				final int stepX;
-				final int stepY;
-
-				// length of ray from current position to next x or y-side				
-				double sideDistX;
-				double sideDistY;				
-				if (rayDir.x < 0) {
-					stepX = -1;
-					sideDistX = (rayPos.x - mapX) * deltaDistX;
-				} else {
-					stepX = 1;
-					sideDistX = (mapX + 1.0 - rayPos.x) * deltaDistX;
-				}
-				if (rayDir.y < 0) {
-					stepY = -1;
-					sideDistY = (rayPos.y - mapY) * deltaDistY;
-				} else {
-					stepY = 1;
-					sideDistY = (mapY + 1.0 - rayPos.y) * deltaDistY;
-				}
-
-				// perform DDA
-				Side side = Side.NORTH_SOUTH; // was a NS or a EW wall hit?
-				
-				Cell cell = null;
-				double perpWallDist=0.0;	
-				while ( true ) 
-				{
-					// jump to next map square, OR in x-direction, OR in y-direction
-					if (sideDistX < sideDistY) {
-						sideDistX += deltaDistX;
-						mapX += stepX;
-						side = Side.EAST_WEST;
-					} else {
-						sideDistY += deltaDistY;
-						mapY += stepY;
-						side = Side.NORTH_SOUTH;
-					}
-					
-					// Calculate distance projected on camera direction (oblique distance will give fisheye effect!)
-					if (side == Side.EAST_WEST) {
-						perpWallDist = Math.abs((mapX - rayPos.x + (1 - stepX) / 2) / rayDir.x);
-					} else {
-						perpWallDist = Math.abs((mapY - rayPos.y + (1 - stepY) / 2) / rayDir.y);
-					}
-					
-					// Check if ray has hit a wall
-					cell = tileManager.getCellAt( mapX ,  mapY );
-					if ( cell.isWall() ) {
-						break;
-					} 
-					else if ( cell.hasPill() ) {
-						// TODO: Render pill...
-					}
-					
-					if ( perpWallDist > MAX_RENDER_DISTANCE ) {
-						continue forLoop;
-					}
-				}
-				
-				// Calculate line y-offset based on the player's current Z coordinate and wall distance
-				float zCoordinate = player.z / Player.MAX_Z; // scale to [0..1]
-				final int lineOffset = (int) ( ( h * zCoordinate ) / perpWallDist);
-				
-				// Calculate height of line to draw on screen
-				final int lineHeight = Math.abs((int) ( h / perpWallDist*0.5f));
-				
-				// calculate lowest and highest pixel to fill in current stripe
-				int drawStart = -lineHeight / 2 + h / 2;
-				if (drawStart < 0) {
-					drawStart = 0;
-				}
-				int drawEnd = lineHeight / 2 + h / 2;
-				if (drawEnd >= h) {
-					drawEnd = h - 1;
-				}
-
-				// choose wall color
-				// give x and y sides different brightness
-				Color color = side == Side.EAST_WEST ? cell.darkColor : cell.lightColor;
-
-				// distance fog - calculate alpha channel value depending on distance				
-				if ( renderDistanceFog ) 
-				{
-					int alpha  = 255 - (int) ( 255*( perpWallDist / MAX_RENDER_DISTANCE ) );
-					alpha = alpha > 255 ? 255 : alpha < 0 ? 0 : alpha;
-					
-					// draw the pixels of the stripe as a vertical line
-					final int colorWithAlpha = ( color.getRGB() & 0x00ffffff ) | alpha  << 24;				
-					color = new Color(colorWithAlpha,true);
-				} 
-				g.setColor(color);
-				g.drawLine(x, lineOffset+drawStart, x, lineOffset+drawEnd);
-			} // end for
+			frameTimer.beginStage();
+			g.drawImage( frame.getImage() ,  0 , 0 , null );
+			frameTimer.endStage( FrameStage.BLIT );
 		}
 	}
-}
\ No newline at end of file
+}
@@ -21,7 +21,6 @@ import java.awt.Point;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
-import java.util.function.Supplier;
 
 public final class Maze 
 {
@@ -212,12 +211,12 @@ public final class Maze
 		}
 	}
 	
-	public static void renderMaze(Maze maze,Cell[][] array,int w,int h,boolean renderBorder) 
+	public static void renderMaze(Maze maze,Tile tile,int w,int h,boolean renderBorder) 
 	{
 		final int cellWidth = w / maze.size;
 		final int cellHeight = h / maze.size;                
 
-		final Supplier<Cell> cellSupplier= () -> { return Cell.wall(Color.RED); };
+		final int wall = Palette.indexOf( Color.RED );
 		for ( int y = 0 ; y < maze.size ; y++ ) 
 		{
 			for ( int x = 0 ; x < maze.size ; x++ ) 
@@ -231,48 +230,52 @@ public final class Maze
 				final int ymax = ymin + cellHeight;
 
 				if ( room.north == null ) { // draw north wall
-					drawHorizontalLine(ymin, xmin, xmax, array, cellSupplier );
+					drawHorizontalLine(ymin, xmin, xmax, tile, wall );
 				} 
 				if ( room.south == null ) { // draw south wall
-					drawHorizontalLine(ymax, xmin, xmax, array, cellSupplier );
+					drawHorizontalLine(ymax, xmin, xmax, tile, wall );
 				}
 				if ( room.west == null ) { // draw west wall
-					drawVerticalLine(xmin, ymin, ymax, array, cellSupplier );
+					drawVerticalLine(xmin, ymin, ymax, tile, wall );
 				} 
 				if ( room.east == null ) { // draw east wall
-					drawVerticalLine(xmax, ymin, ymax, array, cellSupplier );
+					drawVerticalLine(xmax, ymin, ymax, tile, wall );
 				}                        
 			}
 		}
 		
 		if ( ! renderBorder ) {
-			drawHorizontalLine( 0 , 0 , w , array, Cell::cellWithPill );
-			drawHorizontalLine( h-1 , 0 , w , array, Cell::cellWithPill );
+			drawHorizontalLine( 0 , 0 , w , tile, Palette.EMPTY );
+			drawHorizontalLine( h-1 , 0 , w , tile, Palette.EMPTY );
 			
-			drawVerticalLine(0, 0, h-1 , array, Cell::cellWithPill );
-			drawVerticalLine(w-1, 0, h-1 , array, Cell::cellWithPill );			
+			drawVerticalLine(0, 0, h-1 , tile, Palette.EMPTY );
+			drawVerticalLine(w-1, 0, h-1 , tile, Palette.EMPTY );			
 		}
 	}	
 	
-	private static void drawHorizontalLine(int y, int xmin,int xmax,Cell[][] array,Supplier<Cell> supplier) {
+	private static void drawHorizontalLine(int y, int xmin,int xmax,Tile tile,int paletteIndex) {
 		for ( int x = xmin ; x <= xmax ; x++ ) {
-			try {
-			array[x][y]=supplier.get();
-			} catch(ArrayIndexOutOfBoundsException e) {
-				// System.err.println("AIOBE ("+x+","+y+")");
-			}			
+			setCell( x , y , tile , paletteIndex );
 		}
 	}
 	
-	private static void drawVerticalLine(int x, int ymin,int ymax,Cell[][] array,Supplier<Cell> supplier) {
+	private static void drawVerticalLine(int x, int ymin,int ymax,Tile tile,int paletteIndex) {
 		for ( int y = ymin ; y <= ymax ; y++ ) {
-			try {
-				array[x][y]=supplier.get();
-			} catch(ArrayIndexOutOfBoundsException e) {
-				// System.err.println("AIOBE ("+x+","+y+")");
-			}
+			setCell( x , y , tile , paletteIndex );
 		}
 	}	
+	
+	private static void setCell(int x,int y,Tile tile,int paletteIndex) 
+	{
+		if ( x < 0 || y < 0 || x >= tile.width() || y >= tile.height() ) {
+			return;
+		}
+		if ( paletteIndex == Palette.EMPTY ) {
+			tile.setEmpty( x , y , true );
+		} else {
+			tile.setWall( x , y , paletteIndex );
+		}
+	}
 
 	public void generateMaze(long seed) 
 	{
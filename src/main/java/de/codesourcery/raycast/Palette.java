@@ -0,0 +1,103 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+
+import java.awt.Color;
+
+/**
+ * Wall colors shared by all tiles.
+ *
+ * Tiles only store a one-byte palette index per cell, the palette maps this index
+ * to the light and dark variant of the wall color (both as {@link Color} and as packed ARGB value).
+ * Index {@link #EMPTY} is reserved for cells that are not walls.
+ */
+public final class Palette
+{
+	public static final int EMPTY = 0;
+
+	public static final int MAX_COLORS = 256;
+
+	private static final Color[] LIGHT_COLORS = new Color[ MAX_COLORS ];
+	private static final Color[] DARK_COLORS = new Color[ MAX_COLORS ];
+
+	private static final int[] LIGHT_ARGB = new int[ MAX_COLORS ];
+	private static final int[] DARK_ARGB = new int[ MAX_COLORS ];
+
+	private static int colorCount = 1; // index 0 is reserved
+
+	private Palette() {
+	}
+
+	/**
+	 * Returns the palette index for a wall color, adding the color to the palette if necessary.
+	 *
+	 * @param color
+	 * @return palette index (1...255)
+	 * @throws IllegalStateException if the palette is full
+	 */
+	public static synchronized int indexOf(Color color)
+	{
+		final int rgb = color.getRGB();
+		for ( int i = 1 ; i < colorCount ; i++ ) {
+			if ( LIGHT_ARGB[i] == rgb ) {
+				return i;
+			}
+		}
+		if ( colorCount == MAX_COLORS ) {
+			throw new IllegalStateException("Palette is full, cannot add "+color);
+		}
+		final int index = colorCount;
+		final Color dark = darken( color );
+		LIGHT_COLORS[index] = color;
+		DARK_COLORS[index] = dark;
+		LIGHT_ARGB[index] = rgb;
+		DARK_ARGB[index] = dark.getRGB();
+		colorCount++;
+		return index;
+	}
+
+	/**
+	 * Returns the number of palette entries in use, including {@link #EMPTY}.
+	 *
+	 * Entries below this index never change.
+	 */
+	public static synchronized int size() {
+		return colorCount;
+	}
+
+	public static Color lightColor(int index) {
+		return LIGHT_COLORS[index];
+	}
+
+	public static Color darkColor(int index) {
+		return DARK_COLORS[index];
+	}
+
+	public static int lightARGB(int index) {
+		return LIGHT_ARGB[index];
+	}
+
+	public static int darkARGB(int index) {
+		return DARK_ARGB[index];
+	}
+
+	protected static Color darken(Color color)
+	{
+		int newColor = ( color.getRGB()>> 1 ) & 0b00000000_011111111_011111111_011111111;
+		newColor |= color.getRGB() & 0xff000000; // preserve alpha
+		return new Color(newColor);
+	}
+}
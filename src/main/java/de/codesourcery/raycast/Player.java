@@ -25,7 +25,30 @@ public abstract class Player
 	
 	private static final Vec2d INITIAL_HEADING = new Vec2d(0,-1); // 0 degrees heading
 	
+	/**
+	 * Headings are quantized to 1/8th of a degree, all rotation
+	 * amounts used by the input controllers (multiples of 0.5 degrees) are 
+	 * represented exactly.
+	 */
+	public static final int HEADING_STEPS_PER_DEGREE = 8;
+	public static final int HEADING_STEPS = 360 * HEADING_STEPS_PER_DEGREE;
+	
+	// view direction for each quantized heading
+	private static final double[] DIRECTION_X = new double[ HEADING_STEPS ];
+	private static final double[] DIRECTION_Y = new double[ HEADING_STEPS ];
+	
+	static 
+	{
+		for ( int i = 0 ; i < HEADING_STEPS ; i++ ) 
+		{
+			final Vec2d dir = new Vec2d(INITIAL_HEADING).rotZ( i / (double) HEADING_STEPS_PER_DEGREE );
+			DIRECTION_X[i] = dir.x;
+			DIRECTION_Y[i] = dir.y;
+		}
+	}
+	
 	public double heading;
+	public int headingIndex;
 	public final Vec2d position;
 	public final Vec2d direction;
 	
@@ -97,19 +120,40 @@ public abstract class Player
 		setHeading(0);
 	}	
 	
-	public boolean setHeading(double angleInDegrees) {
-		while( angleInDegrees >= 360 ) {
-			angleInDegrees-=360;
-		}
-		while( angleInDegrees < 0 ) {
-			angleInDegrees += 360;
+	public boolean setHeading(double angleInDegrees) 
+	{
+		int index = (int) ( Math.round( angleInDegrees * HEADING_STEPS_PER_DEGREE ) % HEADING_STEPS );
+		if ( index < 0 ) {
+			index += HEADING_STEPS;
 		}
-		this.heading = angleInDegrees;
-		direction.set( new Vec2d(INITIAL_HEADING).rotZ( heading ) );
+		this.headingIndex = index;
+		this.heading = index / (double) HEADING_STEPS_PER_DEGREE;
+		direction.x = DIRECTION_X[index];
+		direction.y = DIRECTION_Y[index];
 		hasMoved = true;
 		return true;		
 	}
 	
+	/**
+	 * Returns the X component of the view direction for a given quantized heading.
+	 * 
+	 * @param headingIndex
+	 * @see #headingIndex
+	 */
+	public static double directionX(int headingIndex) {
+		return DIRECTION_X[headingIndex];
+	}
+	
+	/**
+	 * Returns the Y component of the view direction for a given quantized heading.
+	 * 
+	 * @param headingIndex
+	 * @see #headingIndex
+	 */	
+	public static double directionY(int headingIndex) {
+		return DIRECTION_Y[headingIndex];
+	}
+	
 	public boolean rotate(double angleInDegrees) {
 		heading += angleInDegrees;
 		return setHeading( heading );
@@ -141,7 +185,6 @@ public abstract class Player
 			
 			zAcceleration = limit( zAcceleration , MAX_ACCELERATION );
 			
-			System.out.println("z: "+z+" | a: "+zAcceleration+" | v: "+zVelocity);
 			z += zVelocity*deltaSeconds + 0.5f * zAcceleration * deltaSeconds * deltaSeconds;
 					
 			if ( z >= MAX_Z ) {
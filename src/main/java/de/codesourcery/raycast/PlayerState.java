@@ -0,0 +1,77 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+/**
+ * Immutable copy of the parts of a {@link Player} that rendering depends on.
+ */
+public final class PlayerState 
+{
+	public final double x;
+	public final double y;
+	public final double heading;
+	public final float z;
+	public final int score;
+	
+	public PlayerState(double x, double y, double heading, float z, int score) 
+	{
+		this.x = x;
+		this.y = y;
+		this.heading = heading;
+		this.z = z;
+		this.score = score;
+	}
+	
+	public static PlayerState of(Player player) {
+		return new PlayerState( player.position.x , player.position.y , player.heading , player.z , player.score );
+	}
+	
+	/**
+	 * Copies this state to a player.
+	 */
+	public void applyTo(Player player) 
+	{
+		player.position.x = x;
+		player.position.y = y;
+		player.setHeading( heading );
+		player.z = z;
+		player.score = score;
+	}
+	
+	/**
+	 * Copies the state between two states to a player.
+	 * 
+	 * @param from
+	 * @param to
+	 * @param alpha 0 = <code>from</code>, 1 = <code>to</code>
+	 * @param player
+	 */
+	public static void interpolate(PlayerState from,PlayerState to,double alpha,Player player) 
+	{
+		player.position.x = from.x + ( to.x - from.x ) * alpha;
+		player.position.y = from.y + ( to.y - from.y ) * alpha;
+		
+		// turn the shorter way around
+		double delta = ( to.heading - from.heading ) % 360;
+		if ( delta > 180 ) {
+			delta -= 360;
+		} else if ( delta < -180 ) {
+			delta += 360;
+		}
+		player.setHeading( from.heading + delta * alpha );
+		player.z = (float) ( from.z + ( to.z - from.z ) * alpha );
+		player.score = to.score;
+	}
+}
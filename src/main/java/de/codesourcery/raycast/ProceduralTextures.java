@@ -0,0 +1,183 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+
+import java.util.Random;
+
+/**
+ * Generates the built-in wall textures so that the game does not need any image files.
+ *
+ * All textures are generated from a fixed seed and look the same on every run.
+ */
+public final class ProceduralTextures
+{
+	private static final long SEED = 0xcafebabeL;
+
+	// texture indices returned by createAll()
+	public static final int BRICKS = 0;
+	public static final int STONE = 1;
+	public static final int PLANKS = 2;
+	public static final int METAL = 3;
+
+	private ProceduralTextures() {
+	}
+
+	/**
+	 * Generates all textures.
+	 *
+	 * @param size texture size
+	 * @return ARGB texels of each texture, row by row
+	 */
+	public static int[][] createAll(int size) {
+		return new int[][] { bricks( size ) , stone( size ) , planks( size ) , metal( size ) };
+	}
+
+	public static int[] bricks(int size)
+	{
+		final Random rnd = new Random( SEED );
+		final int[] result = new int[ size*size ];
+		final int brickHeight = Math.max( 2 , size / 8 );
+		final int brickWidth = brickHeight * 2;
+		for ( int y = 0 ; y < size ; y++ )
+		{
+			final int row = y / brickHeight;
+			final int shift = ( row & 1 ) * brickWidth / 2;
+			for ( int x = 0 ; x < size ; x++ )
+			{
+				final boolean mortar = y % brickHeight == 0 || ( x + shift ) % brickWidth == 0;
+				final int noise = rnd.nextInt( 24 );
+				result[ y*size + x ] = mortar ? rgb( 170 + noise , 165 + noise , 150 + noise ) : rgb( 150 + noise , 50 + noise/2 , 35 + noise/2 );
+			}
+		}
+		return result;
+	}
+
+	public static int[] stone(int size)
+	{
+		final Random rnd = new Random( SEED + 1 );
+		final int[] result = new int[ size*size ];
+		final int blockSize = Math.max( 2 , size / 4 );
+		for ( int y = 0 ; y < size ; y++ )
+		{
+			for ( int x = 0 ; x < size ; x++ )
+			{
+				final int bx = x % blockSize;
+				final int by = y % blockSize;
+				final int base = 110 + ( ( x / blockSize * 7 + y / blockSize * 13 ) % 5 ) * 8;
+				final int noise = rnd.nextInt( 30 );
+				final int grey;
+				if ( bx == 0 || by == 0 ) {
+					grey = 60 + noise / 3; // joint
+				} else if ( bx == 1 || by == 1 ) {
+					grey = Math.min( 255 , base + 40 + noise ); // highlight
+				} else {
+					grey = base + noise;
+				}
+				result[ y*size + x ] = rgb( grey , grey , grey + 5 );
+			}
+		}
+		return result;
+	}
+
+	public static int[] planks(int size)
+	{
+		final Random rnd = new Random( SEED + 2 );
+		final int[] result = new int[ size*size ];
+		final int plankWidth = Math.max( 2 , size / 4 );
+		for ( int x = 0 ; x < size ; x++ )
+		{
+			// wood grain runs vertically, every plank gets its own phase
+			final double phase = rnd.nextDouble() * Math.PI * 2;
+			for ( int y = 0 ; y < size ; y++ )
+			{
+				final boolean gap = x % plankWidth == 0;
+				final double grain = Math.sin( phase + x * 0.9 + Math.sin( y * 0.15 + x / plankWidth ) * 2 );
+				final int shade = (int) ( grain * 15 ) + rnd.nextInt( 10 );
+				result[ y*size + x ] = gap ? rgb( 50 , 30 , 15 ) : rgb( 140 + shade , 95 + shade , 50 + shade/2 );
+			}
+		}
+		return result;
+	}
+
+	public static int[] metal(int size)
+	{
+		final Random rnd = new Random( SEED + 3 );
+		final int[] result = new int[ size*size ];
+		final int panelSize = Math.max( 4 , size / 2 );
+		final int rivetOffset = Math.max( 1 , panelSize / 8 );
+		for ( int y = 0 ; y < size ; y++ )
+		{
+			for ( int x = 0 ; x < size ; x++ )
+			{
+				final int px = x % panelSize;
+				final int py = y % panelSize;
+				final boolean seam = px == 0 || py == 0;
+				final boolean rivet = ( px == rivetOffset || px == panelSize - rivetOffset ) && ( py == rivetOffset || py == panelSize - rivetOffset );
+				final int grey;
+				if ( seam ) {
+					grey = 70;
+				} else if ( rivet ) {
+					grey = 210;
+				} else {
+					grey = 140 + rnd.nextInt( 12 ) - py / 4; // brushed, slightly darker towards the bottom
+				}
+				result[ y*size + x ] = rgb( grey , grey + 5 , grey + 12 );
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Generates a shaded ball, texels outside of the ball are fully transparent.
+	 *
+	 * @param size
+	 * @param argb base color
+	 */
+	public static int[] ball(int size,int argb)
+	{
+		final int[] result = new int[ size*size ];
+		final double radius = size / 2.0;
+		for ( int y = 0 ; y < size ; y++ )
+		{
+			for ( int x = 0 ; x < size ; x++ )
+			{
+				final double dx = ( x + 0.5 - radius ) / radius;
+				final double dy = ( y + 0.5 - radius ) / radius;
+				final double d2 = dx*dx + dy*dy;
+				if ( d2 > 1 ) {
+					continue;
+				}
+				// lit from the top left
+				final double dz = Math.sqrt( 1 - d2 );
+				final double light = Math.max( 0 , ( -dx - dy + dz ) / Math.sqrt( 3 ) );
+				final double intensity = 0.35 + 0.65 * light;
+				final int r = (int) ( ( ( argb >> 16 ) & 0xff ) * intensity );
+				final int g = (int) ( ( ( argb >>  8 ) & 0xff ) * intensity );
+				final int b = (int) ( (   argb         & 0xff ) * intensity );
+				result[ y*size + x ] = rgb( r , g , b );
+			}
+		}
+		return result;
+	}
+
+	private static int rgb(int r,int g,int b) {
+		return 0xff000000 | clamp( r ) << 16 | clamp( g ) << 8 | clamp( b );
+	}
+
+	private static int clamp(int value) {
+		return value < 0 ? 0 : value > 255 ? 255 : value;
+	}
+}
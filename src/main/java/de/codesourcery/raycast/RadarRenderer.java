@@ -23,13 +23,33 @@ public class RadarRenderer {
 
 	private final TileManager tileManager;
 	private final Player player;
+	private final TileCursor cursor;
 	
-	private double zoomFactor = 2.0d;
-	private boolean zoomFactorChanged = true;
+	// changed by the simulation thread, read by the render thread
+	private volatile double zoomFactor = 2.0d;
+	private volatile boolean zoomFactorChanged = true;
+	
+	// state of the last rendered radar image
+	private int lastWidth = -1;
+	private int lastHeight;
+	private int lastBackground;
+	private double lastZoomFactor;
+	private double lastCenterX;
+	private double lastCenterY;
+	private int lastScore;
+	private long lastModificationCount;
 	
 	public RadarRenderer(TileManager factory,Player player) {
 		this.tileManager = factory;
 		this.player = player;
+		this.cursor = factory.newNonBlockingCursor();
+	}
+	
+	/**
+	 * Returns the distance (in cells) from the center of the radar to its corners.
+	 */
+	public double getViewRadius() {
+		return Math.sqrt(2) * Math.max( 2 , tileManager.tileSize()*zoomFactor ) / 2.0;
 	}
 	
 	public void zoomIn(double delta)
@@ -50,8 +70,45 @@ public class RadarRenderer {
 		return result;
 	}
 	
+	/**
+	 * Returns whether rendering would produce a different image than the last call
+	 * to {@link #render(Rectangle, Graphics2D, Color)}.
+	 * 
+	 * The radar changes when the player enters another cell, consumes a pill, zooms or when tiles 
+	 * got loaded or evicted.
+	 */
+	public boolean needsRender(Rectangle r , Color backgroundColor) 
+	{
+		final Vec2d center = center();
+		return r.width != lastWidth || r.height != lastHeight || backgroundColor.getRGB() != lastBackground ||
+				zoomFactor != lastZoomFactor || center.x != lastCenterX || center.y != lastCenterY ||
+				player.score != lastScore || tileManager.getModificationCount() != lastModificationCount;
+	}
+	
+	/*
+	 * Returns the center of the player's cell.
+	 */
+	private Vec2d center() 
+	{
+		final TileId tileId = tileManager.getTileId( player.position );
+		final Vec2d local = tileManager.toLocalCoordinates( player.position.x , player.position.y );
+		return tileManager.toGlobalCoordinates( tileId , (int) local.x , (int) local.y );
+	}
+	
 	public void render(Rectangle r , Graphics2D g , Color backgroundColor) 
 	{
+		final double zoomFactor = this.zoomFactor;
+		final Vec2d global = center();
+		
+		lastWidth = r.width;
+		lastHeight = r.height;
+		lastBackground = backgroundColor.getRGB();
+		lastZoomFactor = zoomFactor;
+		lastCenterX = global.x;
+		lastCenterY = global.y;
+		lastScore = player.score;
+		lastModificationCount = tileManager.getModificationCount();
+		
 		// clear background
 		g.setColor(backgroundColor);
 		g.fillRect( r.x ,  r.y ,  r.width ,  r.height );
@@ -62,11 +119,6 @@ public class RadarRenderer {
 		
 		final int tileSize = (int) Math.max( 2 , tileManager.tileSize()*zoomFactor );
 		
-		final TileId tileId = tileManager.getTileId( player.position );
-		
-		Vec2d local = tileManager.toLocalCoordinates( player.position.x , player.position.y );
-		Vec2d global = tileManager.toGlobalCoordinates( tileId , (int) local.x , (int) local.y );
-		
 		final double xmin = global.x - (tileSize/2.0);
 		final double xmax = global.x + (tileSize/2.0);
 		
@@ -88,16 +140,17 @@ public class RadarRenderer {
 				final double x1 = x0 + stepX;
 				final double y1 = y0 + stepY;
 				
-				final Cell cell = tileManager.getCellAt( x , y );
-				if ( cell.isWall() ) 
+				// same cell as tileManager.getCellAt( x , y ) but without blocking on tile generation
+				cursor.moveTo( (int) Math.floor( x + 0.5 ) , (int) Math.floor( y + 0.5 ) );
+				if ( cursor.isWall() ) 
 				{
-					g.setColor(cell.darkColor);
+					g.setColor( Palette.darkColor( cursor.paletteIndex() ) );
 					
 					final int w = (int) Math.max( x1-x0 , 1 );
 					final int h = (int) Math.max( y1-y0 , 1 );					
 					g.fillRect( (int) x0, (int) y0 , w , h);
 				} 
-				else if ( cell.hasPill() ) 
+				else if ( cursor.hasPill() ) 
 				{
 					final int w = (int) Math.max( (x1-x0)/2.0 , 1 );
 					final int h = (int) Math.max( (y1-y0)/2.0 , 1 );
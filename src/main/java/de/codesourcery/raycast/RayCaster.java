@@ -0,0 +1,552 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+
+/**
+ * Casts one ray per screen column and stores the results in a {@link ColumnBuffer}.
+ *
+ * Rays may skip over empty areas of the map using the tiles' distance fields (see {@link TileCursor#emptyRadius()}).
+ * Skipping yields exactly the same results as visiting every single cell, but only pays off for long rays
+ * through open space. The generated maze's corridors are one cell wide, so plain DDA is used by default.
+ *
+ * {@link #traceColumns(Player, RayTable, int, int, int, ColumnBuffer)} only casts rays where wall faces begin or end
+ * and fills in the columns in between, again with exactly the same results.
+ *
+ * Instances are <b>not</b> thread-safe, every render thread needs to use its own instance.
+ */
+public final class RayCaster implements ColumnCaster
+{
+	protected enum Side {
+		NORTH_SOUTH, EAST_WEST;
+	}
+
+	// empty squares smaller than this are cheaper to walk cell by cell
+	private static final int MIN_SKIP_RADIUS = 2;
+
+	// render distance from which on empty space is skipped by default
+	public static final int SKIP_EMPTY_SPACE_DISTANCE = 64;
+
+	/*
+	 * Columns are only filled in if both rays hit a face at least this far from its ends,
+	 * so rounding can't make a ray in between enter the cell through another side. Cells within
+	 * VISIBILITY_EPSILON of the triangle between player and face are checked as well.
+	 */
+	private static final double FACE_MARGIN = 1e-6;
+	private static final double VISIBILITY_EPSILON = 1e-7;
+
+	private final int maxRenderDistance;
+	private final boolean skipEmptySpace;
+	private final TileCursor cursor;
+
+	// horizontal extent of the part of a triangle currently being checked
+	private double rowMin;
+	private double rowMax;
+
+	/**
+	 * Create instance that skips empty space only for render distances of at least {@link #SKIP_EMPTY_SPACE_DISTANCE}.
+	 *
+	 * @param tileManager
+	 * @param maxRenderDistance
+	 */
+	public RayCaster(TileManager tileManager,int maxRenderDistance)
+	{
+		this( tileManager , maxRenderDistance , maxRenderDistance >= SKIP_EMPTY_SPACE_DISTANCE );
+	}
+
+	/**
+	 * Create instance.
+	 *
+	 * @param tileManager
+	 * @param maxRenderDistance
+	 * @param skipEmptySpace whether to skip empty areas, <code>false</code> visits every cell along the ray
+	 */
+	public RayCaster(TileManager tileManager,int maxRenderDistance,boolean skipEmptySpace)
+	{
+		this.maxRenderDistance = maxRenderDistance;
+		this.skipEmptySpace = skipEmptySpace;
+		this.cursor = tileManager.newNonBlockingCursor();
+	}
+
+	/**
+	 * Casts rays for screen columns <code>[fromX,toX)</code>.
+	 *
+	 * @param player
+	 * @param rays ray setup for the current screen width and player heading
+	 * @param fromX first column (inclusive)
+	 * @param toX last column (exclusive)
+	 * @param h screen height
+	 * @param out buffer receiving the results
+	 */
+	@Override
+	public void castColumns(Player player,RayTable rays,int fromX,int toX,int h,ColumnBuffer out)
+	{
+		/*
+		 * The following code is taken from/derived from
+		 * Lode Vandevenne's excellent tutorial at
+		 *
+		 * http://lodev.org/cgtutor/raycasting.html
+		 */
+		for (int x = fromX; x < toX; x++)
+		{
+			castColumn( player , rays , x , h , out );
+		}
+	}
+
+	/**
+	 * Calculates the same results as {@link #castColumns(Player, RayTable, int, int, int, ColumnBuffer)}
+	 * but casts far fewer rays.
+	 *
+	 * If the rays of two columns hit the same face of the same cell and there are no walls between the player
+	 * and that face, all rays in between must hit that face as well and get calculated directly. Otherwise
+	 * the ray in the middle is cast and both halves are handled the same way, so the number of rays cast grows
+	 * with the number of visible wall faces instead of the screen width.
+	 *
+	 * @param player
+	 * @param rays ray setup for the current screen width and player heading
+	 * @param fromX first column (inclusive)
+	 * @param toX last column (exclusive)
+	 * @param h screen height
+	 * @param out buffer receiving the results
+	 * @return number of rays cast
+	 */
+	public int traceColumns(Player player,RayTable rays,int fromX,int toX,int h,ColumnBuffer out)
+	{
+		if ( toX - fromX <= 2 )
+		{
+			castColumns( player , rays , fromX , toX , h , out );
+			return toX - fromX;
+		}
+		castColumn( player , rays , fromX , h , out );
+		castColumn( player , rays , toX - 1 , h , out );
+		return 2 + trace( player , rays , fromX , toX - 1 , h , out );
+	}
+
+	/*
+	 * Fills in columns (left,right), both columns have already been cast.
+	 */
+	private int trace(Player player,RayTable rays,int left,int right,int h,ColumnBuffer out)
+	{
+		if ( right - left < 2 ) {
+			return 0;
+		}
+		if ( isFaceVisible( player , rays , left , right , out ) )
+		{
+			int cast = 0;
+			final int wall = out.paletteIndex[left];
+			final int mapX = out.mapX[left];
+			final int mapY = out.mapY[left];
+			final boolean eastWest = out.darkSide[left];
+			for ( int x = left + 1 ; x < right ; x++ )
+			{
+				if ( ! projectColumn( player , rays , x , h , out , wall , mapX , mapY , eastWest ) ) {
+					castColumn( player , rays , x , h , out );
+					cast++;
+				}
+			}
+			return cast;
+		}
+		if ( isEmptyUpToRenderDistance( player , rays , left , right , out ) )
+		{
+			for ( int x = left + 1 ; x < right ; x++ ) {
+				out.hit[x] = false;
+				out.perpWallDist[x] = Double.POSITIVE_INFINITY;
+			}
+			return 0;
+		}
+		final int mid = ( left + right ) >>> 1;
+		castColumn( player , rays , mid , h , out );
+		return 1 + trace( player , rays , left , mid , h , out ) + trace( player , rays , mid , right , h , out );
+	}
+
+	/*
+	 * Checks whether the rays of both columns hit the same face and nothing
+	 * can block the rays in between.
+	 */
+	private boolean isFaceVisible(Player player,RayTable rays,int left,int right,ColumnBuffer out)
+	{
+		if ( ! out.hit[left] || ! out.hit[right] || out.mapX[left] != out.mapX[right] || out.mapY[left] != out.mapY[right] ||
+			 out.darkSide[left] != out.darkSide[right] )
+		{
+			return false;
+		}
+		final boolean eastWest = out.darkSide[left];
+		if ( eastWest ? rays.stepX[left] != rays.stepX[right] : rays.stepY[left] != rays.stepY[right] ) {
+			return false;
+		}
+
+		// the distance changes linearly along the face, so rays in between are within the render distance as well
+		final double distLeft = out.perpWallDist[left];
+		final double distRight = out.perpWallDist[right];
+		if ( distLeft > maxRenderDistance || distRight > maxRenderDistance ) {
+			return false;
+		}
+
+		final double px = player.position.x;
+		final double py = player.position.y;
+		final double leftX = px + distLeft * rays.rayDirX[left];
+		final double leftY = py + distLeft * rays.rayDirY[left];
+		final double rightX = px + distRight * rays.rayDirX[right];
+		final double rightY = py + distRight * rays.rayDirY[right];
+
+		final int mapX = out.mapX[left];
+		final int mapY = out.mapY[left];
+		final double min = eastWest ? mapY + FACE_MARGIN : mapX + FACE_MARGIN;
+		final double max = min + 1 - 2 * FACE_MARGIN;
+		final double leftPos = eastWest ? leftY : leftX;
+		final double rightPos = eastWest ? rightY : rightX;
+		if ( ! ( leftPos >= min && leftPos <= max && rightPos >= min && rightPos <= max ) ) {
+			return false;
+		}
+		return isTriangleEmpty( px , py , leftX , leftY , rightX , rightY , mapX , mapY );
+	}
+
+	/*
+	 * Checks whether the rays of both columns miss and there are no walls in between.
+	 */
+	private boolean isEmptyUpToRenderDistance(Player player,RayTable rays,int left,int right,ColumnBuffer out)
+	{
+		if ( out.hit[left] || out.hit[right] ) {
+			return false;
+		}
+		/*
+		 * A ray gives up after entering an empty cell beyond the render distance, which
+		 * happens within one diagonal step of it.
+		 */
+		final double dist = maxRenderDistance + 2;
+		final double px = player.position.x;
+		final double py = player.position.y;
+		return isTriangleEmpty( px , py , px + dist * rays.rayDirX[left] , py + dist * rays.rayDirY[left] ,
+				px + dist * rays.rayDirX[right] , py + dist * rays.rayDirY[right] , Integer.MIN_VALUE , Integer.MIN_VALUE );
+	}
+
+	/*
+	 * Checks whether all cells touching a triangle, except the given one, are empty.
+	 */
+	private boolean isTriangleEmpty(double x0,double y0,double x1,double y1,double x2,double y2,int exceptX,int exceptY)
+	{
+		final double minY = Math.min( y0 , Math.min( y1 , y2 ) ) - VISIBILITY_EPSILON;
+		final double maxY = Math.max( y0 , Math.max( y1 , y2 ) ) + VISIBILITY_EPSILON;
+		final int lastRow = (int) Math.floor( maxY );
+		for ( int row = (int) Math.floor( minY ) ; row <= lastRow ; row++ )
+		{
+			// horizontal extent of the triangle within this row
+			final double top = row - VISIBILITY_EPSILON;
+			final double bottom = row + 1 + VISIBILITY_EPSILON;
+			rowMin = Double.POSITIVE_INFINITY;
+			rowMax = Double.NEGATIVE_INFINITY;
+			clipEdge( x0 , y0 , x1 , y1 , top , bottom );
+			clipEdge( x1 , y1 , x2 , y2 , top , bottom );
+			clipEdge( x2 , y2 , x0 , y0 , top , bottom );
+			if ( rowMin > rowMax ) {
+				continue;
+			}
+			final int firstCell = (int) Math.floor( rowMin - VISIBILITY_EPSILON );
+			final int lastCell = (int) Math.floor( rowMax + VISIBILITY_EPSILON );
+			cursor.moveTo( firstCell , row );
+			for ( int x = firstCell ; ; x++ )
+			{
+				if ( cursor.isWall() && ( x != exceptX || row != exceptY ) ) {
+					return false;
+				}
+				if ( x == lastCell ) {
+					break;
+				}
+				cursor.stepX( 1 );
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Extends the current row's extent by the part of an edge within [top,bottom].
+	 */
+	private void clipEdge(double x0,double y0,double x1,double y1,double top,double bottom)
+	{
+		if ( y0 == y1 )
+		{
+			if ( y0 >= top && y0 <= bottom ) {
+				include( x0 );
+				include( x1 );
+			}
+			return;
+		}
+		double t0 = ( top - y0 ) / ( y1 - y0 );
+		double t1 = ( bottom - y0 ) / ( y1 - y0 );
+		if ( t0 > t1 ) {
+			final double tmp = t0;
+			t0 = t1;
+			t1 = tmp;
+		}
+		t0 = Math.max( t0 , 0 );
+		t1 = Math.min( t1 , 1 );
+		if ( t0 <= t1 ) {
+			include( x0 + t0 * ( x1 - x0 ) );
+			include( x0 + t1 * ( x1 - x0 ) );
+		}
+	}
+
+	private void include(double x) {
+		rowMin = Math.min( rowMin , x );
+		rowMax = Math.max( rowMax , x );
+	}
+
+	/**
+	 * Casts the ray for a single screen column.
+	 *
+	 * @param player
+	 * @param rays ray setup for the current screen width and player heading
+	 * @param x column
+	 * @param h screen height
+	 * @param out buffer receiving the result
+	 */
+	public void castColumn(Player player,RayTable rays,int x,int h,ColumnBuffer out)
+	{
+		final double rayPosX = player.position.x;
+		final double rayPosY = player.position.y;
+
+		// which box of the map we're in
+		int mapX = (int) Math.floor( rayPosX );
+		int mapY = (int) Math.floor( rayPosY );
+
+		final double rayDirX = rays.rayDirX[x];
+		final double rayDirY = rays.rayDirY[x];
+
+		final double deltaDistX = rays.deltaDistX[x];
+		final double deltaDistY = rays.deltaDistY[x];
+
+		final int stepX = rays.stepX[x];
+		final int stepY = rays.stepY[x];
+
+		// length of ray from current position to next x or y-side
+		double sideDistX = stepX < 0 ? (rayPosX - mapX) * deltaDistX : (mapX + 1.0 - rayPosX) * deltaDistX;
+		double sideDistY = stepY < 0 ? (rayPosY - mapY) * deltaDistY : (mapY + 1.0 - rayPosY) * deltaDistY;
+
+		// the empty radius changes by at most one per step, no need to look it up until it might be large enough
+		int stepsUntilSkip = 0;
+
+		// perform DDA
+		cursor.moveTo( mapX , mapY );
+		
+		Side side = Side.NORTH_SOUTH; // was a NS or a EW wall hit?
+
+		int wall = Palette.EMPTY;
+		double perpWallDist=0.0;
+		while ( true )
+		{
+			if ( skipEmptySpace && --stepsUntilSkip <= 0 )
+			{
+				final int r = cursor.emptyRadius();
+				if ( r < MIN_SKIP_RADIUS ) {
+					stepsUntilSkip = MIN_SKIP_RADIUS - r;
+				}
+				else
+				{
+					/*
+					 * All cells up to r steps away are empty, advance to the last cell the DDA
+					 * would visit before leaving that square. Side distances are accumulated
+					 * exactly like below (just without visiting the cells) so the ray visits the same cells.
+					 */
+					double exitX = sideDistX;
+					double exitY = sideDistY;
+					for ( int i = 0 ; i < r ; i++ ) {
+						exitX += deltaDistX;
+						exitY += deltaDistY;
+					}
+					int stepsX = 0;
+					int stepsY = 0;
+					if ( exitX < exitY )
+					{
+						// ray leaves through an x-side, take all y-steps that happen before that
+						stepsX = r;
+						sideDistX = exitX;
+						while ( stepsY < r && ! ( exitX < sideDistY ) ) {
+							sideDistY += deltaDistY;
+							stepsY++;
+						}
+					} else {
+						// ray leaves through a y-side
+						stepsY = r;
+						sideDistY = exitY;
+						while ( stepsX < r && sideDistX < exitY ) {
+							sideDistX += deltaDistX;
+							stepsX++;
+						}
+					}
+					final int dx = stepsX * stepX;
+					final int dy = stepsY * stepY;
+					mapX += dx;
+					mapY += dy;
+					cursor.jump( dx , dy );
+					// distance grows with every step so only the last step along each axis needs checking
+					if ( ( stepsX != 0 && Math.abs((mapX - rayPosX + (1 - stepX) / 2) / rayDirX) > maxRenderDistance ) ||
+						 ( stepsY != 0 && Math.abs((mapY - rayPosY + (1 - stepY) / 2) / rayDirY) > maxRenderDistance ) )
+					{
+						out.hit[x] = false;
+						out.perpWallDist[x] = Double.POSITIVE_INFINITY;
+						return;
+					}
+				}
+			}
+
+			// jump to next map square, OR in x-direction, OR in y-direction
+			if ( sideDistX < sideDistY ) {
+				sideDistX += deltaDistX;
+				mapX += stepX;
+				cursor.stepX( stepX );
+				side = Side.EAST_WEST;
+			} else {
+				sideDistY += deltaDistY;
+				mapY += stepY;
+				cursor.stepY( stepY );
+				side = Side.NORTH_SOUTH;
+			}
+
+			// Calculate distance projected on camera direction (oblique distance will give fisheye effect!)
+			if (side == Side.EAST_WEST) {
+				perpWallDist = Math.abs((mapX - rayPosX + (1 - stepX) / 2) / rayDirX);
+			} else {
+				perpWallDist = Math.abs((mapY - rayPosY + (1 - stepY) / 2) / rayDirY);
+			}
+
+			// Check if ray has hit a wall
+			wall = cursor.paletteIndex();
+			if ( wall != Palette.EMPTY ) {
+				break;
+			}
+
+			if ( perpWallDist > maxRenderDistance ) {
+				out.hit[x] = false;
+				out.perpWallDist[x] = Double.POSITIVE_INFINITY;
+				return;
+			}
+		}
+
+		writeWall( player , rays , x , h , out , wall , side , perpWallDist , mapX , mapY );
+	}
+
+	/**
+	 * Reuses the wall a column has hit in the previous frame, provided that the column's ray
+	 * still hits the same side of the same map cell.
+	 *
+	 * Distance and texture coordinate are calculated exactly for the current ray. Unlike casting
+	 * the ray this does not check whether some other wall is in the way now, callers need to
+	 * make sure that the column's surroundings did not change.
+	 *
+	 * @param player
+	 * @param rays ray setup for the current screen width and player heading
+	 * @param x column
+	 * @param h screen height
+	 * @param out buffer holding the previous frame's result for the column, receives the new result
+	 * @return <code>true</code> if the column has been updated, <code>false</code> if the ray needs to be cast
+	 */
+	public boolean reprojectColumn(Player player,RayTable rays,int x,int h,ColumnBuffer out)
+	{
+		return out.hit[x] && projectColumn( player , rays , x , h , out , out.paletteIndex[x] , out.mapX[x] , out.mapY[x] , out.darkSide[x] );
+	}
+
+	/*
+	 * Calculates where a column's ray hits a face of a cell, provided it does
+	 * so within the cell's bounds and the render distance.
+	 */
+	private boolean projectColumn(Player player,RayTable rays,int x,int h,ColumnBuffer out,int wall,int mapX,int mapY,boolean eastWest)
+	{
+		final double rayPosX = player.position.x;
+		final double rayPosY = player.position.y;
+		final double rayDirX = rays.rayDirX[x];
+		final double rayDirY = rays.rayDirY[x];
+
+		// distance to the side of the cell facing the ray, the ray has to hit it within the cell's bounds
+		final Side side;
+		final double perpWallDist;
+		if ( eastWest )
+		{
+			side = Side.EAST_WEST;
+			perpWallDist = (mapX - rayPosX + (1 - rays.stepX[x]) / 2) / rayDirX;
+			final double y = rayPosY + perpWallDist * rayDirY;
+			if ( ! ( y >= mapY && y < mapY + 1 ) ) {
+				return false;
+			}
+		}
+		else
+		{
+			side = Side.NORTH_SOUTH;
+			perpWallDist = (mapY - rayPosY + (1 - rays.stepY[x]) / 2) / rayDirY;
+			final double hitX = rayPosX + perpWallDist * rayDirX;
+			if ( ! ( hitX >= mapX && hitX < mapX + 1 ) ) {
+				return false;
+			}
+		}
+		if ( ! ( perpWallDist > 0 && perpWallDist <= maxRenderDistance ) ) {
+			return false;
+		}
+		writeWall( player , rays , x , h , out , wall , side , perpWallDist , mapX , mapY );
+		return true;
+	}
+
+	/*
+	 * Stores a hit in the column buffer, package-private for the vectorized caster.
+	 */
+	static void writeWall(Player player,RayTable rays,int x,int h,ColumnBuffer out,int wall,Side side,double perpWallDist,int mapX,int mapY)
+	{
+		final double rayPosX = player.position.x;
+		final double rayPosY = player.position.y;
+		final double rayDirX = rays.rayDirX[x];
+		final double rayDirY = rays.rayDirY[x];
+
+		// Calculate line y-offset based on the player's current Z coordinate and wall distance
+		float zCoordinate = player.z / Player.MAX_Z; // scale to [0..1]
+		final int lineOffset = (int) ( ( h * zCoordinate ) / perpWallDist);
+
+		// Calculate height of line to draw on screen
+		final int lineHeight = Math.abs((int) ( h / perpWallDist*0.5f));
+
+		// calculate lowest and highest pixel to fill in current stripe
+		final int wallTop = -lineHeight / 2 + h / 2;
+		final int wallBottom = lineHeight / 2 + h / 2;
+		int drawStart = wallTop;
+		if (drawStart < 0) {
+			drawStart = 0;
+		}
+		int drawEnd = wallBottom;
+		if (drawEnd >= h) {
+			drawEnd = h - 1;
+		}
+
+		// choose wall color
+		// give x and y sides different brightness
+		final int color = side == Side.EAST_WEST ? Palette.darkARGB( wall ) : Palette.lightARGB( wall );
+
+		out.hit[x] = true;
+		out.drawStart[x] = lineOffset+drawStart;
+		out.drawEnd[x] = lineOffset+drawEnd;
+		out.perpWallDist[x] = perpWallDist;
+		out.color[x] = color;
+		out.paletteIndex[x] = wall;
+		out.darkSide[x] = side == Side.EAST_WEST;
+		out.wallTop[x] = lineOffset + wallTop;
+		out.wallHeight[x] = wallBottom - wallTop + 1;
+
+		// where exactly the wall was hit, mirrored where necessary so that textures are never flipped
+		double wallX = side == Side.EAST_WEST ? rayPosY + perpWallDist * rayDirY : rayPosX + perpWallDist * rayDirX;
+		wallX -= Math.floor( wallX );
+		if ( ( side == Side.EAST_WEST && rayDirX > 0 ) || ( side == Side.NORTH_SOUTH && rayDirY < 0 ) ) {
+			wallX = 1 - wallX;
+		}
+		out.wallX[x] = wallX;
+		out.mapX[x] = mapX;
+		out.mapY[x] = mapY;
+	}
+}
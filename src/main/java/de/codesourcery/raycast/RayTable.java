@@ -0,0 +1,131 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Position-independent ray setup for every screen column, valid for
+ * one screen width and one (quantized) player heading.
+ *
+ * Instances are immutable once constructed and may be shared between render threads.
+ */
+public final class RayTable
+{
+	/**
+	 * Length of the camera plane relative to the view direction, determines the FOV.
+	 */
+	public static final double CAMERA_PLANE_SCALE = 0.66;
+
+	public final int width;
+	public final int headingIndex;
+
+	// view direction and camera plane, the ray of column x points towards dir + plane * (2x/width - 1)
+	public final double dirX;
+	public final double dirY;
+	public final double planeX;
+	public final double planeY;
+
+	public final double[] rayDirX;
+	public final double[] rayDirY;
+
+	// length of ray from one x or y-side to next x or y-side
+	public final double[] deltaDistX;
+	public final double[] deltaDistY;
+
+	// what direction to step in x or y-direction (either +1 or -1)
+	public final int[] stepX;
+	public final int[] stepY;
+
+	public RayTable(int width,int headingIndex)
+	{
+		this.width = width;
+		this.headingIndex = headingIndex;
+
+		this.rayDirX = new double[width];
+		this.rayDirY = new double[width];
+		this.deltaDistX = new double[width];
+		this.deltaDistY = new double[width];
+		this.stepX = new int[width];
+		this.stepY = new int[width];
+
+		final Vec2d direction = new Vec2d( Player.directionX( headingIndex ) , Player.directionY( headingIndex ) );
+		final Vec2d cameraPlane = new Vec2d( direction ).rotZ( 90 ).scale( CAMERA_PLANE_SCALE );
+		this.dirX = direction.x;
+		this.dirY = direction.y;
+		this.planeX = cameraPlane.x;
+		this.planeY = cameraPlane.y;
+
+		for ( int x = 0 ; x < width ; x++ )
+		{
+			final double cameraX = 2.0 * x / width - 1.0; // x-coordinate in camera space (-1...1)
+
+			final double dirX = direction.x + (cameraPlane.x * cameraX);
+			final double dirY = direction.y + (cameraPlane.y * cameraX);
+
+			rayDirX[x] = dirX;
+			rayDirY[x] = dirY;
+			deltaDistX[x] = Math.sqrt(1 + (dirY * dirY) / (dirX * dirX)); // = Math.sqrt( dx^2 + dy^2) = Math.sqrt( 1*1 + (y/x)^2 )
+			deltaDistY[x] = Math.sqrt(1 + (dirX * dirX) / (dirY * dirY));
+			stepX[x] = dirX < 0 ? -1 : 1;
+			stepY[x] = dirY < 0 ? -1 : 1;
+		}
+	}
+
+	/**
+	 * Keeps the tables for the most recently used headings.
+	 *
+	 * Not thread-safe, tables should be looked up once per frame by the thread
+	 * driving the rendering and then handed to the render threads.
+	 */
+	public static final class Cache
+	{
+		private final int maxSize;
+
+		private RayTable lastAccessed;
+
+		private final LinkedHashMap<Long,RayTable> tables;
+
+		public Cache(int maxSize)
+		{
+			this.maxSize = maxSize;
+			this.tables = new LinkedHashMap<Long,RayTable>(maxSize,0.75f,true)
+			{
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Long,RayTable> eldest) {
+					return size() > Cache.this.maxSize;
+				}
+			};
+		}
+
+		public RayTable get(int width,int headingIndex)
+		{
+			final RayTable last = lastAccessed;
+			if ( last != null && last.width == width && last.headingIndex == headingIndex ) {
+				return last;
+			}
+			final Long key = ( (long) width << 32 ) | headingIndex;
+			RayTable table = tables.get( key );
+			if ( table == null ) {
+				table = new RayTable( width , headingIndex );
+				tables.put( key , table );
+			}
+			lastAccessed = table;
+			return table;
+		}
+	}
+}
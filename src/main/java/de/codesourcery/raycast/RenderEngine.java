@@ -0,0 +1,501 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+import java.awt.Color;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Renders a player's view of the map (3D view, radar and HUD) into an image or pixel array.
+ *
+ * The engine does not depend on any AWT component or display and works with <code>java.awt.headless=true</code>,
+ * targets may have any size and the size may change between frames.
+ *
+ * 3D view, radar and HUD are kept as separate layers by a {@link FrameCompositor}. When rendering into the same target
+ * as before, only layers that changed get rendered again and {@link #getDirtyRegions()} tells which parts of the
+ * target have been updated. Nothing gets rendered at all if neither the player nor the map nor the HUD changed.
+ *
+ * If a frame time budget has been set, the 3D view is rendered at a lower resolution whenever frames take too long
+ * (see {@link ResolutionScaler}) and scaled up to the size of the target, radar and HUD always use the full resolution.
+ *
+ * Instances are not thread-safe, use one engine per rendering thread.
+ */
+public class RenderEngine 
+{
+	public static final int DEFAULT_BACKGROUND_COLOR = 0xffeeeeee;
+	
+	private static final long FRAME_TIME_REFRESH_NANOS = 1_000_000_000L;
+	
+	private final TileManager tileManager;
+	private final Player player;
+	private final ColumnRenderer columnRenderer;
+	private final RadarRenderer radarRenderer;
+	
+	private final DecimalFormat decimalFormat = new DecimalFormat("###0.0#");
+	
+	private ColumnBuffer columns;
+	
+	private final FrameCompositor compositor = new FrameCompositor();
+	
+	// state of the last rendered 3D view
+	private double lastX = Double.NaN;
+	private double lastY;
+	private double lastHeading;
+	private float lastZ;
+	private int lastScore;
+	private long lastModificationCount;
+	
+	// optional, renders the 3D view at a lower resolution if frames take too long
+	private ResolutionScaler resolutionScaler;
+	private FrameBuffer scaledView;
+	private double lastScale = 1;
+	
+	// text of the last rendered HUD
+	private String[] lastHudLines = new String[0];
+	
+	// frame time percentiles change with every frame, they are only refreshed once per second so an idle HUD is not redrawn
+	private String frameTimeLine;
+	private long frameTimeLineNanos;
+	
+	// used when the target can not be written to directly
+	private FrameBuffer intermediateBuffer;
+	
+	// last wrapped pixel array
+	private FrameBuffer wrappedBuffer;
+	
+	private Color backgroundColor = new Color( DEFAULT_BACKGROUND_COLOR , true );
+	private boolean renderRadar = true;
+	private boolean renderHud = true;
+	private float fps;
+	
+	// optional
+	private FrameMetrics.Timer frameTimer;
+	
+	/**
+	 * Create instance.
+	 * 
+	 * @param tileManager
+	 * @param player player whose view gets rendered
+	 * @param maxRenderDistance
+	 * @param threadCount number of threads to cast rays with, 1 renders on the calling thread only
+	 * @param renderDistanceFog
+	 */
+	public RenderEngine(TileManager tileManager,Player player,int maxRenderDistance,int threadCount,boolean renderDistanceFog) 
+	{
+		this.tileManager = tileManager;
+		this.player = player;
+		this.columnRenderer = new ColumnRenderer( tileManager , maxRenderDistance , threadCount , renderDistanceFog );
+		this.radarRenderer = new RadarRenderer( tileManager , player );
+	}
+	
+	public RadarRenderer getRadarRenderer() {
+		return radarRenderer;
+	}
+	
+	/**
+	 * Sets the wall textures.
+	 * 
+	 * @param textures textures, <code>null</code> draws all walls with flat colors
+	 */
+	public void setTextures(TextureAtlas textures) {
+		columnRenderer.setTextures( textures );
+		compositor.invalidate();
+	}
+	
+	/**
+	 * Enables or disables rendering floor and ceiling.
+	 * 
+	 * @param floorCasting whether to render floor and ceiling, <code>false</code> fills them with the background color
+	 * @see FloorRenderer
+	 */
+	public void setFloorCasting(boolean floorCasting) {
+		columnRenderer.setFloorCasting( floorCasting );
+		compositor.invalidate();
+	}
+	
+	/**
+	 * Enables or disables drawing pills in the 3D view.
+	 * 
+	 * @see SpriteRenderer
+	 */
+	public void setRenderSprites(boolean renderSprites) {
+		columnRenderer.setRenderSprites( renderSprites );
+		compositor.invalidate();
+	}
+	
+	/**
+	 * Sets how much walls, floor, ceiling and sprites darken with distance.
+	 * 
+	 * @param minBrightness brightness at the max. render distance (0...1), 1 disables lighting
+	 * @see ShadingTable
+	 */
+	public void setLighting(double minBrightness) {
+		columnRenderer.setLighting( minBrightness );
+		compositor.invalidate();
+	}
+	
+	/**
+	 * Enables or disables casting only every other column per frame and reprojecting the others.
+	 * 
+	 * @see ColumnRenderer#setTemporalReprojection(boolean)
+	 */
+	public void setTemporalReprojection(boolean temporalReprojection) {
+		columnRenderer.setTemporalReprojection( temporalReprojection );
+		compositor.invalidate();
+	}
+	
+	/**
+	 * Enables or disables casting rays only at the edges of wall faces, the image stays the same.
+	 * 
+	 * @see ColumnRenderer#setWallTracing(boolean)
+	 */
+	public void setWallTracing(boolean wallTracing) {
+		columnRenderer.setWallTracing( wallTracing );
+	}
+	
+	/**
+	 * Enables or disables casting several rays at once using the Vector API, the image stays the same.
+	 * 
+	 * @see ColumnRenderer#setVectorCasting(boolean)
+	 */
+	public void setVectorCasting(boolean vectorCasting) {
+		columnRenderer.setVectorCasting( vectorCasting );
+	}
+	
+	public void setBackgroundColor(Color backgroundColor) 
+	{
+		if ( backgroundColor.getRGB() != this.backgroundColor.getRGB() ) {
+			compositor.invalidate();
+		}
+		this.backgroundColor = backgroundColor;
+	}
+	
+	public void setRenderRadar(boolean renderRadar) 
+	{
+		if ( renderRadar != this.renderRadar ) {
+			compositor.invalidate();
+		}
+		this.renderRadar = renderRadar;
+	}
+	
+	public void setRenderHud(boolean renderHud) 
+	{
+		if ( renderHud != this.renderHud ) {
+			compositor.invalidate();
+		}
+		this.renderHud = renderHud;
+	}
+	
+	/**
+	 * Enables or disables dynamic resolution scaling.
+	 * 
+	 * @param budgetNanos max. time to spend on rendering a frame in nanoseconds, 0 always renders at full resolution 
+	 */
+	public void setFrameTimeBudget(long budgetNanos) 
+	{
+		this.resolutionScaler = budgetNanos > 0 ? new ResolutionScaler( budgetNanos ) : null;
+		compositor.invalidate();
+	}
+	
+	/**
+	 * Returns the factor the resolution of the 3D view was scaled by in the last frame.
+	 */
+	public double getRenderScale() {
+		return lastScale;
+	}
+	
+	/**
+	 * Makes the next frame render all layers again, for example after the target's
+	 * contents have been modified by someone else.
+	 */
+	public void invalidate() {
+		compositor.invalidate();
+	}
+	
+	/**
+	 * Returns the regions of the target that have been updated by the last call to <code>render()</code>.
+	 * 
+	 * Copying just these regions to the screen is sufficient to display the new frame, provided 
+	 * the screen already shows the previous frame rendered into the same target.
+	 * 
+	 * @return regions, empty if nothing changed. Only valid until the next frame gets rendered. 
+	 */
+	public List<Rectangle> getDirtyRegions() {
+		return compositor.getDirtyRegions();
+	}
+	
+	/**
+	 * Sets the FPS value to display on the HUD.
+	 */
+	public void setFps(float fps) {
+		this.fps = fps;
+	}
+	
+	/**
+	 * Sets the timer to record the duration of each render stage with.
+	 * 
+	 * The HUD also shows frame time percentiles from the timer's metrics.
+	 * 
+	 * @param frameTimer timer, <code>null</code> disables recording
+	 */
+	public void setFrameTimer(FrameMetrics.Timer frameTimer) {
+		this.frameTimer = frameTimer;
+	}
+	
+	/**
+	 * Renders into a pixel array.
+	 * 
+	 * @param pixels ARGB pixels, row by row
+	 * @param width
+	 * @param height
+	 */
+	public void render(int[] pixels,int width,int height) 
+	{
+		if ( wrappedBuffer == null || wrappedBuffer.pixels != pixels || ! wrappedBuffer.hasSize( width , height ) ) 
+		{
+			if ( wrappedBuffer != null ) {
+				wrappedBuffer.dispose();
+			}
+			wrappedBuffer = new FrameBuffer( pixels , width , height );
+		}
+		render( wrappedBuffer );
+	}
+	
+	/**
+	 * Renders into an image.
+	 * 
+	 * <code>TYPE_INT_ARGB</code> and <code>TYPE_INT_RGB</code> images are written to directly, 
+	 * all other images receive a copy of the rendered frame.
+	 */
+	public void render(BufferedImage image) 
+	{
+		if ( FrameBuffer.canWrap( image ) ) 
+		{
+			final FrameBuffer buffer = new FrameBuffer( image );
+			try {
+				render( buffer );
+			} finally {
+				buffer.dispose();
+			}
+			return;
+		}
+		
+		if ( intermediateBuffer == null || ! intermediateBuffer.hasSize( image.getWidth() , image.getHeight() ) ) 
+		{
+			if ( intermediateBuffer != null ) {
+				intermediateBuffer.dispose();
+			}
+			intermediateBuffer = new FrameBuffer( image.getWidth() , image.getHeight() );
+		}
+		render( intermediateBuffer );
+		
+		final Graphics2D g = image.createGraphics();
+		try 
+		{
+			for ( Rectangle r : getDirtyRegions() ) {
+				g.drawImage( intermediateBuffer.getImage() , r.x , r.y , r.x + r.width , r.y + r.height , 
+						r.x , r.y , r.x + r.width , r.y + r.height , null );
+			}
+		} finally {
+			g.dispose();
+		}
+	}
+	
+	/**
+	 * Renders into a frame buffer.
+	 */
+	public void render(FrameBuffer frame) 
+	{
+		if ( frameTimer != null ) {
+			frameTimer.beginStage();
+		}
+		final long start = System.nanoTime();
+		final boolean renderAll = compositor.beginFrame( frame );
+		
+		// render walls, this also clears the background
+		final double scale = resolutionScaler != null ? resolutionScaler.getScale() : 1;
+		// a view with reprojected columns gets rendered once more after the player stopped, see ColumnRenderer
+		final boolean renderView = viewChanged() || renderAll || scale != lastScale || columnRenderer.getReprojectedColumnCount() > 0;
+		if ( renderView ) 
+		{
+			lastScale = scale;
+			renderView( frame , scale );
+			compositor.viewRendered();
+			endStage( FrameStage.WALLS );
+		}
+		
+		if ( renderRadar ) 
+		{
+			final int radarWidth = (int) (frame.width*0.2);
+			final int radarHeight = (int) (frame.width*0.2);
+			
+			final int x0 = frame.width - radarWidth -10;
+			final int y0 = 20;
+			
+			final Rectangle r = new Rectangle( 0 , 0 , radarWidth , radarHeight );
+			if ( radarWidth > 0 && ( renderAll || radarRenderer.needsRender( r , backgroundColor ) ) ) 
+			{
+				final FrameBuffer layer = compositor.getRadarLayer( radarWidth , radarHeight );
+				radarRenderer.render( r , layer.getGraphics() , backgroundColor ) ;
+				compositor.radarRendered( x0 , y0 );
+				endStage( FrameStage.RADAR );
+			}
+		}
+		
+		if ( renderHud ) 
+		{
+			final String[] lines = hudLines();
+			if ( renderAll || ! Arrays.equals( lines , lastHudLines ) ) 
+			{
+				lastHudLines = lines;
+				compositor.hudRendered( renderHud( compositor.beginHud() , lines ) );
+				endStage( FrameStage.HUD );
+			}
+		}
+		compositor.compose();
+		
+		// frames that only update radar or HUD are too cheap to tell anything about the resolution
+		if ( renderView && resolutionScaler != null ) {
+			resolutionScaler.record( System.nanoTime() - start );
+		}
+	}
+	
+	private void renderView(FrameBuffer frame,double scale) 
+	{
+		FrameBuffer target = frame;
+		if ( scale != 1 ) 
+		{
+			final int width = ResolutionScaler.scale( frame.width , scale );
+			final int height = ResolutionScaler.scale( frame.height , scale );
+			if ( scaledView == null || ! scaledView.hasSize( width , height ) ) 
+			{
+				if ( scaledView != null ) {
+					scaledView.dispose();
+				}
+				scaledView = new FrameBuffer( width , height );
+			}
+			target = scaledView;
+		}
+		
+		if ( columns == null || ! columns.hasWidth( target.width ) ) {
+			columns = new ColumnBuffer( target.width );
+		}
+		columnRenderer.render( player , target , columns , backgroundColor.getRGB() );
+		if ( target != frame ) {
+			target.scaleTo( frame );
+		}
+	}
+	
+	/*
+	 * Returns whether the player moved or the map changed since the last call.
+	 */
+	private boolean viewChanged() 
+	{
+		final long modificationCount = tileManager.getModificationCount();
+		if ( player.position.x == lastX && player.position.y == lastY && player.heading == lastHeading && 
+			 player.z == lastZ && player.score == lastScore && modificationCount == lastModificationCount ) 
+		{
+			return false;
+		}
+		lastX = player.position.x;
+		lastY = player.position.y;
+		lastHeading = player.heading;
+		lastZ = player.z;
+		lastScore = player.score;
+		lastModificationCount = modificationCount;
+		return true;
+	}
+	
+	private void endStage(FrameStage stage) 
+	{
+		if ( frameTimer != null ) {
+			frameTimer.endStage( stage );
+		}
+	}
+	
+	private String[] hudLines() 
+	{
+		final TileId tileId = tileManager.getTileId( player.position );
+		final String[] lines = new String[ frameTimer != null ? 6 : 5 ];
+		lines[0] = "Score:"+ player.score;
+		lines[1] = "FPS:"+ decimalFormat.format( fps ) + ( lastScale != 1 ? " | resolution "+(int) Math.round( lastScale * 100 )+"%" : "" );
+		lines[2] = "Player position: "+player.position+" @ tile "+tileId.x+" , "+tileId.y;
+		lines[3] = "Player heading : "+player.direction;
+		// live cache statistics are available through JMX
+		lines[4] = "Tiles: "+tileManager.getCachedTileCount()+" cached";
+		if ( frameTimer != null ) 
+		{
+			final long now = System.nanoTime();
+			if ( frameTimeLine == null || now - frameTimeLineNanos >= FRAME_TIME_REFRESH_NANOS ) 
+			{
+				final Histogram frameTimes = frameTimer.getMetrics().getFrameTimeHistogram();
+				frameTimeLine = "Frame time: p50 "+millis( frameTimes.getPercentile( 50 ) )+" ms | p99 "+
+						millis( frameTimes.getPercentile( 99 ) )+" ms | max "+millis( frameTimes.getMax() )+" ms";
+				frameTimeLineNanos = now;
+			}
+			lines[5] = frameTimeLine;
+		}
+		return lines;
+	}
+	
+	/*
+	 * Draws the HUD and returns its bounding box.
+	 */
+	private Rectangle renderHud(Graphics2D g,String[] lines) 
+	{
+		g.setColor(Color.BLACK);
+		final FontMetrics metrics = g.getFontMetrics();
+		
+		Rectangle bounds = null;
+		int y = 15;
+		for ( String line : lines ) 
+		{
+			g.drawString( line , 10 , y );
+			// leave some room for glyphs that extend beyond their advance
+			final Rectangle r = new Rectangle( 8 , y - metrics.getAscent() , metrics.stringWidth( line ) + 4 , metrics.getHeight() );
+			bounds = bounds == null ? r : bounds.union( r );
+			y+=15;
+		}
+		return bounds != null ? bounds : new Rectangle();
+	}
+	
+	private String millis(long nanos) {
+		return decimalFormat.format( nanos / 1_000_000d );
+	}
+	
+	public void dispose() 
+	{
+		columnRenderer.dispose();
+		compositor.dispose();
+		if ( intermediateBuffer != null ) {
+			intermediateBuffer.dispose();
+			intermediateBuffer = null;
+		}
+		if ( wrappedBuffer != null ) {
+			wrappedBuffer.dispose();
+			wrappedBuffer = null;
+		}
+		if ( scaledView != null ) {
+			scaledView.dispose();
+			scaledView = null;
+		}
+	}
+}
@@ -0,0 +1,329 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Replays an {@link InputTrace} headlessly and reports frame time percentiles.
+ *
+ * Every frame is split into simulation (applying input, moving the player, consuming pills)
+ * and rendering (3D view, radar and HUD, see {@link RenderEngine}). Tiles are generated
+ * synchronously with a fixed seed, so every run does exactly the same work.
+ *
+ * Usage:
+ * <pre>
+ * java -cp raycast.jar de.codesourcery.raycast.ReplayBenchmark [-trace &lt;file&gt;] [-frames &lt;count&gt;] [-width &lt;pixels&gt;] [-height &lt;pixels&gt;] 
+ *      [-seed &lt;seed&gt;] [-threads &lt;render threads&gt;] [-runs &lt;count&gt;] [-textures true|false]
+ *      [-floor true|false] [-sprites true|false] [-fog true|false] [-lighting &lt;min. brightness&gt;]
+ *      [-budget &lt;frame time budget in ms&gt;] [-temporal true|false]
+ *      [-tracing true|false] [-vector true|false]
+ * </pre>
+ * Without a trace file, a synthetic trace with the given number of frames is replayed.
+ * Wall tracing takes precedence over vector casting if both are enabled.
+ */
+public class ReplayBenchmark 
+{
+	private static final int TILE_SIZE = 25;
+	private static final int MAX_RENDER_DISTANCE = 20;
+	
+	private final InputTrace trace;
+	private final int width;
+	private final int height;
+	private final long seed;
+	private final int renderThreads;
+	private TextureAtlas textures;
+	private boolean floorCasting;
+	private boolean renderSprites;
+	private boolean renderDistanceFog;
+	private double minBrightness = 1;
+	private long frameTimeBudgetNanos;
+	private boolean temporalReprojection;
+	private boolean wallTracing;
+	private boolean vectorCasting;
+	
+	/**
+	 * Frame times of one replay, in nanoseconds.
+	 */
+	public static final class Result 
+	{
+		public final long[] simulationTimes;
+		public final long[] renderTimes;
+		public final long[] frameTimes;
+		
+		// final player state, used to verify replays are deterministic
+		public final Vec2d finalPosition;
+		public final double finalHeading;
+		public final int finalScore;
+		
+		protected Result(long[] simulationTimes,long[] renderTimes,Player player) 
+		{
+			this.simulationTimes = simulationTimes;
+			this.renderTimes = renderTimes;
+			this.frameTimes = new long[ simulationTimes.length ];
+			for ( int i = 0 ; i < frameTimes.length ; i++ ) {
+				frameTimes[i] = simulationTimes[i] + renderTimes[i];
+			}
+			this.finalPosition = new Vec2d( player.position );
+			this.finalHeading = player.heading;
+			this.finalScore = player.score;
+		}
+		
+		@Override
+		public String toString() 
+		{
+			return "Frames: "+frameTimes.length+", final position: "+finalPosition+", heading: "+finalHeading+", score: "+finalScore+"\n"+
+				   format( "simulation" , simulationTimes )+"\n"+
+				   format( "render" , renderTimes )+"\n"+
+				   format( "total" , frameTimes );
+		}
+		
+		private static String format(String label,long[] times) 
+		{
+			final long[] sorted = times.clone();
+			Arrays.sort( sorted );
+			return String.format( Locale.ROOT , "%-10s p50: %8.3f ms | p95: %8.3f ms | p99: %8.3f ms | max: %8.3f ms" , 
+					label , millis( percentile( sorted , 50 ) ) , millis( percentile( sorted , 95 ) ) , 
+					millis( percentile( sorted , 99 ) ) , millis( sorted.length == 0 ? 0 : sorted[ sorted.length - 1 ] ) );
+		}
+		
+		private static double millis(long nanos) {
+			return nanos / 1_000_000d;
+		}
+	}
+	
+	public ReplayBenchmark(InputTrace trace,int width,int height,long seed,int renderThreads) 
+	{
+		this.trace = trace;
+		this.width = width;
+		this.height = height;
+		this.seed = seed;
+		this.renderThreads = renderThreads;
+	}
+	
+	/**
+	 * Sets the wall textures to render with.
+	 * 
+	 * @param textures textures, <code>null</code> renders flat colors
+	 */
+	public void setTextures(TextureAtlas textures) {
+		this.textures = textures;
+	}
+	
+	public void setFloorCasting(boolean floorCasting) {
+		this.floorCasting = floorCasting;
+	}
+	
+	public void setRenderSprites(boolean renderSprites) {
+		this.renderSprites = renderSprites;
+	}
+	
+	public void setRenderDistanceFog(boolean renderDistanceFog) {
+		this.renderDistanceFog = renderDistanceFog;
+	}
+	
+	/**
+	 * @param minBrightness brightness at the max. render distance (0...1), 1 disables lighting
+	 */
+	public void setLighting(double minBrightness) {
+		this.minBrightness = minBrightness;
+	}
+	
+	/**
+	 * @param budgetNanos frame time budget for dynamic resolution scaling, 0 always renders at full resolution
+	 * @see RenderEngine#setFrameTimeBudget(long)
+	 */
+	public void setFrameTimeBudget(long budgetNanos) {
+		this.frameTimeBudgetNanos = budgetNanos;
+	}
+	
+	public void setTemporalReprojection(boolean temporalReprojection) {
+		this.temporalReprojection = temporalReprojection;
+	}
+	
+	public void setWallTracing(boolean wallTracing) {
+		this.wallTracing = wallTracing;
+	}
+	
+	public void setVectorCasting(boolean vectorCasting) {
+		this.vectorCasting = vectorCasting;
+	}
+	
+	/**
+	 * Returns the p-th percentile (nearest rank) of sorted values.
+	 * 
+	 * @param sorted values in ascending order
+	 * @param p percentile, 0...100
+	 */
+	public static long percentile(long[] sorted,double p) 
+	{
+		if ( sorted.length == 0 ) {
+			return 0;
+		}
+		final int rank = (int) Math.ceil( p / 100.0 * sorted.length );
+		return sorted[ Math.max( 0 , Math.min( sorted.length , rank ) - 1 ) ];
+	}
+	
+	/**
+	 * Replays the trace once, starting with an empty tile cache.
+	 */
+	public Result run() 
+	{
+		final TileManager tileManager = new TileManager( new TileFactory( TILE_SIZE , seed ) );
+		final GameLogic gameLogic = new GameLogic();
+		final Player player = new Player( tileManager.findStartingPosition( gameLogic ) ) 
+		{
+			@Override
+			protected boolean canMoveTo(double newX, double newY) 
+			{
+				return isFree( newX , position.y ) &&
+						isFree( position.x, newY ) &&
+						isFree( newX , newY );
+			}
+			
+			private boolean isFree(double x,double y) {
+				return gameLogic.canPlayerMoveTo( tileManager.getCellAt( x ,y ) );
+			}
+		};
+		gameLogic.consumePill( player , tileManager.getCellAt( player.position ) );
+		
+		final RenderEngine renderEngine = new RenderEngine( tileManager , player , MAX_RENDER_DISTANCE , renderThreads , renderDistanceFog );
+		renderEngine.setTextures( textures );
+		renderEngine.setFloorCasting( floorCasting );
+		renderEngine.setRenderSprites( renderSprites );
+		renderEngine.setLighting( minBrightness );
+		renderEngine.setFrameTimeBudget( frameTimeBudgetNanos );
+		renderEngine.setTemporalReprojection( temporalReprojection );
+		renderEngine.setWallTracing( wallTracing );
+		renderEngine.setVectorCasting( vectorCasting );
+		final RadarRenderer radarRenderer = renderEngine.getRadarRenderer();
+		final FrameBuffer frame = new FrameBuffer( width , height );
+		
+		final int frameCount = trace.size();
+		final long[] simulationTimes = new long[ frameCount ];
+		final long[] renderTimes = new long[ frameCount ];
+		try 
+		{
+			int i = 0;
+			for ( InputTrace.Frame traceFrame : trace.getFrames() ) 
+			{
+				final long start = System.nanoTime();
+				
+				traceFrame.apply( player , radarRenderer );
+				gameLogic.consumePill( player , tileManager.getCellAt( player.position ) );
+				
+				final long simulated = System.nanoTime();
+				
+				renderEngine.render( frame );
+				
+				final long end = System.nanoTime();
+				simulationTimes[i] = simulated - start;
+				renderTimes[i] = end - simulated;
+				i++;
+			}
+		} 
+		finally 
+		{
+			renderEngine.dispose();
+			frame.dispose();
+		}
+		return new Result( simulationTimes , renderTimes , player );
+	}
+	
+	public static void main(String[] args) throws IOException 
+	{
+		System.setProperty( "java.awt.headless" , "true" );
+		
+		String traceFile = null;
+		int frames = 3600;
+		int width = 640;
+		int height = 480;
+		long seed = 0;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int runs = 3;
+		boolean textures = true;
+		boolean floor = true;
+		boolean sprites = true;
+		boolean fog = true;
+		double lighting = 1.0;
+		double budget = 0;
+		boolean temporal = false;
+		boolean tracing = false;
+		boolean vector = false;
+		
+		for ( int i = 0 ; i < args.length ; i++ ) 
+		{
+			final String arg = args[i];
+			if ( i + 1 >= args.length ) {
+				throw new IllegalArgumentException("Missing value for "+arg);
+			}
+			final String value = args[++i];
+			switch( arg ) 
+			{
+				case "-trace":   traceFile = value; break;
+				case "-frames":  frames = Integer.parseInt( value ); break;
+				case "-width":   width = Integer.parseInt( value ); break;
+				case "-height":  height = Integer.parseInt( value ); break;
+				case "-seed":    seed = Long.parseLong( value ); break;
+				case "-threads": threads = Integer.parseInt( value ); break;
+				case "-runs":    runs = Integer.parseInt( value ); break;
+				case "-textures": textures = Boolean.parseBoolean( value ); break;
+				case "-floor":   floor = Boolean.parseBoolean( value ); break;
+				case "-sprites": sprites = Boolean.parseBoolean( value ); break;
+				case "-fog":     fog = Boolean.parseBoolean( value ); break;
+				case "-lighting": lighting = Double.parseDouble( value ); break;
+				case "-budget":  budget = Double.parseDouble( value ); break;
+				case "-temporal": temporal = Boolean.parseBoolean( value ); break;
+				case "-tracing": tracing = Boolean.parseBoolean( value ); break;
+				case "-vector":  vector = Boolean.parseBoolean( value ); break;
+				default:
+					throw new IllegalArgumentException("Unknown option: "+arg);
+			}
+		}
+		
+		final InputTrace trace = traceFile != null ? InputTrace.read( Paths.get( traceFile ) ) : InputTrace.synthetic( frames );
+		final ReplayBenchmark benchmark = new ReplayBenchmark( trace , width , height , seed , threads );
+		if ( textures ) {
+			benchmark.setTextures( TextureAtlas.createDefault() );
+		}
+		benchmark.setFloorCasting( floor );
+		benchmark.setRenderSprites( sprites );
+		benchmark.setRenderDistanceFog( fog );
+		benchmark.setLighting( lighting );
+		benchmark.setFrameTimeBudget( (long) ( budget * 1_000_000 ) );
+		benchmark.setTemporalReprojection( temporal );
+		benchmark.setWallTracing( tracing );
+		benchmark.setVectorCasting( vector );
+		if ( vector && tracing ) {
+			System.out.println("Ignoring -vector true, wall tracing takes precedence");
+		} else if ( vector && ! VectorSupport.isAvailable() ) {
+			System.out.println("Vector API not available, casting rays one at a time");
+		}
+		
+		System.out.println("Replaying "+( traceFile != null ? traceFile : "synthetic trace" )+" ("+trace.size()+" frames) at "+
+				width+"x"+height+", seed "+seed+", "+threads+" render threads"+( textures ? ", textured" : "" )+( floor ? ", floor casting" : "" )+( sprites ? ", sprites" : "" )+
+				( fog ? ", fog" : "" )+( lighting < 1 ? ", lighting "+lighting : "" )+
+				( budget > 0 ? ", frame budget "+budget+" ms" : "" )+( temporal ? ", temporal reprojection" : "" )+( tracing ? ", wall tracing" : "" )+( vector && ! tracing ? ", vector casting" : "" ) );
+		for ( int run = 1 ; run <= runs ; run++ ) 
+		{
+			final Result result = benchmark.run();
+			System.out.println("\n=== Run "+run+" of "+runs+" ===");
+			System.out.println( result );
+		}
+	}
+}
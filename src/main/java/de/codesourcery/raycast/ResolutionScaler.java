@@ -0,0 +1,111 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+
+/**
+ * Picks the resolution to render the 3D view at so that frames stay within a time budget.
+ *
+ * Frame times are averaged over a window of frames. If the average exceeds the budget, the next
+ * lower resolution gets picked. If the average suggests that the next higher resolution would fit
+ * into the budget with some headroom to spare (assuming that the render time grows with the
+ * number of pixels), the resolution is raised again. The window starts over after every change,
+ * so each resolution gets measured before the next decision is made.
+ *
+ * Instances are not thread-safe.
+ */
+public final class ResolutionScaler
+{
+	/**
+	 * Factors applied to width and height, from full resolution down to every third column and row.
+	 */
+	public static final double[] SCALES = { 1.0 , 0.75 , 0.5 , 1/3d };
+
+	// number of frames to average
+	private static final int WINDOW = 15;
+
+	// only raise the resolution if the estimated frame time stays below this fraction of the budget
+	private static final double HEADROOM = 0.8;
+
+	private final long budgetNanos;
+
+	private int level;
+	private long sum;
+	private int count;
+
+	/**
+	 * Create instance.
+	 *
+	 * @param budgetNanos max. time to spend on a frame, in nanoseconds
+	 */
+	public ResolutionScaler(long budgetNanos)
+	{
+		if ( budgetNanos < 1 ) {
+			throw new IllegalArgumentException("Budget must be >= 1, was: "+budgetNanos);
+		}
+		this.budgetNanos = budgetNanos;
+	}
+
+	/**
+	 * Records how long a frame rendered at the current scale took.
+	 *
+	 * @param nanos
+	 * @return <code>true</code> if the scale changed
+	 */
+	public boolean record(long nanos)
+	{
+		sum += nanos;
+		if ( ++count < WINDOW ) {
+			return false;
+		}
+		final double average = sum / (double) count;
+		sum = 0;
+		count = 0;
+
+		if ( average > budgetNanos && level < SCALES.length - 1 ) {
+			level++;
+			return true;
+		}
+		if ( level > 0 )
+		{
+			final double ratio = SCALES[ level - 1 ] / SCALES[ level ];
+			if ( average * ratio * ratio < budgetNanos * HEADROOM ) {
+				level--;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the factor to apply to width and height of the view.
+	 */
+	public double getScale() {
+		return SCALES[ level ];
+	}
+
+	public long getBudgetNanos() {
+		return budgetNanos;
+	}
+
+	/**
+	 * Scales a width or height.
+	 *
+	 * @return scaled size, at least 1
+	 */
+	public static int scale(int size,double scale) {
+		return Math.max( 1 , (int) Math.ceil( size * scale ) );
+	}
+}
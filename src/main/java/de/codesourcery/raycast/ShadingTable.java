@@ -0,0 +1,192 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+
+/**
+ * Lighting and fog, precomputed for a fixed number of distance buckets.
+ *
+ * Surfaces get darker with distance (down to a minimum brightness at the max. render distance)
+ * and, if fog is enabled, are blended towards the fog color. The tables map
+ * <ul>
+ * <li>palette index, side and distance bucket to the final wall color and</li>
+ * <li>each color channel value and distance bucket to its final value, for textures and sprites.</li>
+ * </ul>
+ * All colors are opaque, blending happens inside the frame buffer so no translucent
+ * images need to be composited.
+ *
+ * {@link #update(int)} needs to be called before rendering a frame, afterwards the tables
+ * may be read by any number of threads.
+ */
+public final class ShadingTable
+{
+	public static final int BUCKETS = 64;
+
+	// per bucket: red, green and blue channel tables (256 entries each), already shifted into place
+	public static final int CHANNEL_TABLE_SIZE = 3*256;
+
+	private final double bucketsPerUnit;
+	private final double bucketSize;
+	private final int maxRenderDistance;
+	private final boolean fog;
+	private final int minBrightness;
+
+	private final int[] paletteColors = new int[ BUCKETS * Palette.MAX_COLORS * 2 ];
+	private final int[] channels = new int[ BUCKETS * CHANNEL_TABLE_SIZE ];
+
+	// state the tables have been built for
+	private int fogColor;
+	private int paletteSize = -1;
+
+	/**
+	 * Create instance.
+	 *
+	 * @param maxRenderDistance
+	 * @param fog whether to blend distant surfaces towards the fog color
+	 * @param minBrightness brightness at the max. render distance (0...1), 1 disables lighting
+	 */
+	public ShadingTable(int maxRenderDistance,boolean fog,double minBrightness)
+	{
+		if ( minBrightness < 0 || minBrightness > 1 ) {
+			throw new IllegalArgumentException("Brightness must be in [0,1], was: "+minBrightness);
+		}
+		this.maxRenderDistance = maxRenderDistance;
+		this.fog = fog;
+		this.minBrightness = (int) Math.round( minBrightness * 256 );
+		this.bucketsPerUnit = BUCKETS / (double) maxRenderDistance;
+		this.bucketSize = maxRenderDistance / (double) BUCKETS;
+	}
+
+	/**
+	 * Rebuilds the tables if the fog color or the palette changed since the last call.
+	 *
+	 * Not thread-safe, must not be called while other threads read the tables.
+	 *
+	 * @param fogColor packed RGB color, the alpha channel is ignored
+	 */
+	public void update(int fogColor)
+	{
+		final int size = Palette.size();
+		if ( fogColor == this.fogColor && size == paletteSize ) {
+			return;
+		}
+		this.fogColor = fogColor;
+		this.paletteSize = size;
+
+		for ( int bucket = 0 ; bucket < BUCKETS ; bucket++ )
+		{
+			// shade every bucket like its center
+			final double distance = ( bucket + 0.5 ) * bucketSize;
+			final int brightness = 256 - (int) ( ( 256 - minBrightness ) * distance / maxRenderDistance );
+			int alpha = 255;
+			if ( fog ) {
+				alpha = 255 - (int) ( 255 * distance / maxRenderDistance );
+				alpha = alpha > 255 ? 255 : alpha < 0 ? 0 : alpha;
+			}
+
+			final int offset = bucket * CHANNEL_TABLE_SIZE;
+			for ( int channel = 0 ; channel < 3 ; channel++ )
+			{
+				final int shift = 16 - channel*8;
+				final int fogValue = ( fogColor >> shift ) & 0xff;
+				for ( int value = 0 ; value < 256 ; value++ )
+				{
+					final int lit = ( value * brightness ) >> 8;
+					final int result = ( lit * alpha + fogValue * ( 255 - alpha ) ) / 255;
+					channels[ offset + channel*256 + value ] = result << shift;
+				}
+			}
+
+			for ( int index = 1 ; index < size ; index++ ) {
+				paletteColors[ paletteIndex( index , false , bucket ) ] = shade( Palette.lightARGB( index ) , bucket );
+				paletteColors[ paletteIndex( index , true , bucket ) ] = shade( Palette.darkARGB( index ) , bucket );
+			}
+		}
+	}
+
+	/**
+	 * Returns whether shading leaves all colors unchanged, callers may skip shading altogether then.
+	 */
+	public boolean isIdentity() {
+		return ! fog && minBrightness >= 256;
+	}
+
+	public boolean isFog() {
+		return fog;
+	}
+
+	/**
+	 * Returns the bucket for a distance.
+	 */
+	public int bucket(double distance)
+	{
+		final int bucket = (int) ( distance * bucketsPerUnit );
+		return bucket < 0 ? 0 : bucket >= BUCKETS ? BUCKETS - 1 : bucket;
+	}
+
+	private static int paletteIndex(int paletteIndex,boolean dark,int bucket) {
+		return ( ( bucket * Palette.MAX_COLORS + paletteIndex ) << 1 ) | ( dark ? 1 : 0 );
+	}
+
+	/**
+	 * Returns the final color of a wall.
+	 *
+	 * @param paletteIndex
+	 * @param dark whether to use the dark variant
+	 * @param bucket
+	 * @return opaque ARGB color
+	 */
+	public int paletteColor(int paletteIndex,boolean dark,int bucket) {
+		return paletteColors[ paletteIndex( paletteIndex , dark , bucket ) ];
+	}
+
+	/**
+	 * Returns the channel tables, see {@link #channelOffset(int)}.
+	 */
+	public int[] channels() {
+		return channels;
+	}
+
+	/**
+	 * Returns the offset of a bucket's channel tables in {@link #channels()}.
+	 *
+	 * The shaded color of <code>argb</code> is
+	 * <code>0xff000000 | channels[offset+red] | channels[offset+256+green] | channels[offset+512+blue]</code>.
+	 */
+	public static int channelOffset(int bucket) {
+		return bucket * CHANNEL_TABLE_SIZE;
+	}
+
+	/**
+	 * Shades a color.
+	 *
+	 * @param argb
+	 * @param bucket
+	 * @return opaque ARGB color
+	 */
+	public int shade(int argb,int bucket) {
+		return shade( argb , channels , channelOffset( bucket ) );
+	}
+
+	/**
+	 * Shades a color using a bucket's channel tables.
+	 */
+	public static int shade(int argb,int[] channels,int offset)
+	{
+		return 0xff000000 | channels[ offset + ( ( argb >> 16 ) & 0xff ) ] |
+				channels[ offset + 256 + ( ( argb >> 8 ) & 0xff ) ] |
+				channels[ offset + 512 + ( argb & 0xff ) ];
+	}
+}
@@ -0,0 +1,268 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+
+import java.util.Arrays;
+
+/**
+ * Draws the pills as billboards, small sprites that always face the camera.
+ *
+ * Rendering a frame takes two steps:
+ * <ol>
+ * <li>{@link #collect(Player, RayTable, int, int)} finds all pills within the view frustum and sorts them by depth,</li>
+ * <li>{@link #draw(FrameBuffer, ColumnBuffer, int, int, ShadingTable)} draws them back to front, once the walls
+ * of the same columns have been cast. Columns hidden by a wall (see {@link ColumnBuffer#perpWallDist})
+ * are skipped.</li>
+ * </ol>
+ * Drawing may be split into column strips that are processed by different threads, collecting has to be done
+ * by a single thread. Sprites are kept in primitive arrays that are reused across frames,
+ * no objects are allocated per sprite.
+ */
+public final class SpriteRenderer
+{
+	public static final int DEFAULT_PILL_COLOR = 0xffffd040;
+
+	// size of a pill and height of its center above the floor, in cells
+	private static final double PILL_RADIUS = 0.06;
+	private static final double PILL_HEIGHT = 0.1;
+
+	// sprites closer than this are not drawn
+	private static final double NEAR_PLANE = 0.2;
+
+	private static final int SPRITE_SIZE = 16;
+
+	private final TileCursor cursor;
+	private final int maxRenderDistance;
+
+	// pill sprite, column by column
+	private final int[] texels = new int[ SPRITE_SIZE*SPRITE_SIZE ];
+
+	private int count;
+	// screen position and size and depth of each sprite
+	private double[] centerX = new double[ 64 ];
+	private double[] centerY = new double[ 64 ];
+	private double[] radiusX = new double[ 64 ];
+	private double[] radiusY = new double[ 64 ];
+	private double[] depth = new double[ 64 ];
+	// depth (upper 32 bits) and sprite index (lower 32 bits), ascending
+	private long[] order = new long[ 64 ];
+
+	public SpriteRenderer(TileManager tileManager,int maxRenderDistance)
+	{
+		this.cursor = tileManager.newNonBlockingCursor();
+		this.maxRenderDistance = maxRenderDistance;
+
+		final int[] ball = ProceduralTextures.ball( SPRITE_SIZE , DEFAULT_PILL_COLOR );
+		for ( int u = 0 ; u < SPRITE_SIZE ; u++ ) {
+			for ( int v = 0 ; v < SPRITE_SIZE ; v++ ) {
+				texels[ u*SPRITE_SIZE + v ] = ball[ v*SPRITE_SIZE + u ];
+			}
+		}
+	}
+
+	/**
+	 * Finds all pills the player can see and sorts them by depth.
+	 *
+	 * @param player
+	 * @param rays ray setup for the current screen width and player heading
+	 * @param w screen width
+	 * @param h screen height
+	 * @return number of sprites to draw
+	 */
+	public int collect(Player player,RayTable rays,int w,int h)
+	{
+		count = 0;
+
+		final double posX = player.position.x;
+		final double posY = player.position.y;
+		final double dirX = rays.dirX;
+		final double dirY = rays.dirY;
+		final double planeX = rays.planeX;
+		final double planeY = rays.planeY;
+		final double invDet = 1.0 / ( planeX * dirY - dirX * planeY );
+		final double planeLength = Math.sqrt( planeX*planeX + planeY*planeY );
+		final double eyeHeight = FloorRenderer.eyeHeight( player );
+
+		// pills further away would be smaller than a pixel
+		final double maxDepth = Math.min( maxRenderDistance , PILL_RADIUS * h );
+
+		// bounding box of the view frustum, a triangle
+		final double leftX = posX + ( dirX - planeX ) * maxDepth;
+		final double leftY = posY + ( dirY - planeY ) * maxDepth;
+		final double rightX = posX + ( dirX + planeX ) * maxDepth;
+		final double rightY = posY + ( dirY + planeY ) * maxDepth;
+		final int minX = (int) Math.floor( Math.min( posX , Math.min( leftX , rightX ) ) );
+		final int maxX = (int) Math.floor( Math.max( posX , Math.max( leftX , rightX ) ) );
+		final int minY = (int) Math.floor( Math.min( posY , Math.min( leftY , rightY ) ) );
+		final int maxY = (int) Math.floor( Math.max( posY , Math.max( leftY , rightY ) ) );
+
+		for ( int y = minY ; y <= maxY ; y++ )
+		{
+			cursor.moveTo( minX , y );
+			for ( int x = minX ; x <= maxX ; x++ )
+			{
+				if ( x > minX ) {
+					cursor.stepX( 1 );
+				}
+				if ( ! cursor.hasPill() ) {
+					continue;
+				}
+
+				// transform to camera space, see RayTable
+				final double spriteX = x + 0.5 - posX;
+				final double spriteY = y + 0.5 - posY;
+				final double transformY = invDet * ( -planeY * spriteX + planeX * spriteY ); // depth
+				if ( transformY < NEAR_PLANE || transformY > maxDepth ) {
+					continue;
+				}
+				final double transformX = invDet * ( dirY * spriteX - dirX * spriteY );
+
+				final double screenX = ( w / 2.0 ) * ( 1 + transformX / transformY );
+				final double rx = PILL_RADIUS * w / ( 2 * planeLength * transformY );
+				if ( screenX + rx < 0 || screenX - rx >= w ) {
+					continue;
+				}
+				add( screenX , h / 2.0 + h * ( eyeHeight - PILL_HEIGHT ) / transformY , rx , PILL_RADIUS * h / transformY , transformY );
+			}
+		}
+
+		sort( order , count );
+		return count;
+	}
+
+	/*
+	 * In-place heap sort, Arrays.sort() may allocate when the input is partially sorted
+	 * (which is usually the case, sprites are collected row by row).
+	 */
+	private static void sort(long[] a,int n)
+	{
+		for ( int i = n/2 - 1 ; i >= 0 ; i-- ) {
+			siftDown( a , i , n );
+		}
+		for ( int end = n - 1 ; end > 0 ; end-- )
+		{
+			final long tmp = a[0];
+			a[0] = a[end];
+			a[end] = tmp;
+			siftDown( a , 0 , end );
+		}
+	}
+
+	private static void siftDown(long[] a,int i,int n)
+	{
+		final long value = a[i];
+		int child;
+		while ( ( child = 2*i + 1 ) < n )
+		{
+			if ( child + 1 < n && a[child+1] > a[child] ) {
+				child++;
+			}
+			if ( a[child] <= value ) {
+				break;
+			}
+			a[i] = a[child];
+			i = child;
+		}
+		a[i] = value;
+	}
+
+	private void add(double screenX,double screenY,double rx,double ry,double z)
+	{
+		if ( count == depth.length )
+		{
+			final int newLength = count*2;
+			centerX = Arrays.copyOf( centerX , newLength );
+			centerY = Arrays.copyOf( centerY , newLength );
+			radiusX = Arrays.copyOf( radiusX , newLength );
+			radiusY = Arrays.copyOf( radiusY , newLength );
+			depth = Arrays.copyOf( depth , newLength );
+			order = Arrays.copyOf( order , newLength );
+		}
+		centerX[count] = screenX;
+		centerY[count] = screenY;
+		radiusX[count] = rx;
+		radiusY[count] = ry;
+		depth[count] = z;
+		// positive floats sort like their bit patterns
+		order[count] = (long) Float.floatToIntBits( (float) z ) << 32 | count;
+		count++;
+	}
+
+	public int getSpriteCount() {
+		return count;
+	}
+
+	/**
+	 * Draws all sprites collected by the last call to {@link #collect(Player, RayTable, int, int)}, clipped
+	 * to columns <code>[fromX,toX)</code>.
+	 *
+	 * @param frame
+	 * @param columns walls of the current frame, at least columns <code>[fromX,toX)</code> need to have been cast
+	 * @param fromX
+	 * @param toX
+	 * @param shading lighting and fog, <code>null</code> draws sprites unchanged
+	 */
+	public void draw(FrameBuffer frame,ColumnBuffer columns,int fromX,int toX,ShadingTable shading)
+	{
+		final int[] pixels = frame.pixels;
+		final int w = frame.width;
+		final int h = frame.height;
+		final double[] wallDist = columns.perpWallDist;
+
+		// back to front
+		for ( int k = count-1 ; k >= 0 ; k-- )
+		{
+			final int i = (int) order[k];
+			final double z = depth[i];
+			final double left = centerX[i] - radiusX[i];
+			final double top = centerY[i] - radiusY[i];
+
+			final int x0 = Math.max( fromX , (int) Math.ceil( left ) );
+			final int x1 = Math.min( toX , (int) Math.ceil( centerX[i] + radiusX[i] ) );
+			final int y0 = Math.max( 0 , (int) Math.ceil( top ) );
+			final int y1 = Math.min( h , (int) Math.ceil( centerY[i] + radiusY[i] ) );
+			if ( x0 >= x1 || y0 >= y1 ) {
+				continue;
+			}
+
+			final int[] channels = shading != null ? shading.channels() : null;
+			final int channelOffset = shading != null ? ShadingTable.channelOffset( shading.bucket( z ) ) : 0;
+
+			// texel coordinates in 16.16 fixed point
+			final double scaleX = SPRITE_SIZE * 65536.0 / ( 2 * radiusX[i] );
+			final double scaleY = SPRITE_SIZE * 65536.0 / ( 2 * radiusY[i] );
+			final int stepU = (int) scaleX;
+			final int stepV = (int) scaleY;
+			final int v0 = (int) ( ( y0 - top ) * scaleY );
+			int u = (int) ( ( x0 - left ) * scaleX );
+			for ( int x = x0 ; x < x1 ; x++ , u += stepU )
+			{
+				if ( z >= wallDist[x] ) {
+					continue;
+				}
+				final int column = Math.min( SPRITE_SIZE-1 , u >>> 16 ) * SPRITE_SIZE;
+				int v = v0;
+				for ( int y = y0 , ptr = x + y0 * w ; y < y1 ; y++ , ptr += w , v += stepV )
+				{
+					final int texel = texels[ column + Math.min( SPRITE_SIZE-1 , v >>> 16 ) ];
+					if ( ( texel >>> 24 ) != 0 ) {
+						pixels[ptr] = channels == null ? texel : ShadingTable.shade( texel , channels , channelOffset );
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,312 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * All wall textures, their mip levels and their darkened variants packed into a single <code>int[]</code> array.
+ *
+ * Textures are square and their size is a power of two. Every mip level halves the size of the previous level
+ * down to 1x1. Texels are stored column by column (the texel at (u,v) of a level lives at <code>offset + u*levelSize + v</code>)
+ * so drawing a wall column reads consecutive elements.
+ *
+ * Every palette index maps to a texture, see {@link #setTexture(int, int)}.
+ *
+ * Instances are immutable except for the palette mapping and may be shared by all render threads.
+ */
+public final class TextureAtlas
+{
+	public static final int DEFAULT_TEXTURE_SIZE = 64;
+
+	/**
+	 * Texture index for palette entries that are drawn as flat color.
+	 */
+	public static final int NO_TEXTURE = -1;
+
+	public final int textureSize;
+	public final int levels;
+	public final int[] texels;
+
+	private final int textureCount;
+	// offset of each mip level relative to the start of a texture
+	private final int[] levelOffsets;
+	// number of texels per texture (all levels)
+	private final int textureStride;
+
+	private final int[] paletteTextures = new int[ Palette.MAX_COLORS ];
+
+	private volatile int floorTexture = NO_TEXTURE;
+	private volatile int ceilingTexture = NO_TEXTURE;
+
+	/**
+	 * Create instance.
+	 *
+	 * By default, palette index <code>i</code> is mapped to texture <code>(i-1) % textures.length</code>.
+	 *
+	 * @param textureSize size of all textures, must be a power of two
+	 * @param textures ARGB texels of each texture, row by row
+	 */
+	public TextureAtlas(int textureSize,int[]... textures)
+	{
+		if ( textureSize < 1 || Integer.bitCount( textureSize ) != 1 ) {
+			throw new IllegalArgumentException("Texture size must be a power of two, was: "+textureSize);
+		}
+		if ( textures.length == 0 ) {
+			throw new IllegalArgumentException("Need at least one texture");
+		}
+		this.textureSize = textureSize;
+		this.textureCount = textures.length;
+		this.levels = Integer.numberOfTrailingZeros( textureSize ) + 1;
+		this.levelOffsets = new int[ levels ];
+
+		int stride = 0;
+		for ( int level = 0 ; level < levels ; level++ )
+		{
+			levelOffsets[level] = stride;
+			final int size = textureSize >> level;
+			stride += size*size;
+		}
+		this.textureStride = stride;
+		this.texels = new int[ 2 * textureCount * textureStride ];
+
+		for ( int i = 0 ; i < textureCount ; i++ )
+		{
+			if ( textures[i].length != textureSize*textureSize ) {
+				throw new IllegalArgumentException("Texture "+i+" has "+textures[i].length+" texels, expected "+textureSize*textureSize);
+			}
+			final int light = offset( i , false , 0 );
+			final int dark = offset( i , true , 0 );
+			for ( int u = 0 ; u < textureSize ; u++ )
+			{
+				for ( int v = 0 ; v < textureSize ; v++ ) {
+					final int argb = textures[i][ v*textureSize + u ];
+					texels[ light + u*textureSize + v ] = argb;
+					texels[ dark + u*textureSize + v ] = darken( argb );
+				}
+			}
+			for ( int level = 1 ; level < levels ; level++ ) {
+				downsample( offset( i , false , level - 1 ) , offset( i , false , level ) , textureSize >> level );
+				downsample( offset( i , true , level - 1 ) , offset( i , true , level ) , textureSize >> level );
+			}
+		}
+
+		for ( int i = 1 ; i < Palette.MAX_COLORS ; i++ ) {
+			paletteTextures[i] = ( i - 1 ) % textureCount;
+		}
+		paletteTextures[ Palette.EMPTY ] = NO_TEXTURE;
+	}
+
+	/**
+	 * Creates an atlas from images, scaling them to a common size.
+	 *
+	 * @param textureSize
+	 * @param images
+	 */
+	public static TextureAtlas of(int textureSize,BufferedImage... images)
+	{
+		final int[][] textures = new int[ images.length ][];
+		for ( int i = 0 ; i < images.length ; i++ )
+		{
+			BufferedImage image = images[i];
+			if ( image.getWidth() != textureSize || image.getHeight() != textureSize )
+			{
+				final BufferedImage scaled = new BufferedImage( textureSize , textureSize , BufferedImage.TYPE_INT_ARGB );
+				scaled.createGraphics().drawImage( image , 0 , 0 , textureSize , textureSize , null );
+				image = scaled;
+			}
+			textures[i] = image.getRGB( 0 , 0 , textureSize , textureSize , null , 0 , textureSize );
+		}
+		return new TextureAtlas( textureSize , textures );
+	}
+
+	/**
+	 * Loads textures from the classpath.
+	 *
+	 * @param textureSize
+	 * @param resources
+	 * @throws IOException
+	 */
+	public static TextureAtlas load(int textureSize,String... resources) throws IOException
+	{
+		final BufferedImage[] images = new BufferedImage[ resources.length ];
+		for ( int i = 0 ; i < resources.length ; i++ )
+		{
+			try ( InputStream in = TextureAtlas.class.getResourceAsStream( resources[i] ) )
+			{
+				if ( in == null ) {
+					throw new IOException("Texture not found on classpath: "+resources[i]);
+				}
+				images[i] = ImageIO.read( in );
+				if ( images[i] == null ) {
+					throw new IOException("Unsupported image format: "+resources[i]);
+				}
+			}
+		}
+		return of( textureSize , images );
+	}
+
+	/**
+	 * Creates an atlas holding the built-in procedural textures.
+	 *
+	 * @see ProceduralTextures
+	 */
+	public static TextureAtlas createDefault()
+	{
+		final TextureAtlas result = new TextureAtlas( DEFAULT_TEXTURE_SIZE , ProceduralTextures.createAll( DEFAULT_TEXTURE_SIZE ) );
+		result.setFloorTexture( ProceduralTextures.STONE );
+		result.setCeilingTexture( ProceduralTextures.PLANKS );
+		return result;
+	}
+
+	public int getTextureCount() {
+		return textureCount;
+	}
+
+	/**
+	 * Maps a palette index to a texture.
+	 *
+	 * @param paletteIndex
+	 * @param texture texture index or {@link #NO_TEXTURE} to draw walls with this palette index using a flat color
+	 */
+	public void setTexture(int paletteIndex,int texture)
+	{
+		if ( paletteIndex <= Palette.EMPTY || paletteIndex >= Palette.MAX_COLORS ) {
+			throw new IllegalArgumentException("Invalid palette index: "+paletteIndex);
+		}
+		paletteTextures[ paletteIndex ] = checkTextureIndex( texture );
+	}
+
+	/**
+	 * Sets the texture for the floor.
+	 *
+	 * @param texture texture index or {@link #NO_TEXTURE} for a flat color
+	 */
+	public void setFloorTexture(int texture) {
+		this.floorTexture = checkTextureIndex( texture );
+	}
+
+	public int getFloorTexture() {
+		return floorTexture;
+	}
+
+	/**
+	 * Sets the texture for the ceiling.
+	 *
+	 * @param texture texture index or {@link #NO_TEXTURE} for a flat color
+	 */
+	public void setCeilingTexture(int texture) {
+		this.ceilingTexture = checkTextureIndex( texture );
+	}
+
+	public int getCeilingTexture() {
+		return ceilingTexture;
+	}
+
+	private int checkTextureIndex(int texture)
+	{
+		if ( texture != NO_TEXTURE && ( texture < 0 || texture >= textureCount ) ) {
+			throw new IllegalArgumentException("Invalid texture index: "+texture);
+		}
+		return texture;
+	}
+
+	/**
+	 * Returns the texture for a palette index.
+	 *
+	 * @return texture index or {@link #NO_TEXTURE}
+	 */
+	public int getTexture(int paletteIndex) {
+		return paletteTextures[ paletteIndex ];
+	}
+
+	/**
+	 * Returns the mip level to use for a wall that is <code>wallHeight</code> pixels high on screen,
+	 * the level whose texels are closest to one texel per screen pixel without getting blurry.
+	 */
+	public int mipLevel(int wallHeight)
+	{
+		if ( wallHeight >= textureSize ) {
+			return 0;
+		}
+		final int ratio = textureSize / Math.max( 1 , wallHeight );
+		final int level = 31 - Integer.numberOfLeadingZeros( ratio ); // floor(log2(ratio))
+		return level < levels ? level : levels - 1;
+	}
+
+	/**
+	 * Returns the mip level to use if one screen pixel covers <code>texelsPerPixel</code> texels of the full-size texture.
+	 */
+	public int mipLevel(double texelsPerPixel)
+	{
+		if ( texelsPerPixel < 2 ) {
+			return 0;
+		}
+		final int level = 31 - Integer.numberOfLeadingZeros( (int) Math.min( texelsPerPixel , 1 << 30 ) );
+		return level < levels ? level : levels - 1;
+	}
+
+	/**
+	 * Returns the index of texel (0,0) of a mip level in {@link #texels}.
+	 *
+	 * @param texture
+	 * @param dark whether to return the darkened variant
+	 * @param level
+	 */
+	public int offset(int texture,boolean dark,int level) {
+		return ( 2*texture + ( dark ? 1 : 0 ) ) * textureStride + levelOffsets[level];
+	}
+
+	// averages 2x2 blocks of the previous level
+	private void downsample(int src,int dst,int size)
+	{
+		final int srcSize = size*2;
+		for ( int u = 0 ; u < size ; u++ )
+		{
+			for ( int v = 0 ; v < size ; v++ )
+			{
+				final int p0 = src + (2*u) * srcSize + 2*v;
+				final int p1 = p0 + srcSize;
+				texels[ dst + u*size + v ] = average( texels[p0] , texels[p0+1] , texels[p1] , texels[p1+1] );
+			}
+		}
+	}
+
+	private static int average(int c0,int c1,int c2,int c3)
+	{
+		int result = 0;
+		for ( int shift = 0 ; shift < 32 ; shift += 8 )
+		{
+			final int sum = ( (c0 >>> shift) & 0xff ) + ( (c1 >>> shift) & 0xff ) + ( (c2 >>> shift) & 0xff ) + ( (c3 >>> shift) & 0xff );
+			result |= ( ( sum + 2 ) >> 2 ) << shift;
+		}
+		return result;
+	}
+
+	// halves the brightness, used for walls facing east or west
+	private static int darken(int argb) {
+		return ( ( argb >> 1 ) & 0x007f7f7f ) | ( argb & 0xff000000 );
+	}
+
+	@Override
+	public String toString() {
+		return "TextureAtlas[ "+textureCount+" textures, "+textureSize+"x"+textureSize+", "+levels+" mip levels ]";
+	}
+}
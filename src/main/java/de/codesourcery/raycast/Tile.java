@@ -15,35 +15,280 @@
  */
 package de.codesourcery.raycast;
 
+import java.util.concurrent.atomic.AtomicLongArray;
 
+/**
+ * A square block of cells.
+ *
+ * Cells are stored as one {@link Palette} index per cell ({@link Palette#EMPTY} for cells that are no walls)
+ * plus a bit set of cells that hold a pill. Cell (x,y) lives at index <code>x*tileSize + y</code>.
+ *
+ * Pills are consumed by the simulation while render threads draw them, so the pill bit set is
+ * read and updated atomically.
+ */
 public class Tile {
 
 	public final TileId tileId;
-	private final Cell[][] tiles;
 	private final int tileSize;
-	
-	protected Tile(TileId tileId,int tileSize , Cell[][] tiles) 
+
+	private final byte[] cells;
+	private final AtomicLongArray pills;
+
+	// set on every lookup through TileIndex, used by eviction policies ; races are benign
+	boolean referenced;
+	private volatile boolean evicted;
+
+	// see emptyRadii(), built lazily and discarded whenever a wall is added or removed
+	private volatile byte[] emptyRadii;
+
+	/**
+	 * Creates a tile without any walls and a pill in every cell.
+	 *
+	 * @param tileId
+	 * @param tileSize
+	 */
+	protected Tile(TileId tileId,int tileSize)
 	{
 		if ( tileId == null ) {
 			throw new IllegalArgumentException("tileId must not be NULL");
 		}
+		this.tileSize = tileSize;
+		this.tileId = tileId;
+		this.cells = new byte[ tileSize*tileSize ];
+		final long[] allPills = new long[ ( tileSize*tileSize + 63 ) / 64 ];
+		for ( int i = 0 , len = tileSize*tileSize ; i < len ; i++ ) {
+			allPills[ i >>> 6 ] |= 1L << i;
+		}
+		this.pills = new AtomicLongArray( allPills );
+	}
+
+	protected Tile(TileId tileId,int tileSize , Cell[][] tiles)
+	{
+		this(tileId,tileSize);
 		if ( tiles == null ) {
 			throw new IllegalArgumentException("tiles must not be NULL");
 		}
-		this.tiles = tiles;
-		this.tileSize = tileSize;
-		this.tileId = tileId;
+		for ( int x = 0 ; x < tileSize ; x++ )
+		{
+			for ( int y = 0 ; y < tileSize ; y++ )
+			{
+				final Cell cell = tiles[x][y];
+				if ( cell.isWall() ) {
+					setWall( x , y , Palette.indexOf( cell.lightColor ) );
+				} else {
+					setEmpty( x , y , cell.hasPill() );
+				}
+			}
+		}
+	}
+
+	/**
+	 * Direct access to the cell storage for {@link TileCursor}.
+	 */
+	final byte[] cells() {
+		return cells;
 	}
 	
+	final AtomicLongArray pills() {
+		return pills;
+	}
+
+	/**
+	 * Returns whether this tile has been evicted from the tile cache.
+	 *
+	 * Evicted tiles stay usable but changes to them (consumed pills) will be lost,
+	 * code holding on to a tile should look it up again once it got evicted.
+	 */
+	public boolean isEvicted() {
+		return evicted;
+	}
+
+	final void markEvicted() {
+		evicted = true;
+	}
+
+	/**
+	 * Returns the approximate amount of heap memory used by this tile.
+	 */
+	public int sizeInBytes() {
+		// object headers and fields, roughly ; assumes the distance field has been built
+		return 64 + 2*cells.length + pills.length() * 8;
+	}
+
 	public int width() {
 		return tileSize;
 	}
-	
+
 	public int height() {
 		return tileSize;
 	}
-	
+
+	/**
+	 * Returns a view of a cell.
+	 *
+	 * Prefer the primitive accessors ({@link #isWall(int, int)} etc.) in performance-critical code,
+	 * this method allocates a new object on every call.
+	 */
 	public Cell getCellAt(int x,int y) {
-		return tiles[x][y];
+		return new Cell(this,x,y);
+	}
+
+	public boolean isWall(int x,int y) {
+		return cells[ x*tileSize + y ] != Palette.EMPTY;
+	}
+
+	/**
+	 * Returns the palette index of a cell.
+	 *
+	 * @return palette index, {@link Palette#EMPTY} if the cell is not a wall
+	 */
+	public int paletteIndex(int x,int y) {
+		return cells[ x*tileSize + y ] & 0xff;
+	}
+
+	public boolean hasPill(int x,int y)
+	{
+		final int index = x*tileSize + y;
+		return cells[index] == Palette.EMPTY && ( pills.get( index >>> 6 ) & ( 1L << index ) ) != 0;
+	}
+
+	/**
+	 * Removes the pill from a cell.
+	 *
+	 * @return <code>true</code> if the cell held a pill, only one of several concurrent callers succeeds
+	 */
+	public boolean consumePill(int x,int y)
+	{
+		final int index = x*tileSize + y;
+		return cells[index] == Palette.EMPTY && setPill( index , false );
+	}
+
+	/*
+	 * Sets or clears a pill bit, returns whether the bit changed.
+	 */
+	private boolean setPill(int index,boolean hasPill)
+	{
+		final long bit = 1L << index;
+		while ( true )
+		{
+			final long word = pills.get( index >>> 6 );
+			final long newWord = hasPill ? word | bit : word & ~bit;
+			if ( word == newWord ) {
+				return false;
+			}
+			if ( pills.compareAndSet( index >>> 6 , word , newWord ) ) {
+				return true;
+			}
+		}
+	}
+
+	public void setWall(int x,int y,int paletteIndex)
+	{
+		if ( paletteIndex <= Palette.EMPTY || paletteIndex >= Palette.MAX_COLORS ) {
+			throw new IllegalArgumentException("Invalid palette index: "+paletteIndex);
+		}
+		cells[ x*tileSize + y ] = (byte) paletteIndex;
+		emptyRadii = null;
+	}
+
+	public void setEmpty(int x,int y,boolean hasPill)
+	{
+		final int index = x*tileSize + y;
+		if ( cells[ index ] != Palette.EMPTY ) {
+			cells[ index ] = Palette.EMPTY;
+			emptyRadii = null;
+		}
+		setPill( index , hasPill );
+	}
+
+	/**
+	 * Returns the distance field used to skip empty space while casting rays.
+	 *
+	 * For every cell (same indexing as the cell storage) this holds the largest radius <code>r</code> so that
+	 * the square of cells <code>[x-r,x+r] x [y-r,y+r]</code> around it contains no walls (capped at 127),
+	 * or <code>-1</code> if the cell itself is a wall. Cells outside of this tile are treated as
+	 * empty, callers need to clamp the radius to the tile borders themselves.
+	 *
+	 * The array must not be modified.
+	 */
+	byte[] emptyRadii()
+	{
+		byte[] result = emptyRadii;
+		if ( result == null ) {
+			result = computeEmptyRadii();
+			emptyRadii = result;
+		}
+		return result;
+	}
+
+	/*
+	 * Two-pass chamfer transform with unit weights for all eight neighbours,
+	 * this yields the exact Chebyshev distance to the nearest wall.
+	 */
+	private byte[] computeEmptyRadii()
+	{
+		final int size = tileSize;
+		final int infinity = 2*size;
+		final int[] dist = new int[ cells.length ];
+		for ( int i = 0 ; i < dist.length ; i++ ) {
+			dist[i] = cells[i] != Palette.EMPTY ? 0 : infinity;
+		}
+
+		for ( int x = 0 ; x < size ; x++ )
+		{
+			for ( int y = 0 ; y < size ; y++ )
+			{
+				final int index = x*size+y;
+				int d = dist[index];
+				if ( y > 0 ) {
+					d = Math.min( d , dist[index-1]+1 );
+				}
+				if ( x > 0 )
+				{
+					d = Math.min( d , dist[index-size]+1 );
+					if ( y > 0 ) {
+						d = Math.min( d , dist[index-size-1]+1 );
+					}
+					if ( y < size-1 ) {
+						d = Math.min( d , dist[index-size+1]+1 );
+					}
+				}
+				dist[index] = d;
+			}
+		}
+
+		for ( int x = size-1 ; x >= 0 ; x-- )
+		{
+			for ( int y = size-1 ; y >= 0 ; y-- )
+			{
+				final int index = x*size+y;
+				int d = dist[index];
+				if ( y < size-1 ) {
+					d = Math.min( d , dist[index+1]+1 );
+				}
+				if ( x < size-1 )
+				{
+					d = Math.min( d , dist[index+size]+1 );
+					if ( y > 0 ) {
+						d = Math.min( d , dist[index+size-1]+1 );
+					}
+					if ( y < size-1 ) {
+						d = Math.min( d , dist[index+size+1]+1 );
+					}
+				}
+				dist[index] = d;
+			}
+		}
+
+		final byte[] result = new byte[ dist.length ];
+		for ( int i = 0 ; i < dist.length ; i++ ) {
+			result[i] = (byte) Math.min( dist[i]-1 , Byte.MAX_VALUE );
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "Tile[" + tileId + "]";
 	}
-}
\ No newline at end of file
+}
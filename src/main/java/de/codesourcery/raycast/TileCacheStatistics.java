@@ -0,0 +1,98 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters describing how well the tile cache is doing.
+ *
+ * All counters are cumulative and may be updated and read concurrently.
+ */
+public final class TileCacheStatistics
+{
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder generations = new LongAdder();
+	private final LongAdder generationTimeNanos = new LongAdder();
+
+	protected void hit() {
+		hits.increment();
+	}
+
+	protected void miss() {
+		misses.increment();
+	}
+
+	protected void eviction() {
+		evictions.increment();
+	}
+
+	protected void generated(long elapsedNanos)
+	{
+		generations.increment();
+		generationTimeNanos.add( elapsedNanos );
+	}
+
+	/**
+	 * Returns the number of tile lookups that found the tile in the cache.
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of tile lookups that did not find the tile in the cache.
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Returns the number of tiles that have been generated.
+	 */
+	public long getGenerationCount() {
+		return generations.sum();
+	}
+
+	/**
+	 * Returns the total time spent generating tiles.
+	 */
+	public long getGenerationTime(TimeUnit unit) {
+		return unit.convert( generationTimeNanos.sum() , TimeUnit.NANOSECONDS );
+	}
+
+	public double getHitRate()
+	{
+		final long hitCount = getHitCount();
+		final long total = hitCount + getMissCount();
+		return total == 0 ? 1 : hitCount / (double) total;
+	}
+
+	@Override
+	public String toString()
+	{
+		final long generated = getGenerationCount();
+		final long avgMillis = generated == 0 ? 0 : getGenerationTime( TimeUnit.MILLISECONDS ) / generated;
+		return "hits: "+getHitCount()+" | misses: "+getMissCount()+" | evictions: "+getEvictionCount()+
+				" | generated: "+generated+" (avg. "+avgMillis+" ms)";
+	}
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Walks the map cell by cell, for example along a ray.
+ *
+ * The cursor keeps a reference to the {@link Tile} it is currently in and
+ * tracks its position as an index into that tile's cell storage, the {@link TileManager}
+ * is only consulted when the cursor crosses a tile border.
+ *
+ * Cell (globalX,globalY) is the same cell that {@link TileManager#getCellAt(double, double)}
+ * returns for these (integer) coordinates.
+ *
+ * Non-blocking cursors treat tiles that are not generated yet as empty space.
+ *
+ * Instances are not thread-safe.
+ *
+ * @see TileManager#newCursor()
+ * @see TileManager#newNonBlockingCursor()
+ */
+public final class TileCursor
+{
+	private final TileManager tileManager;
+	private final boolean blocking;
+	private final int tileSize;
+	private final int halfTileSize;
+
+	private Tile tile;
+	private byte[] cells;
+	private AtomicLongArray pills;
+	private byte[] emptyRadii;
+
+	private int tileX;
+	private int tileY;
+
+	// tile that was still being generated when this cursor looked it up last, see lookupNonBlocking()
+	private int pendingTileX;
+	private int pendingTileY;
+	private long pendingModificationCount = -1;
+
+	private int localX;
+	private int localY;
+	private int index;
+
+	protected TileCursor(TileManager tileManager,boolean blocking)
+	{
+		this.tileManager = tileManager;
+		this.blocking = blocking;
+		this.tileSize = tileManager.tileSize();
+		this.halfTileSize = tileSize / 2;
+	}
+
+	/**
+	 * Moves the cursor to a cell.
+	 *
+	 * @param globalX
+	 * @param globalY
+	 */
+	public void moveTo(int globalX,int globalY)
+	{
+		final int newTileX = Math.floorDiv( globalX + halfTileSize , tileSize );
+		final int newTileY = Math.floorDiv( globalY + halfTileSize , tileSize );
+		if ( tile == null || newTileX != tileX || newTileY != tileY || tile == tileManager.placeholderTile() || tile.isEvicted() ) {
+			switchTile( newTileX , newTileY );
+		}
+		localX = globalX + halfTileSize - newTileX * tileSize;
+		localY = globalY + halfTileSize - newTileY * tileSize;
+		index = localX * tileSize + localY;
+	}
+
+	/**
+	 * Moves the cursor by one cell along the X axis.
+	 *
+	 * @param step either +1 or -1
+	 */
+	public void stepX(int step)
+	{
+		localX += step;
+		if ( localX >= 0 && localX < tileSize ) {
+			index += step * tileSize;
+			return;
+		}
+		switchTile( tileX + step , tileY );
+		localX -= step * tileSize;
+		index = localX * tileSize + localY;
+	}
+
+	/**
+	 * Moves the cursor by one cell along the Y axis.
+	 *
+	 * @param step either +1 or -1
+	 */
+	public void stepY(int step)
+	{
+		localY += step;
+		if ( localY >= 0 && localY < tileSize ) {
+			index += step;
+			return;
+		}
+		switchTile( tileX , tileY + step );
+		localY -= step * tileSize;
+		index = localX * tileSize + localY;
+	}
+
+	/**
+	 * Moves the cursor within the current tile.
+	 *
+	 * The target cell must be part of the same tile,
+	 * as is the case for any cell within {@link #emptyRadius()}.
+	 *
+	 * @param dx
+	 * @param dy
+	 */
+	public void jump(int dx,int dy)
+	{
+		localX += dx;
+		localY += dy;
+		index += dx * tileSize + dy;
+	}
+
+	private void switchTile(int newTileX,int newTileY)
+	{
+		if ( blocking ) {
+			tile = tileManager.getTile( newTileX , newTileY );
+		} else {
+			tile = lookupNonBlocking( newTileX , newTileY );
+		}
+		cells = tile.cells();
+		pills = tile.pills();
+		emptyRadii = null;
+		tileX = newTileX;
+		tileY = newTileY;
+	}
+
+	/*
+	 * A tile that is still being generated is only looked up again once the tile cache changed,
+	 * so rays crossing it neither lock nor allocate.
+	 */
+	private Tile lookupNonBlocking(int newTileX,int newTileY)
+	{
+		final long modificationCount = tileManager.getModificationCount();
+		if ( modificationCount == pendingModificationCount && newTileX == pendingTileX && newTileY == pendingTileY ) {
+			return tileManager.placeholderTile();
+		}
+		final Tile existing = tileManager.getTileIfPresent( newTileX , newTileY );
+		if ( existing != null ) {
+			return existing;
+		}
+		pendingTileX = newTileX;
+		pendingTileY = newTileY;
+		pendingModificationCount = modificationCount;
+		return tileManager.placeholderTile();
+	}
+
+	/**
+	 * Returns the palette index of the current cell.
+	 *
+	 * @return palette index, {@link Palette#EMPTY} if the cell is not a wall
+	 */
+	public int paletteIndex() {
+		return cells[index] & 0xff;
+	}
+
+	public boolean isWall() {
+		return cells[index] != Palette.EMPTY;
+	}
+
+	public boolean hasPill() {
+		return cells[index] == Palette.EMPTY && ( pills.get( index >>> 6 ) & ( 1L << index ) ) != 0;
+	}
+
+	/**
+	 * Returns the largest radius <code>r</code> so that the square of cells
+	 * <code>[x-r,x+r] x [y-r,y+r]</code> around the current cell contains no walls
+	 * and lies within the current tile.
+	 *
+	 * @return radius or <code>-1</code> if the current cell is a wall
+	 */
+	public int emptyRadius()
+	{
+		if ( emptyRadii == null ) {
+			emptyRadii = tile.emptyRadii();
+		}
+		final int r = Math.min( Math.min( localX , tileSize - 1 - localX ) , Math.min( localY , tileSize - 1 - localY ) );
+		return Math.min( emptyRadii[index] , r );
+	}
+
+	public Tile tile() {
+		return tile;
+	}
+
+	public int localX() {
+		return localX;
+	}
+
+	public int localY() {
+		return localY;
+	}
+}
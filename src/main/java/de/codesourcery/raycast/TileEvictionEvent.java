@@ -0,0 +1,37 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event covering adding a tile to the full tile cache, including evicting other tiles.
+ */
+@Name("de.codesourcery.raycast.TileEviction")
+@Label("Tile Eviction")
+@Category("Raycast")
+public class TileEvictionEvent extends jdk.jfr.Event 
+{
+	@Label("Tile X")
+	public int tileX;
+	
+	@Label("Tile Y")
+	public int tileY;
+	
+	@Label("Evicted Tiles")
+	public int evictedTiles;
+}
@@ -21,13 +21,28 @@ public class TileFactory {
 
 	public final int tileSize;
 	
+	// seed 0 generates the default map
+	private final long seed;
+	
 	public TileFactory(int tileSize) 
+	{
+		this( tileSize , 0 );
+	}
+	
+	/**
+	 * Create instance.
+	 * 
+	 * @param tileSize
+	 * @param seed seed used to generate mazes, the same seed always generates the same map
+	 */
+	public TileFactory(int tileSize,long seed) 
 	{
 		if ( (tileSize & 1 ) == 0 ) // we always assume that a tile's origin (0,0) is right in the center, thus a tile size can never be an even value 
 		{
 			throw new IllegalArgumentException("Tile size must never be even");
 		}
 		this.tileSize = tileSize;
+		this.seed = seed;
 	}
 	
 	protected final Cell[][] newWallArray() {
@@ -43,18 +58,20 @@ public class TileFactory {
 	
 	public Tile createTile(TileId coordinates) 
 	{
-		return createMazeTile( coordinates );
-//		return createFixedTile( coordinates );		
+		final Tile tile = createMazeTile( coordinates );
+//		final Tile tile = createFixedTile( coordinates );
+		tile.emptyRadii(); // build the distance field while we're still on the generator thread
+		return tile;
 	}
 	
 	public Tile createMazeTile(TileId coordinates) 
 	{
 		Maze maze = new Maze(tileSize/2);
-		maze.generateMaze( coordinates.hashCode()*3 );
+		maze.generateMaze( coordinates.hashCode()*3 + seed * 0x9e3779b97f4a7c15L );
 		
-		final Cell[][] walls = newWallArray();
-		Maze.renderMaze(maze, walls , tileSize , tileSize , false );
-		return new Tile(coordinates,tileSize, walls );
+		final Tile tile = new Tile(coordinates,tileSize);
+		Maze.renderMaze(maze, tile , tileSize , tileSize , false );
+		return tile;
 	}	
 	
 	private Tile createFixedTile(TileId coordinates) 
@@ -144,33 +161,31 @@ public class TileFactory {
 				{ 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1 }			
 			};		
 		
-		final Cell[][] result = newWallArray();
+		final Tile result = new Tile(coordinates,tileSize);
 		for ( int x = 0 ; x < tileSize ; x++ ) 
 		{
 			for ( int y = 0 ; y < tileSize ; y++ ) 
 			{
-				final Cell tile;
 				switch (map[x][y]) 
 				{
 					case 1:
-						tile = Cell.wall(Color.RED);
+						result.setWall( x , y , Palette.indexOf( Color.RED ) );
 						break; 
 					case 2:
-						tile = Cell.wall(Color.GREEN);						
+						result.setWall( x , y , Palette.indexOf( Color.GREEN ) );
 						break; 
 					case 3:
-						tile = Cell.wall(Color.BLUE);
+						result.setWall( x , y , Palette.indexOf( Color.BLUE ) );
 						break; 
 					case 4:
-						tile = Cell.wall(Color.ORANGE);
+						result.setWall( x , y , Palette.indexOf( Color.ORANGE ) );
 						break; 
 					default:
-						tile = Cell.cellWithPill();
+						result.setEmpty( x , y , true );
 						break; 
 				}	
-				result[x][y]=tile;
 			}
 		}
-		return new Tile(coordinates , tileSize , result);
+		return result;
 	}
 }
@@ -0,0 +1,34 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event covering the generation of one tile.
+ */
+@Name("de.codesourcery.raycast.TileGeneration")
+@Label("Tile Generation")
+@Category("Raycast")
+public class TileGenerationEvent extends jdk.jfr.Event 
+{
+	@Label("Tile X")
+	public int tileX;
+	
+	@Label("Tile Y")
+	public int tileY;
+}
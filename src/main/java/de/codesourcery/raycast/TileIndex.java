@@ -0,0 +1,334 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Thread-safe, bounded map from tile coordinates to tiles.
+ *
+ * Tile coordinates are packed into a <code>long</code> key whose mixed hash selects one of several
+ * segments. Each segment is a small open-addressing hash table with linear probing that is
+ * replaced as a whole (copy-on-write) whenever a tile is added or removed.
+ * Lookups therefore never lock and never allocate, writers only lock the segment they modify.
+ *
+ * Once the map exceeds its capacity (either a number of tiles or an amount of memory),
+ * tiles are evicted as chosen by an {@link EvictionPolicy}. Every lookup sets the tile's
+ * 'referenced' flag that policies may use to tell recently used tiles apart.
+ */
+public final class TileIndex
+{
+	private static final int SEGMENT_COUNT = 8; // must be a power of 2
+
+	private static final int MIN_TABLE_SIZE = 4;
+
+	public static enum CapacityUnit
+	{
+		TILES,
+		BYTES;
+	}
+
+	private final long capacity;
+	private final CapacityUnit capacityUnit;
+	private final Segment[] segments = new Segment[ SEGMENT_COUNT ];
+	private final AtomicInteger size = new AtomicInteger();
+	// total weight of all tiles, in units of capacityUnit
+	private final AtomicLong weight = new AtomicLong();
+
+	private final EvictionPolicy evictionPolicy;
+	private final Consumer<Tile> evictionListener;
+
+	private final Object evictionLock = new Object();
+
+	// guarded by evictionLock
+	private Tile[] snapshot = new Tile[ 16 ];
+
+	private static final class Segment
+	{
+		// open addressing hash table, never more than half full ; replaced on every modification
+		private volatile Tile[] table = new Tile[ MIN_TABLE_SIZE ];
+
+		// guarded by 'this'
+		private int count;
+
+		public Tile get(int tileX,int tileY,long hash)
+		{
+			final Tile[] table = this.table;
+			final int mask = table.length - 1;
+			for ( int i = (int) hash & mask ; ; i = (i+1) & mask )
+			{
+				final Tile tile = table[i];
+				if ( tile == null ) {
+					return null;
+				}
+				if ( tile.tileId.x == tileX && tile.tileId.y == tileY ) {
+					return tile;
+				}
+			}
+		}
+
+		public synchronized void add(Tile tile)
+		{
+			if ( get( tile.tileId.x , tile.tileId.y , hash( tile ) ) != null ) {
+				throw new IllegalArgumentException("Duplicate tile "+tile.tileId);
+			}
+			rebuild( tile , null );
+			count++;
+		}
+
+		public synchronized boolean remove(Tile tile)
+		{
+			if ( get( tile.tileId.x , tile.tileId.y , hash( tile ) ) != tile ) {
+				return false;
+			}
+			rebuild( null , tile );
+			count--;
+			return true;
+		}
+
+		private void rebuild(Tile toAdd,Tile toRemove)
+		{
+			final int newCount = toAdd != null ? count+1 : count-1;
+			int tableSize = MIN_TABLE_SIZE;
+			while ( tableSize < 2*newCount ) {
+				tableSize <<= 1;
+			}
+			final Tile[] newTable = new Tile[ tableSize ];
+			for ( Tile tile : table )
+			{
+				if ( tile != null && tile != toRemove ) {
+					insert( newTable , tile );
+				}
+			}
+			if ( toAdd != null ) {
+				insert( newTable , toAdd );
+			}
+			this.table = newTable;
+		}
+
+		private static void insert(Tile[] table,Tile tile)
+		{
+			final int mask = table.length - 1;
+			int i = (int) hash( tile ) & mask;
+			while ( table[i] != null ) {
+				i = (i+1) & mask;
+			}
+			table[i] = tile;
+		}
+	}
+
+	/**
+	 * Create instance that holds up to a given number of tiles and evicts using {@link ClockEvictionPolicy}.
+	 *
+	 * @param capacity max. number of tiles to hold
+	 * @param evictionListener invoked with every evicted tile, after the tile has been removed
+	 */
+	public TileIndex(int capacity,Consumer<Tile> evictionListener) {
+		this( capacity , CapacityUnit.TILES , new ClockEvictionPolicy() , evictionListener );
+	}
+
+	/**
+	 * Create instance.
+	 *
+	 * @param capacity max. number of tiles or bytes to hold
+	 * @param capacityUnit
+	 * @param evictionPolicy
+	 * @param evictionListener invoked with every evicted tile, after the tile has been removed. May be <code>null</code>
+	 */
+	public TileIndex(long capacity,CapacityUnit capacityUnit,EvictionPolicy evictionPolicy,Consumer<Tile> evictionListener)
+	{
+		if ( capacity < 1 ) {
+			throw new IllegalArgumentException("Capacity must be >= 1, was: "+capacity);
+		}
+		if ( capacityUnit == null ) {
+			throw new IllegalArgumentException("capacityUnit must not be NULL");
+		}
+		if ( evictionPolicy == null ) {
+			throw new IllegalArgumentException("evictionPolicy must not be NULL");
+		}
+		this.capacity = capacity;
+		this.capacityUnit = capacityUnit;
+		this.evictionPolicy = evictionPolicy;
+		this.evictionListener = evictionListener;
+		for ( int i = 0 ; i < SEGMENT_COUNT ; i++ ) {
+			segments[i] = new Segment();
+		}
+	}
+
+	public static long key(int tileX,int tileY) {
+		return ( (long) tileX << 32 ) | ( tileY & 0xffffffffL );
+	}
+
+	/*
+	 * 64-bit finalizer (Stafford variant 13), spreads neighboring
+	 * and negative coordinates evenly across the table.
+	 */
+	private static long mix(long z)
+	{
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	private static long hash(Tile tile) {
+		return mix( key( tile.tileId.x , tile.tileId.y ) );
+	}
+
+	private Segment segment(long hash) {
+		// low bits select the slot, use high bits for the segment
+		return segments[ (int) ( hash >>> 60 ) & ( SEGMENT_COUNT-1 ) ];
+	}
+
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * Returns the total weight of all tiles, either the number of tiles or their size in bytes.
+	 *
+	 * @see #capacityUnit()
+	 */
+	public long weight() {
+		return weight.get();
+	}
+
+	public long capacity() {
+		return capacity;
+	}
+
+	public CapacityUnit capacityUnit() {
+		return capacityUnit;
+	}
+
+	private long weight(Tile tile) {
+		return capacityUnit == CapacityUnit.TILES ? 1 : tile.sizeInBytes();
+	}
+
+	/**
+	 * Looks up a tile.
+	 *
+	 * @return the tile or <code>null</code>
+	 */
+	public Tile get(int tileX,int tileY)
+	{
+		final long hash = mix( key( tileX , tileY ) );
+		final Tile tile = segment( hash ).get( tileX , tileY , hash );
+		if ( tile != null ) {
+			tile.referenced = true;
+		}
+		return tile;
+	}
+
+	/**
+	 * Returns whether a tile is present, unlike {@link #get(int, int)} this
+	 * does not count as an access.
+	 */
+	public boolean contains(int tileX,int tileY)
+	{
+		final long hash = mix( key( tileX , tileY ) );
+		return segment( hash ).get( tileX , tileY , hash ) != null;
+	}
+
+	/**
+	 * Adds a tile, evicting other tiles if the map is full. The tile being
+	 * added is never chosen for eviction by this call.
+	 *
+	 * @param tile tile to add, must not be part of this map already
+	 */
+	public void put(Tile tile)
+	{
+		tile.referenced = true;
+		segment( hash( tile ) ).add( tile );
+		size.incrementAndGet();
+		weight.addAndGet( weight( tile ) );
+
+		// never evict the last remaining tile, even if it exceeds the capacity on its own
+		while ( weight.get() > capacity && size.get() > 1 )
+		{
+			final Tile victim;
+			synchronized( evictionLock )
+			{
+				if ( weight.get() <= capacity ) {
+					break;
+				}
+				victim = selectVictim( tile );
+				if ( victim == null ) {
+					break;
+				}
+				if ( ! segment( hash( victim ) ).remove( victim ) ) {
+					continue; // removed concurrently
+				}
+				size.decrementAndGet();
+				weight.addAndGet( -weight( victim ) );
+			}
+			victim.markEvicted();
+			if ( evictionListener != null ) {
+				evictionListener.accept( victim );
+			}
+		}
+	}
+
+	/**
+	 * Removes a tile.
+	 *
+	 * The tile gets marked as evicted (without notifying the eviction listener),
+	 * so code holding on to it knows to look it up again.
+	 *
+	 * @return the removed tile or <code>null</code>
+	 * @see Tile#isEvicted()
+	 */
+	public Tile remove(int tileX,int tileY)
+	{
+		final long hash = mix( key( tileX , tileY ) );
+		final Segment segment = segment( hash );
+		final Tile tile = segment.get( tileX , tileY , hash );
+		if ( tile != null && segment.remove( tile ) ) {
+			size.decrementAndGet();
+			weight.addAndGet( -weight( tile ) );
+			tile.markEvicted();
+			return tile;
+		}
+		return null;
+	}
+
+	// caller must hold evictionLock
+	private Tile selectVictim(Tile exclude)
+	{
+		int count = 0;
+		for ( Segment segment : segments )
+		{
+			for ( Tile tile : segment.table )
+			{
+				if ( tile != null && tile != exclude )
+				{
+					if ( count == snapshot.length ) {
+						snapshot = Arrays.copyOf( snapshot , count*2 );
+					}
+					snapshot[ count++ ] = tile;
+				}
+			}
+		}
+		if ( count == 0 ) {
+			return null;
+		}
+		final Tile victim = evictionPolicy.selectVictim( snapshot , count );
+		Arrays.fill( snapshot , 0 , count , null );
+		return victim;
+	}
+}
@@ -15,60 +15,350 @@
  */
 package de.codesourcery.raycast;
 
-import java.util.LinkedHashMap;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class TileManager {
 
-	private static final boolean DEBUG = true;
+	public static final int DEFAULT_MAX_CACHED_TILES = 30;
 	
 	private final TileFactory tileFactory;
 
 	private final double tileSize;
 	private final double halfTileSize;
 	
-	private Tile lastAccessedTile;
-	private final LinkedHashMap<TileId, Tile> tileCache = new LinkedHashMap<TileId,Tile>(10,0.75f,true) 
+	// per-thread shortcut for the tile that was looked up last
+	private final ThreadLocal<Tile[]> lastAccessedTile = ThreadLocal.withInitial( () -> new Tile[1] );
+	
+	private final EvictionPolicy evictionPolicy;
+	private final TileIndex tileCache;
+	private final TileCacheStatistics statistics = new TileCacheStatistics();
+	
+	// optional, records tile generation and eviction times
+	private volatile FrameMetrics metrics;
+	
+	// tiles currently being generated, guarded by 'this'
+	private final Map<Long,PendingTile> pendingTiles = new HashMap<>();
+	
+	// executor used to generate tiles in the background, NULL if disabled
+	private volatile Executor asyncExecutor;
+	
+	// returned by non-blocking lookups while the actual tile is still being generated
+	private final Tile placeholderTile;
+	
+	// id of the placeholder tile, lies outside of the range of coordinates the world can be explored in
+	private static final TileId PLACEHOLDER_TILE_ID = new TileId( Integer.MIN_VALUE , Integer.MIN_VALUE );
+	
+	// incremented whenever a tile gets added to or removed from the cache
+	private final AtomicLong modificationCount = new AtomicLong();
+	
+	private static final class PendingTile extends CompletableFuture<Tile> 
 	{
-		protected boolean removeEldestEntry(java.util.Map.Entry<TileId,Tile> eldest) {
-			if( size() > 30 ) 
-			{
-				unloadTile(eldest.getValue());
-				return true;
-			}
-			return false;
-		}
-	};
+		// whether a non-blocking lookup already counted this tile as cache miss, guarded by TileManager.this
+		private boolean missCounted;
+	}
 	
 	private void unloadTile(Tile tile) {
-		if ( DEBUG) {
-			System.out.println("Unloading tile "+tile);
-		}		
+		statistics.eviction();
+		modificationCount.incrementAndGet();
 	}
 	
+	/**
+	 * Create instance that caches up to {@link #DEFAULT_MAX_CACHED_TILES} tiles and evicts using {@link ClockEvictionPolicy}.
+	 * 
+	 * @param tileFactory
+	 */
 	public TileManager(TileFactory tileFactory) {
+		this( tileFactory , DEFAULT_MAX_CACHED_TILES , TileIndex.CapacityUnit.TILES , new ClockEvictionPolicy() );
+	}
+	
+	/**
+	 * Create instance.
+	 * 
+	 * @param tileFactory
+	 * @param cacheCapacity max. number of tiles or bytes to cache
+	 * @param capacityUnit
+	 * @param evictionPolicy
+	 */
+	public TileManager(TileFactory tileFactory,long cacheCapacity,TileIndex.CapacityUnit capacityUnit,EvictionPolicy evictionPolicy) 
+	{
 		this.tileFactory = tileFactory;
+		this.evictionPolicy = evictionPolicy;
+		this.tileCache = new TileIndex( cacheCapacity , capacityUnit , evictionPolicy , this::unloadTile );
 		this.tileSize = tileFactory.tileSize;
 		this.halfTileSize = tileFactory.tileSize/2.0d;
-		this.lastAccessedTile = tileFactory.createTile( new TileId(0,0 ) );
+		addToCache( createTile( new TileId(0,0 ) ) );
+		
+		this.placeholderTile = new Tile( PLACEHOLDER_TILE_ID , tileFactory.tileSize );
+		for ( int x = 0 ; x < tileFactory.tileSize ; x++ ) {
+			for ( int y = 0 ; y < tileFactory.tileSize ; y++ ) {
+				placeholderTile.setEmpty( x , y , false );
+			}
+		}
+	}
+	
+	/**
+	 * Returns cache statistics.
+	 * 
+	 * Repeated lookups of the tile a thread accessed last bypass the cache and are not counted.
+	 */
+	public TileCacheStatistics getStatistics() {
+		return statistics;
+	}
+	
+	/**
+	 * Sets the metrics to record tile generation and eviction times in.
+	 * 
+	 * @param metrics metrics, <code>null</code> disables recording
+	 */
+	public void setMetrics(FrameMetrics metrics) {
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Returns a counter that changes whenever a tile gets added to or evicted from the cache.
+	 * 
+	 * Renderers that use non-blocking lookups may compare this value across frames to 
+	 * find out whether tiles that were missing before have become available.
+	 */
+	public long getModificationCount() {
+		return modificationCount.get();
+	}
+	
+	/**
+	 * Returns the number of cached tiles.
+	 */
+	public int getCachedTileCount() {
+		return tileCache.size();
+	}
+	
+	/**
+	 * Tells the eviction policy where the player is, should be invoked
+	 * whenever the player moved.
+	 * 
+	 * @param player
+	 */
+	public void playerMoved(Player player) {
+		evictionPolicy.playerMoved( player , getTileId( player.position ) );
+	}
+	
+	/**
+	 * Enables generating tiles in the background.
+	 * 
+	 * Once enabled, {@link #getTileIfPresent(int, int)} no longer blocks but
+	 * schedules missing tiles on the given executor.
+	 * 
+	 * @param executor executor to generate tiles on, <code>null</code> disables background generation
+	 * @see #requestTile(int, int)
+	 */
+	public void setAsyncExecutor(Executor executor) {
+		this.asyncExecutor = executor;
 	}
 	
 	public int tileSize() {
 		return tileFactory.tileSize;
 	}
 	
+	/**
+	 * Returns the tile with the given tile coordinates, creating it if necessary.
+	 * 
+	 * This method is thread-safe, looking up a tile that is already cached neither locks nor allocates.
+	 */
+	public Tile getTile(int tileX,int tileY) 
+	{
+		final Tile[] last = lastAccessedTile.get();
+		Tile tile = last[0];
+		if ( tile != null && tile.tileId.x == tileX && tile.tileId.y == tileY && ! tile.isEvicted() ) {
+			return tile;
+		}
+		tile = tileCache.get( tileX , tileY );
+		if ( tile == null ) 
+		{
+			statistics.miss();
+			tile = getTileSlow( tileX , tileY );
+		} else {
+			statistics.hit();
+		}
+		last[0] = tile;
+		return tile;
+	}
+	
 	public Tile getTile(TileId tileId) 
 	{
-		if ( lastAccessedTile.tileId.x == tileId.x && lastAccessedTile.tileId.y == tileId.y ) {
-			return lastAccessedTile;
+		return getTile( tileId.x , tileId.y );
+	}
+	
+	private Tile getTileSlow(int tileX,int tileY) 
+	{
+		final CompletableFuture<Tile> future;
+		boolean generate = false;
+		synchronized( this ) 
+		{
+			// check again, tile might have been added in the meantime
+			final Tile cached = tileCache.get( tileX , tileY );
+			if ( cached != null ) {
+				return cached;
+			}
+			final Long key = TileIndex.key( tileX , tileY );
+			PendingTile existing = pendingTiles.get( key );
+			if ( existing == null ) {
+				existing = new PendingTile();
+				pendingTiles.put( key , existing );
+				generate = true;
+			}
+			future = existing;
+		}
+		
+		// generate tile outside of the lock so that other threads are not blocked
+		if ( generate ) {
+			generateTile( tileX , tileY , future );
+		}
+		return future.join();
+	}
+	
+	/**
+	 * Returns a tile if it has already been generated.
+	 * 
+	 * If background generation is enabled, missing tiles are scheduled for generation and
+	 * this method never blocks on generating a tile. Otherwise this method behaves like {@link #getTile(int, int)}.
+	 * 
+	 * A tile that is still being generated counts as a single cache miss, no matter how often it is looked up.
+	 * 
+	 * @return the tile or <code>null</code> if it is not available yet
+	 * @see #setAsyncExecutor(Executor)
+	 */
+	public Tile getTileIfPresent(int tileX,int tileY) 
+	{
+		if ( asyncExecutor == null ) {
+			return getTile( tileX , tileY );
+		}
+		final Tile[] last = lastAccessedTile.get();
+		Tile tile = last[0];
+		if ( tile != null && tile.tileId.x == tileX && tile.tileId.y == tileY && ! tile.isEvicted() ) {
+			return tile;
+		}
+		tile = tileCache.get( tileX , tileY );
+		if ( tile == null ) 
+		{
+			requestTile( tileX , tileY , true );
+			return null;
+		}
+		statistics.hit();
+		last[0] = tile;
+		return tile;
+	}
+	
+	/**
+	 * Schedules generation of a tile in the background, does nothing if the
+	 * tile is already available or being generated or if background generation is disabled.
+	 * 
+	 * @param tileX
+	 * @param tileY
+	 * @see #setAsyncExecutor(Executor)
+	 */
+	public void requestTile(int tileX,int tileY) 
+	{
+		requestTile( tileX , tileY , false );
+	}
+	
+	/*
+	 * @param countMiss whether to count a cache miss, only done once per tile
+	 */
+	private void requestTile(int tileX,int tileY,boolean countMiss) 
+	{
+		final Executor executor = asyncExecutor;
+		if ( executor == null ) {
+			return;
+		}
+		final PendingTile future;
+		synchronized( this ) 
+		{
+			if ( tileCache.contains( tileX , tileY ) ) {
+				return;
+			}
+			final Long key = TileIndex.key( tileX , tileY );
+			final PendingTile pending = pendingTiles.get( key );
+			if ( pending != null ) 
+			{
+				if ( countMiss && ! pending.missCounted ) {
+					pending.missCounted = true;
+					statistics.miss();
+				}
+				return;
+			}
+			future = new PendingTile();
+			future.missCounted = countMiss;
+			pendingTiles.put( key , future );
+		}
+		if ( countMiss ) {
+			statistics.miss();
+		}
+		executor.execute( () -> generateTile( tileX , tileY , future ) );
+	}
+	
+	/**
+	 * Returns whether a tile is currently cached.
+	 */
+	public boolean isCached(int tileX,int tileY) {
+		return tileCache.contains( tileX , tileY );
+	}
+	
+	private void generateTile(int tileX,int tileY,CompletableFuture<Tile> future) 
+	{
+		final Tile tile;
+		try {
+			tile = createTile( new TileId( tileX , tileY ) );
+		} 
+		catch(RuntimeException | Error e) 
+		{
+			synchronized( this ) {
+				pendingTiles.remove( TileIndex.key( tileX , tileY ) );
+			}
+			future.completeExceptionally( e );
+			throw e;
 		}
-		Tile cached = tileCache.get( tileId );
-		if ( cached == null ) {
-			cached = createTile( tileId );
-			tileCache.put( tileId,cached);
+		
+		// add to cache before removing the pending entry, 
+		// so concurrent lookups always find one of them
+		addToCache( tile );
+		synchronized( this ) {
+			pendingTiles.remove( TileIndex.key( tileX , tileY ) );
 		}
-		lastAccessedTile = cached;
-		return cached;
+		future.complete( tile );
+	}
+	
+	/**
+	 * Returns an empty tile (no walls, no pills) that non-blocking
+	 * cursors use in place of tiles that are still being generated.
+	 */
+	protected final Tile placeholderTile() {
+		return placeholderTile;
+	}
+	
+	/**
+	 * Creates a new cursor for walking cells in global integer coordinates.
+	 * 
+	 * Cursors are not thread-safe, each thread needs to use its own.
+	 */
+	public TileCursor newCursor() {
+		return new TileCursor( this , true );
+	}
+	
+	/**
+	 * Creates a new cursor that never blocks on tile generation.
+	 * 
+	 * Tiles that are not available yet are scheduled for generation and appear as
+	 * empty space (no walls, no pills) until they are ready.
+	 * 
+	 * Cursors are not thread-safe, each thread needs to use its own.
+	 * @see #getTileIfPresent(int, int)
+	 */
+	public TileCursor newNonBlockingCursor() {
+		return new TileCursor( this , false );
 	}
 	
 	public Vec2d findStartingPosition(GameLogic gameLogic) 
@@ -90,10 +380,53 @@ public class TileManager {
 	
 	private Tile createTile(TileId tileId) 
 	{
-		if ( DEBUG) {
-			System.out.println("Creating tile "+tileId);
+		final TileGenerationEvent event = new TileGenerationEvent();
+		event.begin();
+		final long start = System.nanoTime();
+		
+		final Tile tile = tileFactory.createTile( tileId );
+		
+		final long elapsed = System.nanoTime() - start;
+		statistics.generated( elapsed );
+		final FrameMetrics metrics = this.metrics;
+		if ( metrics != null ) {
+			metrics.record( FrameStage.TILE_GENERATION , elapsed );
+		}
+		if ( event.shouldCommit() ) 
+		{
+			event.tileX = tileId.x;
+			event.tileY = tileId.y;
+			event.commit();
+		}
+		return tile;
+	}
+	
+	private void addToCache(Tile tile) 
+	{
+		final TileEvictionEvent event = new TileEvictionEvent();
+		event.begin();
+		final long start = System.nanoTime();
+		final long evictionsBefore = statistics.getEvictionCount();
+		
+		tileCache.put( tile );
+		modificationCount.incrementAndGet();
+		
+		// evictions happen synchronously, concurrent insertions might be counted here as well
+		final long evicted = statistics.getEvictionCount() - evictionsBefore;
+		if ( evicted > 0 ) 
+		{
+			final FrameMetrics metrics = this.metrics;
+			if ( metrics != null ) {
+				metrics.record( FrameStage.TILE_EVICTION , System.nanoTime() - start );
+			}
+			if ( event.shouldCommit() ) 
+			{
+				event.tileX = tile.tileId.x;
+				event.tileY = tile.tileId.y;
+				event.evictedTiles = (int) evicted;
+				event.commit();
+			}
 		}
-		return tileFactory.createTile( tileId );
 	}	
 	
 	protected final TileId getTileId(Vec2d globalCoordinates) {
@@ -136,6 +469,24 @@ public class TileManager {
 		return getCellFast(globalX,globalY);
 	}	
 	
+	/**
+	 * Returns the palette index of the cell at the given global coordinates.
+	 * 
+	 * Same as <code>getCellAt()</code> but does not create a {@link Cell} view.
+	 * 
+	 * @return palette index, {@link Palette#EMPTY} if the cell is not a wall
+	 */
+	public final int getPaletteIndexAt(double globalX,double globalY)
+	{
+		final int tileX = (int) Math.floor( (globalX / tileSize) + 0.5d );
+		final int tileY = (int) Math.floor( (globalY / tileSize) + 0.5d );		
+		
+		final double locX = globalX + (0.5d - tileX) * tileSize;
+		final double locY = globalY + (0.5d - tileY) * tileSize;
+		
+		return getTile( tileX , tileY ).paletteIndex( (int) locX ,  (int) locY );
+	}
+	
 	private final Cell getWallSlow(double globalX,double globalY)
 	{
 		final TileId tileId = getTileId( globalX , globalY);
@@ -159,17 +510,15 @@ public class TileManager {
 		final int tileX = (int) Math.floor( (globalX / tileSize) + 0.5d );
 		final int tileY = (int) Math.floor( (globalY / tileSize) + 0.5d );		
 		
-		final TileId tileId = new TileId(tileX,tileY);
-		
-		final double locX = globalX + (0.5d - tileId.x) * tileSize;
-		final double locY = globalY + (0.5d - tileId.y) * tileSize;
+		final double locX = globalX + (0.5d - tileX) * tileSize;
+		final double locY = globalY + (0.5d - tileY) * tileSize;
 		
 		try {
-			return getTile( tileId ).getCellAt( (int) locX ,  (int) locY );
+			return getTile( tileX , tileY ).getCellAt( (int) locX ,  (int) locY );
 		}
 		catch(ArrayIndexOutOfBoundsException e) {
 			System.err.println("getWallFast(): Failed for global ("+globalX+","+globalY+") that resolved to tile "+
-		     tileId+" with origin ("+(tileId.x * tileSize)+","+(tileId.y * tileSize)+") and local coordinates ("+locX+","+locY+")");
+		     tileX+","+tileY+" with origin ("+(tileX * tileSize)+","+(tileY * tileSize)+") and local coordinates ("+locX+","+locY+")");
 			throw e;
 		}
 	}	
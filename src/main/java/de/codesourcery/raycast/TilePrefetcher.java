@@ -0,0 +1,156 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates the tiles around the player in the background before
+ * the renderer needs them.
+ *
+ * Tiles within the view radius are requested first, followed by the tiles the player is
+ * heading towards. Closer tiles and tiles in front of the player are requested before others.
+ */
+public final class TilePrefetcher
+{
+	private final TileManager tileManager;
+	private final ExecutorService pool;
+
+	// max. number of tiles to request per update, keeps prefetching from evicting visible tiles
+	private final int maxTilesPerUpdate;
+
+	// state of last update, used to skip updates while the player stays within the same tile
+	private int lastTileX;
+	private int lastTileY;
+	private int lastHeadingIndex = -1;
+	private double lastRadius = -1;
+
+	// candidate tiles, reused across updates
+	private long[] candidates = new long[16];
+
+	public TilePrefetcher(TileManager tileManager,int threadCount,int maxTilesPerUpdate)
+	{
+		if ( threadCount < 1 ) {
+			throw new IllegalArgumentException("Thread count must be >= 1, was: "+threadCount);
+		}
+		this.tileManager = tileManager;
+		this.maxTilesPerUpdate = maxTilesPerUpdate;
+
+		final AtomicInteger threadId = new AtomicInteger();
+		final ThreadFactory threadFactory = r ->
+		{
+			final Thread t = new Thread( r , "tile-prefetch-"+threadId.incrementAndGet() );
+			t.setDaemon( true );
+			t.setPriority( Thread.NORM_PRIORITY - 1 );
+			return t;
+		};
+		this.pool = Executors.newFixedThreadPool( threadCount , threadFactory );
+		tileManager.setAsyncExecutor( pool );
+	}
+
+	/**
+	 * Requests all tiles the player is about to see.
+	 *
+	 * Cheap to call on every frame, candidates are only recalculated after the player
+	 * entered another tile or changed the heading.
+	 *
+	 * @param player
+	 * @param radius view radius in cells
+	 */
+	public void update(Player player,double radius)
+	{
+		final TileId current = tileManager.getTileId( player.position );
+		if ( current.x == lastTileX && current.y == lastTileY && player.headingIndex == lastHeadingIndex && radius == lastRadius ) {
+			return;
+		}
+		lastTileX = current.x;
+		lastTileY = current.y;
+		lastHeadingIndex = player.headingIndex;
+		lastRadius = radius;
+
+		final double tileSize = tileManager.tileSize();
+		final double posX = player.position.x;
+		final double posY = player.position.y;
+		final double dirX = player.direction.x;
+		final double dirY = player.direction.y;
+
+		// look one tile further ahead in the direction the player is facing
+		final double lookAhead = radius + tileSize;
+		final int range = (int) Math.ceil( lookAhead / tileSize ) + 1;
+
+		int count = 0;
+		for ( int ty = current.y - range ; ty <= current.y + range ; ty++ )
+		{
+			for ( int tx = current.x - range ; tx <= current.x + range ; tx++ )
+			{
+				// distance from player to closest point of the tile
+				final double minX = ( tx - 0.5 ) * tileSize;
+				final double minY = ( ty - 0.5 ) * tileSize;
+				final double dx = Math.max( 0 , Math.max( minX - posX , posX - ( minX + tileSize ) ) );
+				final double dy = Math.max( 0 , Math.max( minY - posY , posY - ( minY + tileSize ) ) );
+				final double dist = Math.sqrt( dx*dx + dy*dy );
+
+				// direction towards tile center
+				final double cx = tx * tileSize - posX;
+				final double cy = ty * tileSize - posY;
+				final double len = Math.sqrt( cx*cx + cy*cy );
+				final double cos = len == 0 ? 1 : ( cx*dirX + cy*dirY ) / len;
+
+				final boolean visible = dist <= radius;
+				final boolean ahead = cos > 0.5 && dist <= lookAhead;
+				if ( ! visible && ! ahead ) {
+					continue;
+				}
+				// tiles behind the player are less urgent
+				final double priority = dist + ( 1 - cos ) * tileSize;
+				if ( count == candidates.length ) {
+					candidates = Arrays.copyOf( candidates , count*2 );
+				}
+				candidates[count++] = pack( priority , tx - current.x , ty - current.y );
+			}
+		}
+
+		Arrays.sort( candidates , 0 , count );
+		for ( int i = 0 , requested = 0 ; i < count && requested < maxTilesPerUpdate ; i++ )
+		{
+			final int tx = current.x + (byte) ( candidates[i] >> 8 );
+			final int ty = current.y + (byte) candidates[i];
+			if ( ! tileManager.isCached( tx , ty ) ) {
+				tileManager.requestTile( tx , ty );
+				requested++;
+			}
+		}
+	}
+
+	/*
+	 * Packs priority and tile offsets into a long so that
+	 * candidates sort by priority without allocating.
+	 */
+	private static long pack(double priority,int dx,int dy) {
+		final long p = (long) ( priority * 16 );
+		return p << 16 | ( dx & 0xff ) << 8 | ( dy & 0xff );
+	}
+
+	public void dispose()
+	{
+		tileManager.setAsyncExecutor( null );
+		pool.shutdownNow();
+	}
+}
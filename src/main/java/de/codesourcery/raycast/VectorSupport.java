@@ -0,0 +1,78 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+
+import java.lang.reflect.Constructor;
+
+/**
+ * Creates {@link ColumnCaster}s that use the Vector API.
+ *
+ * The vectorized caster needs Java 17 and the incubating <code>jdk.incubator.vector</code> module, so it lives in
+ * a separate source folder that only the 'vector' Maven profile compiles and is loaded reflectively. The JVM needs
+ * to be started with <code>--add-modules jdk.incubator.vector</code>, otherwise callers have to fall back to
+ * the scalar {@link RayCaster}.
+ */
+public final class VectorSupport
+{
+	private static final String CASTER_CLASS = "de.codesourcery.raycast.VectorRayCaster";
+
+	private static final Constructor<?> CONSTRUCTOR = findConstructor();
+
+	private VectorSupport() {
+	}
+
+	private static Constructor<?> findConstructor()
+	{
+		try
+		{
+			final Class<?> clazz = Class.forName( CASTER_CLASS );
+			if ( ! (Boolean) clazz.getMethod( "isSupported" ).invoke( null ) ) {
+				return null;
+			}
+			return clazz.getConstructor( TileManager.class , int.class );
+		}
+		catch (ReflectiveOperationException | LinkageError e) {
+			// not compiled in or module not present
+			return null;
+		}
+	}
+
+	/**
+	 * Returns whether vectorized ray casting is available.
+	 */
+	public static boolean isAvailable() {
+		return CONSTRUCTOR != null;
+	}
+
+	/**
+	 * Creates a vectorized caster.
+	 *
+	 * @param tileManager
+	 * @param maxRenderDistance
+	 * @return caster or <code>null</code> if not available
+	 */
+	public static ColumnCaster newCaster(TileManager tileManager,int maxRenderDistance)
+	{
+		if ( CONSTRUCTOR == null ) {
+			return null;
+		}
+		try {
+			return (ColumnCaster) CONSTRUCTOR.newInstance( tileManager , maxRenderDistance );
+		} catch (ReflectiveOperationException e) {
+			throw new RuntimeException( "Failed to create "+CASTER_CLASS , e );
+		}
+	}
+}
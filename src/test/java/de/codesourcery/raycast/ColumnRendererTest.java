@@ -0,0 +1,147 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+
+import junit.framework.TestCase;
+
+public class ColumnRendererTest extends TestCase {
+
+	private static final int W = 640;
+	private static final int H = 480;
+	private static final int BACKGROUND = 0xffeeeeee;
+
+	private TileManager tileManager;
+	private Player player;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		tileManager = new TileManager( new TileFactory(25) );
+		player = new Player( tileManager.findStartingPosition( new GameLogic() ) ) {
+			@Override
+			protected boolean canMoveTo(double x, double y) {
+				return true;
+			}
+		};
+	}
+
+	public void testParallelRenderingMatchesSingleThreaded() {
+		assertParallelRenderingMatchesSingleThreaded( false );
+	}
+
+	public void testParallelFloorCastingMatchesSingleThreaded() {
+		assertParallelRenderingMatchesSingleThreaded( true );
+	}
+
+	private void assertParallelRenderingMatchesSingleThreaded(boolean texturesAndFloor)
+	{
+		final ColumnRenderer serial = new ColumnRenderer( tileManager , 20 , 1 , true );
+		final ColumnRenderer parallel = new ColumnRenderer( tileManager , 20 , 4 , true );
+		if ( texturesAndFloor )
+		{
+			final TextureAtlas textures = TextureAtlas.createDefault();
+			for ( ColumnRenderer renderer : new ColumnRenderer[] { serial , parallel } ) {
+				renderer.setTextures( textures );
+				renderer.setFloorCasting( true );
+				renderer.setLighting( 0.4 );
+			}
+		}
+		try
+		{
+			for ( int heading = 0 ; heading < 360 ; heading += 15 )
+			{
+				player.setHeading( heading );
+
+				final ColumnBuffer expected = new ColumnBuffer( W );
+				final ColumnBuffer actual = new ColumnBuffer( W );
+				final FrameBuffer expectedFrame = new FrameBuffer( W , H );
+				final FrameBuffer actualFrame = new FrameBuffer( W , H );
+				serial.render( player , expectedFrame , expected , BACKGROUND );
+				parallel.render( player , actualFrame , actual , BACKGROUND );
+
+				for ( int x = 0 ; x < W ; x++ )
+				{
+					final String msg = "heading "+heading+", column "+x;
+					assertEquals( msg , expected.hit[x] , actual.hit[x] );
+					if ( expected.hit[x] ) {
+						assertEquals( msg , expected.drawStart[x] , actual.drawStart[x] );
+						assertEquals( msg , expected.drawEnd[x] , actual.drawEnd[x] );
+						assertEquals( msg , Double.doubleToLongBits( expected.perpWallDist[x] ) , Double.doubleToLongBits( actual.perpWallDist[x] ) );
+						assertEquals( msg , expected.color[x] , actual.color[x] );
+					}
+				}
+				for ( int i = 0 ; i < W*H ; i++ ) {
+					assertEquals( "heading "+heading+", pixel "+i , expectedFrame.pixels[i] , actualFrame.pixels[i] );
+				}
+			}
+		}
+		finally {
+			serial.dispose();
+			parallel.dispose();
+		}
+	}
+
+	public void testTemporalReprojectionMatchesFullCasting()
+	{
+		final ColumnRenderer full = new ColumnRenderer( tileManager , 20 , 1 , true );
+		final ColumnRenderer temporal = new ColumnRenderer( tileManager , 20 , 1 , true );
+		temporal.setTemporalReprojection( true );
+		try
+		{
+			final ColumnBuffer expected = new ColumnBuffer( W );
+			final ColumnBuffer actual = new ColumnBuffer( W );
+			final FrameBuffer expectedFrame = new FrameBuffer( W , H );
+			final FrameBuffer actualFrame = new FrameBuffer( W , H );
+
+			int reprojected = 0;
+			int mismatches = 0;
+			for ( int frame = 0 ; frame < 60 ; frame++ )
+			{
+				player.setHeading( frame * 3 );
+				full.render( player , expectedFrame , expected , BACKGROUND );
+				temporal.render( player , actualFrame , actual , BACKGROUND );
+				reprojected += temporal.getReprojectedColumnCount();
+
+				for ( int x = 0 ; x < W ; x++ )
+				{
+					if ( expected.hit[x] != actual.hit[x] || expected.drawStart[x] != actual.drawStart[x] || expected.color[x] != actual.color[x] ) {
+						mismatches++;
+					}
+				}
+			}
+			// the first frame casts all columns, afterwards about half of them get reprojected
+			assertTrue( "Only "+reprojected+" columns reprojected" , reprojected > 59 * W / 4 );
+			// a reprojected column may miss a wall corner that pokes in between its neighbors
+			assertTrue( mismatches+" columns differ" , mismatches < 60 * W / 100 );
+
+			// a camera that stopped casts everything and matches full casting again
+			temporal.render( player , actualFrame , actual , BACKGROUND );
+			assertEquals( 0 , temporal.getReprojectedColumnCount() );
+			for ( int i = 0 ; i < W*H ; i++ ) {
+				assertEquals( "pixel "+i , expectedFrame.pixels[i] , actualFrame.pixels[i] );
+			}
+
+			// large rotations cast everything
+			player.setHeading( 270 );
+			temporal.render( player , actualFrame , actual , BACKGROUND );
+			assertEquals( 0 , temporal.getReprojectedColumnCount() );
+		}
+		finally {
+			full.dispose();
+			temporal.dispose();
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import junit.framework.TestCase;
+
+public class FrameMetricsTest extends TestCase {
+
+	public void testHistogramPercentiles()
+	{
+		final Histogram histogram = new Histogram();
+		for ( int i = 1 ; i <= 1000 ; i++ ) {
+			histogram.record( i * 1000L );
+		}
+		assertEquals( 1000 , histogram.getCount() );
+		assertEquals( 1_000_000 , histogram.getMax() );
+		assertEquals( 500_500 , histogram.getMean() , 0.001 );
+		assertWithinBucket( 500_000 , histogram.getPercentile( 50 ) );
+		assertWithinBucket( 990_000 , histogram.getPercentile( 99 ) );
+		assertEquals( 1_000_000 , histogram.getPercentile( 100 ) );
+
+		histogram.reset();
+		assertEquals( 0 , histogram.getCount() );
+		assertEquals( 0 , histogram.getPercentile( 50 ) );
+	}
+
+	public void testSmallValuesAreExact()
+	{
+		final Histogram histogram = new Histogram();
+		for ( int i = 0 ; i < 16 ; i++ ) {
+			histogram.record( i );
+		}
+		assertEquals( 7 , histogram.getPercentile( 50 ) );
+		assertEquals( 15 , histogram.getPercentile( 100 ) );
+	}
+
+	public void testMBean() throws Exception
+	{
+		final FrameMetrics metrics = new FrameMetrics();
+		metrics.registerMBean();
+
+		final FrameMetrics.Timer timer = metrics.newTimer();
+		timer.beginFrame();
+		timer.endStage( FrameStage.INPUT );
+		timer.endStage( FrameStage.WALLS );
+		timer.endFrame();
+
+		final FrameMetrics.Timer simulationTimer = metrics.newSimulationTimer();
+		simulationTimer.beginFrame();
+		simulationTimer.endStage( FrameStage.SIMULATION );
+		simulationTimer.endFrame();
+
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final CompositeData[] stages = (CompositeData[]) server.getAttribute( new ObjectName( FrameMetrics.OBJECT_NAME ) , "Stages" );
+		assertEquals( FrameStage.values().length + 2 , stages.length );
+		assertEquals( "INPUT" , stages[ FrameStage.INPUT.ordinal() ].get( "stage" ) );
+		assertEquals( 1L , stages[ FrameStage.INPUT.ordinal() ].get( "count" ) );
+		assertEquals( 0L , stages[ FrameStage.RADAR.ordinal() ].get( "count" ) );
+		assertEquals( 1L , stages[ FrameStage.SIMULATION.ordinal() ].get( "count" ) );
+		// simulation steps don't count as frames
+		assertEquals( "FRAME" , stages[ stages.length - 2 ].get( "stage" ) );
+		assertEquals( 1L , stages[ stages.length - 2 ].get( "count" ) );
+		assertEquals( "TICK" , stages[ stages.length - 1 ].get( "stage" ) );
+		assertEquals( 1L , stages[ stages.length - 1 ].get( "count" ) );
+	}
+
+	private static void assertWithinBucket(long expected,long actual) {
+		assertTrue( "expected ~"+expected+" but got "+actual , actual >= expected && actual <= expected * 1.125 );
+	}
+}
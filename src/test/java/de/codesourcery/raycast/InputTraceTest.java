@@ -0,0 +1,69 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+import java.io.File;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class InputTraceTest extends TestCase {
+
+	public void testWriteAndRead() throws Exception
+	{
+		final InputTrace trace = new InputTrace();
+		trace.record( InputAction.FORWARD , 0 );
+		trace.record( InputAction.ROTATE , -1.5 );
+		trace.endFrame( 0.016f );
+		trace.endFrame( 1/60f );
+		trace.record( InputAction.JUMP , 0 );
+		trace.endFrame( 0.02f );
+
+		final File file = File.createTempFile( "trace" , ".txt" );
+		try
+		{
+			trace.write( file.toPath() );
+			final List<InputTrace.Frame> expected = trace.getFrames();
+			final List<InputTrace.Frame> actual = InputTrace.read( file.toPath() ).getFrames();
+			assertEquals( expected.size() , actual.size() );
+			for ( int i = 0 ; i < expected.size() ; i++ )
+			{
+				assertEquals( expected.get(i).timestamp , actual.get(i).timestamp );
+				assertEquals( expected.get(i).deltaSeconds , actual.get(i).deltaSeconds );
+				assertEquals( expected.get(i).actions.length , actual.get(i).actions.length );
+				for ( int j = 0 ; j < expected.get(i).actions.length ; j++ ) {
+					assertEquals( expected.get(i).actions[j] , actual.get(i).actions[j] );
+					assertEquals( expected.get(i).amounts[j] , actual.get(i).amounts[j] );
+				}
+			}
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	public void testReplayIsDeterministic()
+	{
+		final ReplayBenchmark benchmark = new ReplayBenchmark( InputTrace.synthetic( 600 ) , 160 , 120 , 42 , 1 );
+		final ReplayBenchmark.Result first = benchmark.run();
+		final ReplayBenchmark.Result second = benchmark.run();
+		assertEquals( 600 , first.frameTimes.length );
+		assertEquals( first.finalPosition.x , second.finalPosition.x );
+		assertEquals( first.finalPosition.y , second.finalPosition.y );
+		assertEquals( first.finalHeading , second.finalHeading );
+		assertEquals( first.finalScore , second.finalScore );
+		assertTrue( first.finalScore > 1 );
+	}
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+import junit.framework.TestCase;
+
+public class PlayerStateTest extends TestCase {
+
+	private final Player player = new Player( new Vec2d(0,0) ) {
+		@Override
+		protected boolean canMoveTo(double x, double y) {
+			return true;
+		}
+	};
+
+	public void testInterpolate()
+	{
+		final PlayerState from = new PlayerState( 0 , 10 , 10 , 0 , 1 );
+		final PlayerState to = new PlayerState( 2 , 20 , 30 , 4 , 2 );
+
+		PlayerState.interpolate( from , to , 0.5 , player );
+		assertEquals( 1.0 , player.position.x , 1e-9 );
+		assertEquals( 15.0 , player.position.y , 1e-9 );
+		assertEquals( 20.0 , player.heading , 1e-9 );
+		assertEquals( 2.0f , player.z , 1e-6f );
+		assertEquals( 2 , player.score );
+
+		PlayerState.interpolate( from , to , 0 , player );
+		assertEquals( 0.0 , player.position.x , 1e-9 );
+		assertEquals( 10.0 , player.heading , 1e-9 );
+	}
+
+	public void testInterpolateHeadingTakesShorterWay()
+	{
+		final PlayerState from = new PlayerState( 0 , 0 , 350 , 0 , 0 );
+		final PlayerState to = new PlayerState( 0 , 0 , 10 , 0 , 0 );
+		PlayerState.interpolate( from , to , 0.75 , player );
+		assertEquals( 5.0 , player.heading , 1e-9 );
+	}
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+
+import junit.framework.TestCase;
+
+public class RayCasterTest extends TestCase {
+
+	private static final int W = 320;
+	private static final int H = 240;
+	private static final int RENDER_DISTANCE = 150;
+
+	public void testSkippingMatchesPlainDDAInMaze() {
+		assertMatchesPlainDDA( new TileFactory( 25 ) , false , 1 );
+	}
+
+	public void testSkippingMatchesPlainDDAInOpenMap() {
+		assertMatchesPlainDDA( openMap() , false , 1 );
+	}
+
+	public void testVectorCastingMatchesPlainDDA()
+	{
+		// only compiled and run by the 'vector' profile
+		if ( VectorSupport.isAvailable() ) {
+			assertMatchesPlainDDA( new TileFactory( 25 ) , false , 1 , true );
+			assertMatchesPlainDDA( openMap() , false , 1 , true );
+		}
+	}
+
+	public void testTracingMatchesPlainDDAInMaze() {
+		assertMatchesPlainDDA( new TileFactory( 25 ) , true , 0.4 );
+	}
+
+	public void testTracingMatchesPlainDDAInOpenMap() {
+		// lots of distant pillars that are only a few columns wide
+		assertMatchesPlainDDA( openMap() , true , 0.7 );
+	}
+
+	public void testTracedRaysGrowSlowerThanWidth()
+	{
+		// casting every column would need four times as many rays
+		for ( TileFactory factory : new TileFactory[] { new TileFactory( 25 ) , openMap() } )
+		{
+			final int narrow = castAndCompare( factory , W , true , false );
+			final int wide = castAndCompare( factory , 4*W , true , false );
+			assertTrue( narrow+" rays cast at width "+W+", "+wide+" at width "+(4*W) , wide <= 3 * narrow );
+		}
+	}
+
+	private static TileFactory openMap()
+	{
+		// a few pillars, mostly empty space
+		return new TileFactory( 51 )
+		{
+			@Override
+			public Tile createTile(TileId coordinates)
+			{
+				final Tile tile = new Tile( coordinates , tileSize );
+				for ( int x = 3 ; x < tileSize ; x += 17 ) {
+					for ( int y = 5 ; y < tileSize ; y += 13 ) {
+						tile.setWall( x , y , 1 );
+					}
+				}
+				return tile;
+			}
+		};
+	}
+
+	/**
+	 * @param maxRaysCast max. fraction of columns to cast rays for
+	 */
+	private void assertMatchesPlainDDA(TileFactory factory,boolean tracing,double maxRaysCast) {
+		assertMatchesPlainDDA( factory , tracing , maxRaysCast , false );
+	}
+
+	private void assertMatchesPlainDDA(TileFactory factory,boolean tracing,double maxRaysCast,boolean vector)
+	{
+		final int raysCast = castAndCompare( factory , W , tracing , vector );
+		if ( tracing ) {
+			assertTrue( raysCast+" rays cast" , raysCast <= 50 * W * maxRaysCast );
+		}
+	}
+
+	/**
+	 * Renders 50 views with plain DDA and with the caster under test and compares the results.
+	 *
+	 * @return number of rays wall tracing had to cast, 0 if not tracing
+	 */
+	private int castAndCompare(TileFactory factory,int width,boolean tracing,boolean vector)
+	{
+		final int range = RENDER_DISTANCE / factory.tileSize + 2;
+		final TileManager tileManager = new TileManager( factory , (2*range+1)*(2*range+1) , TileIndex.CapacityUnit.TILES , new ClockEvictionPolicy() );
+		for ( int x = -range ; x <= range ; x++ ) {
+			for ( int y = -range ; y <= range ; y++ ) {
+				tileManager.getTile( x , y );
+			}
+		}
+
+		final Player player = new Player( tileManager.findStartingPosition( new GameLogic() ) ) {
+			@Override
+			protected boolean canMoveTo(double x, double y) {
+				return true;
+			}
+		};
+
+		final RayCaster skipping = new RayCaster( tileManager , RENDER_DISTANCE , true );
+		final ColumnCaster vectorized = vector ? VectorSupport.newCaster( tileManager , RENDER_DISTANCE ) : null;
+		final RayCaster plain = new RayCaster( tileManager , RENDER_DISTANCE , false );
+		final ColumnBuffer expected = new ColumnBuffer( width );
+		final ColumnBuffer actual = new ColumnBuffer( width );
+
+		final double startX = player.position.x;
+		final double startY = player.position.y;
+		int raysCast = 0;
+		for ( int i = 0 ; i < 50 ; i++ )
+		{
+			// includes positions right on cell borders and axis-parallel headings
+			player.position.x = startX + ( i % 5 ) * 0.25;
+			player.position.y = startY + ( i / 5 ) * 0.5;
+			player.setHeading( i * 45 + ( i / 8 ) * 7.125 );
+
+			final RayTable rays = new RayTable( width , player.headingIndex );
+			plain.castColumns( player , rays , 0 , width , H , expected );
+			if ( vector ) {
+				vectorized.castColumns( player , rays , 0 , width , H , actual );
+			} else if ( tracing ) {
+				raysCast += skipping.traceColumns( player , rays , 0 , width , H , actual );
+			} else {
+				skipping.castColumns( player , rays , 0 , width , H , actual );
+			}
+
+			for ( int x = 0 ; x < width ; x++ )
+			{
+				final String msg = "iteration "+i+", column "+x;
+				assertEquals( msg , expected.hit[x] , actual.hit[x] );
+				if ( expected.hit[x] ) {
+					assertEquals( msg , expected.drawStart[x] , actual.drawStart[x] );
+					assertEquals( msg , expected.drawEnd[x] , actual.drawEnd[x] );
+					assertEquals( msg , Double.doubleToLongBits( expected.perpWallDist[x] ) , Double.doubleToLongBits( actual.perpWallDist[x] ) );
+					assertEquals( msg , expected.color[x] , actual.color[x] );
+					assertEquals( msg , Double.doubleToLongBits( expected.wallX[x] ) , Double.doubleToLongBits( actual.wallX[x] ) );
+				}
+			}
+		}
+		return raysCast;
+	}
+}
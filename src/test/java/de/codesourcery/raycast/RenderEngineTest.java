@@ -0,0 +1,179 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class RenderEngineTest extends TestCase {
+
+	private static final int W = 320;
+	private static final int H = 200;
+
+	private RenderEngine engine;
+	private Player player;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		System.setProperty( "java.awt.headless" , "true" );
+		final TileManager tileManager = new TileManager( new TileFactory(25) );
+		player = new Player( tileManager.findStartingPosition( new GameLogic() ) ) {
+			@Override
+			protected boolean canMoveTo(double x, double y) {
+				return true;
+			}
+		};
+		player.setHeading( 30 );
+		engine = new RenderEngine( tileManager , player , 20 , 1 , false );
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		engine.dispose();
+	}
+
+	public void testRenderIntoArrayAndImagesProducesSamePixels()
+	{
+		final int[] pixels = new int[ W*H ];
+		engine.render( pixels , W , H );
+
+		final BufferedImage argb = new BufferedImage( W , H , BufferedImage.TYPE_INT_ARGB );
+		engine.render( argb );
+
+		final BufferedImage bgr = new BufferedImage( W , H , BufferedImage.TYPE_3BYTE_BGR );
+		engine.render( bgr );
+
+		boolean hasWalls = false;
+		for ( int y = 0 ; y < H ; y++ )
+		{
+			for ( int x = 0 ; x < W ; x++ )
+			{
+				final int expected = pixels[ x + y*W ];
+				assertEquals( "pixel ("+x+","+y+")" , expected , argb.getRGB( x , y ) );
+				assertEquals( "pixel ("+x+","+y+")" , expected | 0xff000000 , bgr.getRGB( x , y ) );
+				hasWalls |= ( expected != RenderEngine.DEFAULT_BACKGROUND_COLOR );
+			}
+		}
+		assertTrue( hasWalls );
+	}
+
+	public void testUnchangedFrameIsNotRenderedAgain()
+	{
+		final int[] pixels = new int[ W*H ];
+		engine.render( pixels , W , H );
+		assertEquals( 1 , engine.getDirtyRegions().size() );
+		assertEquals( new Rectangle( 0 , 0 , W , H ) , engine.getDirtyRegions().get(0) );
+
+		// the first frame generated tiles, that counts as a change
+		engine.render( pixels , W , H );
+		assertEquals( new Rectangle( 0 , 0 , W , H ) , engine.getDirtyRegions().get(0) );
+
+		final int[] expected = pixels.clone();
+		engine.render( pixels , W , H );
+		assertTrue( engine.getDirtyRegions().isEmpty() );
+		assertArrayEquals( expected , pixels );
+
+		player.setHeading( 31 );
+		engine.render( pixels , W , H );
+		assertEquals( new Rectangle( 0 , 0 , W , H ) , engine.getDirtyRegions().get(0) );
+	}
+
+	public void testRadarZoomOnlyUpdatesRadar()
+	{
+		engine.setRenderHud( false );
+		final int[] pixels = new int[ W*H ];
+		engine.render( pixels , W , H );
+		engine.render( pixels , W , H );
+
+		engine.getRadarRenderer().zoomOut( 1 );
+		engine.render( pixels , W , H );
+		final List<Rectangle> dirty = engine.getDirtyRegions();
+		assertEquals( 1 , dirty.size() );
+		final Rectangle radar = dirty.get(0);
+		assertTrue( radar.width < W && radar.height < H );
+
+		// same result as rendering everything
+		final int[] expected = new int[ W*H ];
+		engine.render( expected , W , H );
+		assertArrayEquals( expected , pixels );
+	}
+
+	public void testHudChangeOnlyUpdatesHud()
+	{
+		final int[] pixels = new int[ W*H ];
+		engine.render( pixels , W , H );
+		engine.render( pixels , W , H );
+		final int[] before = pixels.clone();
+
+		engine.setFps( 42 );
+		engine.render( pixels , W , H );
+		final List<Rectangle> dirty = engine.getDirtyRegions();
+		assertFalse( dirty.isEmpty() );
+		for ( Rectangle r : dirty ) {
+			assertTrue( r.toString() , r.y + r.height <= FrameCompositor.HUD_HEIGHT );
+		}
+		for ( int i = FrameCompositor.HUD_HEIGHT*W ; i < W*H ; i++ ) {
+			assertEquals( before[i] , pixels[i] );
+		}
+	}
+
+	public void testRendersAtLowerResolutionWhenOverBudget()
+	{
+		engine.setRenderHud( false );
+		engine.setRenderRadar( false );
+		engine.setFrameTimeBudget( 1 );
+
+		final int[] pixels = new int[ W*H ];
+		for ( int i = 0 ; i < 30 ; i++ )
+		{
+			player.setHeading( i );
+			engine.render( pixels , W , H );
+		}
+		player.setHeading( 45 );
+		engine.render( pixels , W , H );
+		assertEquals( 0.5 , engine.getRenderScale() );
+
+		// every pixel of the half-resolution view covers 2x2 pixels
+		for ( int y = 0 ; y < H ; y+=2 )
+		{
+			for ( int x = 0 ; x < W ; x+=2 )
+			{
+				final int expected = pixels[ x + y*W ];
+				assertEquals( expected , pixels[ x+1 + y*W ] );
+				assertEquals( expected , pixels[ x + (y+1)*W ] );
+				assertEquals( expected , pixels[ x+1 + (y+1)*W ] );
+			}
+		}
+	}
+
+	private static void assertArrayEquals(int[] expected,int[] actual)
+	{
+		assertEquals( expected.length , actual.length );
+		for ( int i = 0 ; i < expected.length ; i++ ) {
+			assertEquals( "pixel ("+(i%W)+","+(i/W)+")" , expected[i] , actual[i] );
+		}
+	}
+
+	public void testRenderWithChangingSize()
+	{
+		engine.render( new int[ 100*50 ] , 100 , 50 );
+		engine.render( new int[ 1920*1080 ] , 1920 , 1080 );
+		engine.render( new BufferedImage( 7 , 3 , BufferedImage.TYPE_INT_RGB ) );
+	}
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+
+import junit.framework.TestCase;
+
+public class ResolutionScalerTest extends TestCase {
+
+	private static final long BUDGET = 10_000_000;
+
+	public void testLowersResolutionWhenOverBudget()
+	{
+		final ResolutionScaler scaler = new ResolutionScaler( BUDGET );
+		assertEquals( 1.0 , scaler.getScale() );
+
+		// one slow frame is not enough
+		assertFalse( scaler.record( 5*BUDGET ) );
+		for ( int i = 0 ; i < 14 ; i++ ) {
+			assertFalse( scaler.record( BUDGET/2 ) );
+		}
+		assertEquals( 1.0 , scaler.getScale() );
+
+		for ( int i = 0 ; i < 14 ; i++ ) {
+			assertFalse( scaler.record( 2*BUDGET ) );
+		}
+		assertTrue( scaler.record( 2*BUDGET ) );
+		assertEquals( ResolutionScaler.SCALES[1] , scaler.getScale() );
+
+		// never goes below the lowest resolution
+		for ( int i = 0 ; i < 100 ; i++ ) {
+			scaler.record( 2*BUDGET );
+		}
+		assertEquals( ResolutionScaler.SCALES[ ResolutionScaler.SCALES.length-1 ] , scaler.getScale() );
+	}
+
+	public void testRaisesResolutionOnlyWithHeadroom()
+	{
+		final ResolutionScaler scaler = new ResolutionScaler( BUDGET );
+		recordWindow( scaler , 2*BUDGET );
+		recordWindow( scaler , 2*BUDGET );
+		assertEquals( 0.5 , scaler.getScale() );
+
+		// going from 50% to 75% resolution more than doubles the number of pixels
+		recordWindow( scaler , BUDGET/2 );
+		assertEquals( 0.5 , scaler.getScale() );
+
+		recordWindow( scaler , BUDGET/4 );
+		assertEquals( 0.75 , scaler.getScale() );
+	}
+
+	private static void recordWindow(ResolutionScaler scaler,long nanos)
+	{
+		for ( int i = 0 ; i < 15 ; i++ ) {
+			scaler.record( nanos );
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+
+import java.awt.Color;
+
+import junit.framework.TestCase;
+
+public class ShadingTableTest extends TestCase {
+
+	private static final int FOG = 0xffeeeeee;
+
+	public void testIdentity()
+	{
+		final ShadingTable table = new ShadingTable( 20 , false , 1.0 );
+		table.update( FOG );
+		assertTrue( table.isIdentity() );
+		for ( int bucket = 0 ; bucket < ShadingTable.BUCKETS ; bucket++ ) {
+			assertEquals( 0xff123456 , table.shade( 0xff123456 , bucket ) );
+		}
+	}
+
+	public void testFogBlendsTowardsFogColor()
+	{
+		final ShadingTable table = new ShadingTable( 20 , true , 1.0 );
+		table.update( FOG );
+		assertFalse( table.isIdentity() );
+
+		final int near = table.shade( 0xff000000 , table.bucket( 0 ) );
+		final int far = table.shade( 0xff000000 , table.bucket( 20 ) );
+		assertTrue( ( near & 0xff ) < 0x08 );
+		assertTrue( ( far & 0xff ) > 0xe0 );
+		assertEquals( 0xff , far >>> 24 );
+
+		// distances beyond the render distance use the last bucket
+		assertEquals( ShadingTable.BUCKETS - 1 , table.bucket( 1000 ) );
+		assertEquals( 0 , table.bucket( -1 ) );
+	}
+
+	public void testLightingDarkensWithDistance()
+	{
+		final ShadingTable table = new ShadingTable( 20 , false , 0.5 );
+		table.update( FOG );
+		int previous = 256;
+		for ( int bucket = 0 ; bucket < ShadingTable.BUCKETS ; bucket++ )
+		{
+			final int red = ( table.shade( 0xffffffff , bucket ) >> 16 ) & 0xff;
+			assertTrue( red <= previous );
+			assertTrue( red >= 0x7f );
+			previous = red;
+		}
+	}
+
+	public void testPaletteColorsMatchShadedColors()
+	{
+		final int index = Palette.indexOf( new Color( 0x20 , 0x80 , 0xc0 ) );
+		final ShadingTable table = new ShadingTable( 20 , true , 0.4 );
+		table.update( FOG );
+		for ( int bucket = 0 ; bucket < ShadingTable.BUCKETS ; bucket++ ) {
+			assertEquals( table.shade( Palette.lightARGB( index ) , bucket ) , table.paletteColor( index , false , bucket ) );
+			assertEquals( table.shade( Palette.darkARGB( index ) , bucket ) , table.paletteColor( index , true , bucket ) );
+		}
+	}
+
+	public void testRebuildsWhenPaletteGrows()
+	{
+		final ShadingTable table = new ShadingTable( 20 , true , 0.4 );
+		table.update( FOG );
+		final int index = Palette.indexOf( new Color( 0x31 , 0x41 , 0x59 ) );
+		table.update( FOG );
+		assertEquals( table.shade( Palette.lightARGB( index ) , 3 ) , table.paletteColor( index , false , 3 ) );
+	}
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class SpriteRendererTest extends TestCase {
+
+	private static final int W = 320;
+	private static final int H = 240;
+	private static final int TILE_SIZE = 25;
+
+	private static final int BACKGROUND = 0xff000000;
+
+	private Player player;
+
+	private final FrameBuffer frame = new FrameBuffer( W , H );
+	private final ColumnBuffer columns = new ColumnBuffer( W );
+	private final RayTable rays = new RayTable( W , 0 );
+
+	private TileManager newTileManager(boolean pills,int... walls)
+	{
+		final TileManager tileManager = new TileManager( new TileFactory( TILE_SIZE )
+		{
+			@Override
+			public Tile createTile(TileId coordinates)
+			{
+				final Tile tile = new Tile( coordinates , tileSize );
+				for ( int x = 0 ; x < tileSize ; x++ ) {
+					for ( int y = 0 ; y < tileSize ; y++ ) {
+						tile.setEmpty( x , y , pills );
+					}
+				}
+				if ( coordinates.x == 0 && coordinates.y == 0 )
+				{
+					for ( int i = 0 ; i < walls.length ; i += 2 ) {
+						tile.setWall( walls[i] + tileSize/2 , walls[i+1] + tileSize/2 , 1 );
+					}
+				}
+				return tile;
+			}
+		});
+		for ( int x = -1 ; x <= 1 ; x++ ) {
+			for ( int y = -1 ; y <= 1 ; y++ ) {
+				tileManager.getTile( x , y );
+			}
+		}
+		player = new Player( new Vec2d( 0.5 , 0.5 ) ) {
+			@Override
+			protected boolean canMoveTo(double x, double y) {
+				return true;
+			}
+		};
+		player.setHeading( 0 );
+		return tileManager;
+	}
+
+	private int render(TileManager tileManager,SpriteRenderer renderer)
+	{
+		Arrays.fill( frame.pixels , BACKGROUND );
+		new RayCaster( tileManager , 20 ).castColumns( player , rays , 0 , W , H , columns );
+		final int count = renderer.collect( player , rays , W , H );
+		renderer.draw( frame , columns , 0 , W , null );
+		return count;
+	}
+
+	private int spritePixels()
+	{
+		int result = 0;
+		for ( int pixel : frame.pixels ) {
+			if ( pixel != BACKGROUND ) {
+				result++;
+			}
+		}
+		return result;
+	}
+
+	public void testPillInFrontOfPlayerIsDrawn()
+	{
+		final TileManager tileManager = newTileManager( false );
+		final int x = (int) Math.floor( 0.5 + player.direction.x * 3 );
+		final int y = (int) Math.floor( 0.5 + player.direction.y * 3 );
+		tileManager.getTile( 0 , 0 ).setEmpty( x + TILE_SIZE/2 , y + TILE_SIZE/2 , true );
+
+		final SpriteRenderer renderer = new SpriteRenderer( tileManager , 20 );
+		assertEquals( 1 , render( tileManager , renderer ) );
+		assertTrue( spritePixels() > 0 );
+		assertTrue( frame.pixels[ W/2 + (H/2+10) * W ] != BACKGROUND );
+
+		// pill behind the player
+		tileManager.getTile( 0 , 0 ).setEmpty( x + TILE_SIZE/2 , y + TILE_SIZE/2 , false );
+		tileManager.getTile( 0 , 0 ).setEmpty( -x + TILE_SIZE/2 , -y + TILE_SIZE/2 , true );
+		assertEquals( 0 , render( tileManager , renderer ) );
+		assertEquals( 0 , spritePixels() );
+	}
+
+	public void testPillBehindWallIsHidden()
+	{
+		final int x = (int) Math.floor( 0.5 + Player.directionX( 0 ) * 4 );
+		final int y = (int) Math.floor( 0.5 + Player.directionY( 0 ) * 4 );
+		final int wallX = (int) Math.floor( 0.5 + Player.directionX( 0 ) * 2 );
+		final int wallY = (int) Math.floor( 0.5 + Player.directionY( 0 ) * 2 );
+		final TileManager tileManager = newTileManager( false , wallX , wallY );
+		tileManager.getTile( 0 , 0 ).setEmpty( x + TILE_SIZE/2 , y + TILE_SIZE/2 , true );
+
+		final SpriteRenderer renderer = new SpriteRenderer( tileManager , 20 );
+		assertEquals( 1 , render( tileManager , renderer ) );
+		for ( int px = 0 ; px < W ; px++ ) 
+		{
+			for ( int py = 0 ; py < H ; py++ ) 
+			{
+				if ( frame.pixels[ px + py*W ] != BACKGROUND ) {
+					assertTrue( "column "+px+" is covered by a wall" , ! columns.hit[px] );
+				}
+			}
+		}
+	}
+
+	public void testManySpritesDoNotAllocate()
+	{
+		final TileManager tileManager = newTileManager( true );
+		final SpriteRenderer renderer = new SpriteRenderer( tileManager , 20 );
+		final int count = render( tileManager , renderer );
+		assertTrue( "only "+count+" sprites" , count > 100 );
+
+		// warm up, class loading and the interpreter may allocate
+		for ( int i = 0 ; i < 100 ; i++ ) 
+		{
+			renderer.collect( player , rays , W , H );
+			renderer.draw( frame , columns , 0 , W , null );
+		}
+
+		final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		final long threadId = Thread.currentThread().getId();
+		bean.getThreadAllocatedBytes( threadId );
+		final long before = bean.getThreadAllocatedBytes( threadId );
+		for ( int i = 0 ; i < 10 ; i++ ) 
+		{
+			renderer.collect( player , rays , W , H );
+			renderer.draw( frame , columns , 0 , W , null );
+		}
+		final long allocated = bean.getThreadAllocatedBytes( threadId ) - before;
+		// allow for the odd allocation by the JVM itself, but far less than one object per sprite
+		assertTrue( "allocated "+allocated+" bytes" , allocated < 16 * count );
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+
+import junit.framework.TestCase;
+
+public class TextureAtlasTest extends TestCase {
+
+	private static final int SIZE = 4;
+
+	private static final int RED = 0xffff0000;
+	private static final int BLUE = 0xff0000ff;
+
+	// left half red, right half blue
+	private static int[] halfAndHalf()
+	{
+		final int[] texels = new int[ SIZE*SIZE ];
+		for ( int y = 0 ; y < SIZE ; y++ ) {
+			for ( int x = 0 ; x < SIZE ; x++ ) {
+				texels[ y*SIZE + x ] = x < SIZE/2 ? RED : BLUE;
+			}
+		}
+		return texels;
+	}
+
+	public void testMipLevels()
+	{
+		final TextureAtlas atlas = new TextureAtlas( SIZE , halfAndHalf() );
+		assertEquals( 3 , atlas.levels );
+
+		// level 0 is stored column by column
+		final int level0 = atlas.offset( 0 , false , 0 );
+		assertEquals( RED , atlas.texels[ level0 + 0*SIZE + 3 ] );
+		assertEquals( BLUE , atlas.texels[ level0 + 3*SIZE + 0 ] );
+
+		final int level1 = atlas.offset( 0 , false , 1 );
+		assertEquals( RED , atlas.texels[ level1 ] );
+		assertEquals( BLUE , atlas.texels[ level1 + 2 ] );
+
+		// 1x1 level is the average of all texels
+		assertEquals( 0xff800080 , atlas.texels[ atlas.offset( 0 , false , 2 ) ] );
+
+		assertEquals( 0xff7f0000 , atlas.texels[ atlas.offset( 0 , true , 0 ) ] );
+	}
+
+	public void testMipLevelSelection()
+	{
+		final TextureAtlas atlas = new TextureAtlas( 64 , new int[64*64] );
+		assertEquals( 0 , atlas.mipLevel( 1000 ) );
+		assertEquals( 0 , atlas.mipLevel( 64 ) );
+		assertEquals( 0 , atlas.mipLevel( 33 ) );
+		assertEquals( 1 , atlas.mipLevel( 32 ) );
+		assertEquals( 2 , atlas.mipLevel( 16 ) );
+		assertEquals( 6 , atlas.mipLevel( 1 ) );
+		assertEquals( 6 , atlas.mipLevel( 0 ) );
+	}
+
+	public void testPaletteMapping()
+	{
+		final TextureAtlas atlas = new TextureAtlas( SIZE , halfAndHalf() , new int[SIZE*SIZE] );
+		assertEquals( TextureAtlas.NO_TEXTURE , atlas.getTexture( Palette.EMPTY ) );
+		assertEquals( 0 , atlas.getTexture( 1 ) );
+		assertEquals( 1 , atlas.getTexture( 2 ) );
+		assertEquals( 0 , atlas.getTexture( 3 ) );
+		atlas.setTexture( 3 , TextureAtlas.NO_TEXTURE );
+		assertEquals( TextureAtlas.NO_TEXTURE , atlas.getTexture( 3 ) );
+	}
+
+	public void testTextureColumn()
+	{
+		final int[] texels = { 1 , 2 , 3 , 4 };
+		final FrameBuffer frame = new FrameBuffer( 2 , 10 );
+
+		// stretched to twice the height, starting at row 1
+		frame.textureColumn( 1 , -1 , 1 , 8 , texels , 0 , 4 , -2 );
+		assertColumn( frame , 1 , -1 , 1 , 1 , 2 , 2 , 3 , 3 , 4 , 4 , -2 );
+
+		// clipped at the top and bottom of the screen
+		frame.textureColumn( 1 , -1 , -10 , 40 , texels , 0 , 4 , -2 );
+		assertColumn( frame , 1 , 2 , 2 , 2 , 2 , 2 , 2 , 2 , 2 , 2 , 2 );
+	}
+
+	private static void assertColumn(FrameBuffer frame,int x,int... expected)
+	{
+		for ( int y = 0 ; y < expected.length ; y++ ) {
+			assertEquals( "row "+y , expected[y] , frame.pixels[ x + y*frame.width ] );
+		}
+	}
+}
@@ -0,0 +1,279 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+public class TileIndexTest extends TestCase {
+
+	public void testPutAndGet()
+	{
+		final TileIndex index = new TileIndex( 100 , null );
+		for ( int x = -5 ; x < 5 ; x++ ) {
+			for ( int y = -5 ; y < 5 ; y++ ) {
+				index.put( tile(x,y) );
+			}
+		}
+		assertEquals( 100 , index.size() );
+		for ( int x = -5 ; x < 5 ; x++ ) {
+			for ( int y = -5 ; y < 5 ; y++ ) {
+				assertEquals( new TileId(x,y) , index.get( x , y ).tileId );
+			}
+		}
+		assertNull( index.get( 5 , 5 ) );
+		assertNull( index.get( -6 , 0 ) );
+	}
+
+	public void testRemove()
+	{
+		final TileIndex index = new TileIndex( 64 , null );
+		for ( int i = 0 ; i < 64 ; i++ ) {
+			index.put( tile( i , -i ) );
+		}
+		// remove every other entry, the remaining ones must still be reachable
+		for ( int i = 0 ; i < 64 ; i+=2 )
+		{
+			final Tile removed = index.remove( i , -i );
+			assertEquals( new TileId( i , -i ) , removed.tileId );
+			// holders of the tile need to notice it is gone
+			assertTrue( removed.isEvicted() );
+		}
+		assertEquals( 32 , index.size() );
+		for ( int i = 0 ; i < 64 ; i++ )
+		{
+			if ( (i & 1) == 0 ) {
+				assertNull( index.get( i , -i ) );
+			} else {
+				assertEquals( new TileId( i , -i ) , index.get( i , -i ).tileId );
+			}
+		}
+	}
+
+	public void testEvictsUnreferencedTile()
+	{
+		final List<Tile> evicted = new ArrayList<>();
+		final TileIndex index = new TileIndex( 4 , evicted::add );
+		for ( int i = 0 ; i < 4 ; i++ ) {
+			index.put( tile( i , 0 ) );
+		}
+
+		// all tiles are referenced, the clock has to clear all flags before it can evict one
+		index.put( tile( 4 , 0 ) );
+		assertEquals( 1 , evicted.size() );
+		assertEquals( 4 , index.size() );
+		final Tile first = evicted.get(0);
+		assertTrue( first.isEvicted() );
+
+		// touch all tiles except one of the older ones, that one needs to be evicted next
+		TileId victim = null;
+		for ( int i = 0 ; i < 4 ; i++ )
+		{
+			if ( i != first.tileId.x ) 
+			{
+				if ( victim == null ) {
+					victim = new TileId( i , 0 );
+				} else {
+					assertNotNull( index.get( i , 0 ) );
+				}
+			}
+		}
+
+		assertNotNull( index.get( 4 , 0 ) );
+
+		index.put( tile( 5 , 0 ) );
+		assertEquals( 2 , evicted.size() );
+		assertEquals( victim , evicted.get(1).tileId );
+		assertNull( index.get( victim.x , victim.y ) );
+		assertNotNull( index.get( 4 , 0 ) );
+		assertNotNull( index.get( 5 , 0 ) );
+	}
+
+	public void testCapacityInBytes()
+	{
+		final int tileBytes = tile(0,0).sizeInBytes();
+		final TileIndex index = new TileIndex( 3*tileBytes , TileIndex.CapacityUnit.BYTES , new ClockEvictionPolicy() , null );
+		for ( int i = 0 ; i < 10 ; i++ ) {
+			index.put( tile( i , 0 ) );
+		}
+		assertEquals( 3 , index.size() );
+		assertEquals( 3*tileBytes , index.weight() );
+	}
+
+	public void testDistancePolicyEvictsTilesFarBehindPlayer()
+	{
+		final List<Tile> evicted = new ArrayList<>();
+		final DistanceEvictionPolicy policy = new DistanceEvictionPolicy();
+		final TileIndex index = new TileIndex( 5 , TileIndex.CapacityUnit.TILES , policy , evicted::add );
+
+		// player in tile (0,0) looking towards +X
+		final Player player = new Player( new Vec2d(0,0) ) {
+			@Override
+			protected boolean canMoveTo(double x, double y) {
+				return true;
+			}
+		};
+		player.direction.x = 1;
+		player.direction.y = 0;
+		policy.playerMoved( player , new TileId(0,0) );
+
+		index.put( tile( 0 , 0 ) );
+		index.put( tile( 2 , 0 ) );
+		index.put( tile( -2 , 0 ) );
+		index.put( tile( 0 , 1 ) );
+		index.put( tile( 1 , 0 ) );
+
+		// same distance as (-2,0) but in front of the player
+		index.put( tile( 0 , 2 ) );
+		assertEquals( 1 , evicted.size() );
+		assertEquals( new TileId(-2,0) , evicted.get(0).tileId );
+
+		// walking back and forth between (0,0) and (1,0) must not evict either of them
+		for ( int i = 0 ; i < 10 ; i++ )
+		{
+			policy.playerMoved( player , new TileId( i & 1 , 0 ) );
+			index.put( tile( 100+i , 0 ) );
+			assertNotNull( index.get( 100+i , 0 ) );
+			assertNotNull( index.get( 0 , 0 ) );
+			assertNotNull( index.get( 1 , 0 ) );
+		}
+	}
+
+	public void testPutNeverEvictsTileBeingAdded()
+	{
+		final List<Tile> evicted = new ArrayList<>();
+		final DistanceEvictionPolicy policy = new DistanceEvictionPolicy();
+		final TileIndex index = new TileIndex( 3 , TileIndex.CapacityUnit.TILES , policy , evicted::add );
+
+		// player in tile (0,0) looking towards +X
+		final Player player = new Player( new Vec2d(0,0) ) {
+			@Override
+			protected boolean canMoveTo(double x, double y) {
+				return true;
+			}
+		};
+		player.direction.x = 1;
+		player.direction.y = 0;
+		policy.playerMoved( player , new TileId(0,0) );
+
+		index.put( tile( 0 , 0 ) );
+		index.put( tile( 1 , 0 ) );
+		index.put( tile( 2 , 0 ) );
+
+		// farthest from the player, but must survive its own insertion
+		final Tile behind = tile( -10 , 0 );
+		index.put( behind );
+		assertFalse( behind.isEvicted() );
+		assertSame( behind , index.get( -10 , 0 ) );
+		assertEquals( 1 , evicted.size() );
+		assertEquals( new TileId(2,0) , evicted.get(0).tileId );
+	}
+
+	public void testConcurrentPutGetAndEvict() throws Exception
+	{
+		assertConcurrentAccountingIsConsistent( TileIndex.CapacityUnit.TILES , 16 );
+		assertConcurrentAccountingIsConsistent( TileIndex.CapacityUnit.BYTES , 16*tile(0,0).sizeInBytes() );
+	}
+
+	private void assertConcurrentAccountingIsConsistent(TileIndex.CapacityUnit unit,long capacity) throws Exception
+	{
+		final int threadCount = 4;
+		final int tilesPerThread = 500;
+
+		final Queue<Tile> evicted = new ConcurrentLinkedQueue<>();
+		final TileIndex index = new TileIndex( capacity , unit , new ClockEvictionPolicy() , evicted::add );
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		final CyclicBarrier start = new CyclicBarrier( threadCount );
+
+		final Thread[] threads = new Thread[ threadCount ];
+		for ( int t = 0 ; t < threadCount ; t++ )
+		{
+			// every thread owns one row of tiles so that puts never collide
+			final int row = t;
+			threads[t] = new Thread( () ->
+			{
+				try
+				{
+					start.await();
+					final ThreadLocalRandom rnd = ThreadLocalRandom.current();
+					for ( int x = 0 ; x < tilesPerThread ; x++ )
+					{
+						index.put( tile( x , row ) );
+						if ( rnd.nextInt(4) == 0 ) {
+							index.remove( rnd.nextInt( x+1 ) , row );
+						}
+						for ( int i = 0 ; i < 4 ; i++ )
+						{
+							final int tileX = rnd.nextInt( tilesPerThread );
+							final int tileY = rnd.nextInt( threadCount );
+							final Tile tile = index.get( tileX , tileY );
+							if ( tile != null ) {
+								assertEquals( new TileId( tileX , tileY ) , tile.tileId );
+							}
+						}
+					}
+				}
+				catch(Throwable e) {
+					failure.compareAndSet( null , e );
+				}
+			} );
+			threads[t].start();
+		}
+		for ( Thread thread : threads ) {
+			thread.join();
+		}
+		if ( failure.get() != null ) {
+			throw new AssertionError( failure.get() );
+		}
+
+		int resident = 0;
+		long residentWeight = 0;
+		for ( int y = 0 ; y < threadCount ; y++ )
+		{
+			for ( int x = 0 ; x < tilesPerThread ; x++ )
+			{
+				final Tile tile = index.get( x , y );
+				if ( tile != null )
+				{
+					assertFalse( tile.tileId+" is evicted but still returned" , tile.isEvicted() );
+					resident++;
+					residentWeight += unit == TileIndex.CapacityUnit.TILES ? 1 : tile.sizeInBytes();
+				}
+			}
+		}
+		assertEquals( resident , index.size() );
+		assertEquals( residentWeight , index.weight() );
+		assertTrue( "weight "+index.weight()+" exceeds capacity "+capacity , index.weight() <= capacity );
+
+		assertFalse( evicted.isEmpty() );
+		for ( Tile tile : evicted )
+		{
+			assertTrue( tile.isEvicted() );
+			assertNotSame( tile , index.get( tile.tileId.x , tile.tileId.y ) );
+		}
+	}
+
+	private static Tile tile(int x,int y) {
+		return new Tile( new TileId(x,y) , 3 );
+	}
+}
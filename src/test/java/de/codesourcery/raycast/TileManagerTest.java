@@ -15,6 +15,12 @@
  */
 package de.codesourcery.raycast;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
 import junit.framework.TestCase;
 
 public class TileManagerTest extends TestCase {
@@ -144,6 +150,133 @@ public class TileManagerTest extends TestCase {
 		}
 	}		
 	
+	public void testCursorMatchesGetPaletteIndexAt() 
+	{
+		final TileManager manager = new TileManager( new TileFactory(25) );
+		final TileCursor cursor = manager.newCursor();
+		
+		// walk across several tile borders in both directions
+		for ( int y = -40 ; y <= 40 ; y++ ) 
+		{
+			cursor.moveTo( -40 , y );
+			for ( int x = -40 ; x <= 40 ; x++ , cursor.stepX( 1 ) ) {
+				assertEquals( "x="+x+",y="+y , manager.getPaletteIndexAt( x , y ) , cursor.paletteIndex() );
+			}
+		}
+		for ( int x = 40 ; x >= -40 ; x-- ) 
+		{
+			cursor.moveTo( x , 40 );
+			for ( int y = 40 ; y >= -40 ; y-- , cursor.stepY( -1 ) ) {
+				assertEquals( "x="+x+",y="+y , manager.getPaletteIndexAt( x , y ) , cursor.paletteIndex() );
+				assertEquals( "x="+x+",y="+y , manager.getCellAt( x , y ).hasPill() , cursor.hasPill() );
+			}
+		}
+	}
+	
+	public void testNonBlockingLookupSchedulesTile() 
+	{
+		final List<Runnable> tasks = new ArrayList<>();
+		tileManager.setAsyncExecutor( tasks::add );
+		
+		assertNull( tileManager.getTileIfPresent( 5 , 5 ) );
+		assertFalse( tileManager.isCached( 5 , 5 ) );
+		assertEquals( 1 , tasks.size() );
+		
+		// requesting the same tile again must neither schedule it twice nor count another miss
+		assertNull( tileManager.getTileIfPresent( 5 , 5 ) );
+		tileManager.requestTile( 5 , 5 );
+		assertEquals( 1 , tasks.size() );
+		assertEquals( 1 , tileManager.getStatistics().getMissCount() );
+		
+		tasks.get(0).run();
+		assertTrue( tileManager.isCached( 5 , 5 ) );
+		final Tile tile = tileManager.getTileIfPresent( 5 , 5 );
+		assertNotNull( tile );
+		assertSame( tile , tileManager.getTile( 5 , 5 ) );
+	}
+	
+	public void testNonBlockingCursorPicksUpGeneratedTile() 
+	{
+		final List<Runnable> tasks = new ArrayList<>();
+		tileManager.setAsyncExecutor( tasks::add );
+		final TileCursor cursor = tileManager.newNonBlockingCursor();
+		
+		// every cell of a generated tile holds a pill, the placeholder has none
+		for ( int i = 0 ; i < 10 ; i++ ) 
+		{
+			cursor.moveTo( 15 , 15 );
+			assertFalse( cursor.hasPill() );
+		}
+		assertEquals( 1 , tasks.size() );
+		assertEquals( 1 , tileManager.getStatistics().getMissCount() );
+		
+		tasks.get(0).run();
+		cursor.moveTo( 15 , 15 );
+		assertTrue( cursor.hasPill() );
+	}
+	
+	public void testConcurrentLookupsWithEviction() throws Exception 
+	{
+		final TileFactory tileFactory = new TileFactory(3) {
+			@Override
+			public Tile createTile(TileId coordinates) 
+			{
+				return new Tile(coordinates,tileSize,newWallArray());
+			}
+		};
+		final int capacity = 8;
+		final TileManager manager = new TileManager( tileFactory , capacity , TileIndex.CapacityUnit.TILES , new ClockEvictionPolicy() );
+		
+		final int threadCount = 4;
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		final CyclicBarrier start = new CyclicBarrier( threadCount );
+		final Thread[] threads = new Thread[ threadCount ];
+		for ( int t = 0 ; t < threadCount ; t++ ) 
+		{
+			threads[t] = new Thread( () -> 
+			{
+				try 
+				{
+					start.await();
+					final ThreadLocalRandom rnd = ThreadLocalRandom.current();
+					for ( int i = 0 ; i < 2000 ; i++ ) 
+					{
+						// all threads compete for the same 25 tiles, three times as many as fit into the cache
+						final int x = rnd.nextInt( -2 , 3 );
+						final int y = rnd.nextInt( -2 , 3 );
+						assertEquals( tileId( x , y ) , manager.getTile( x , y ).tileId );
+					}
+				} 
+				catch(Throwable e) {
+					failure.compareAndSet( null , e );
+				}
+			} );
+			threads[t].start();
+		}
+		for ( Thread thread : threads ) {
+			thread.join();
+		}
+		if ( failure.get() != null ) {
+			throw new AssertionError( failure.get() );
+		}
+		
+		assertTrue( manager.getStatistics().getEvictionCount() > 0 );
+		assertTrue( manager.getCachedTileCount() <= capacity );
+		int cached = 0;
+		for ( int x = -2 ; x <= 2 ; x++ ) 
+		{
+			for ( int y = -2 ; y <= 2 ; y++ ) 
+			{
+				if ( manager.isCached( x , y ) ) 
+				{
+					cached++;
+					assertFalse( manager.getTile( x , y ).isEvicted() );
+				}
+			}
+		}
+		assertEquals( cached , manager.getCachedTileCount() );
+	}
+
 	private static Vec2d vec2d(double x,double y) {
 		return new Vec2d(x,y);
 	}
@@ -0,0 +1,190 @@
+/**
+ * Copyright 2014 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.raycast;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Casts the rays of several adjacent columns at once, using the (incubating) Vector API.
+ *
+ * Side distances, stepping decisions and wall distances are calculated for a whole group of rays per DDA step,
+ * each lane stops as soon as its ray hit a wall or left the render distance. Map cells are still looked up
+ * lane by lane, every lane walks the map with its own {@link TileCursor}. Empty space is not skipped, so all
+ * lanes can advance in lockstep.
+ *
+ * All calculations use the same operations in the same order as {@link RayCaster} and yield exactly the
+ * same results. Columns that don't fill a whole group are cast by a scalar {@link RayCaster}.
+ *
+ * Only compiled by the 'vector' Maven profile, use {@link VectorSupport} to create instances.
+ *
+ * Instances are <b>not</b> thread-safe, every render thread needs to use its own instance.
+ */
+public final class VectorRayCaster implements ColumnCaster
+{
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+	private static final int LANES = SPECIES.length();
+
+	private final int maxRenderDistance;
+	private final RayCaster scalar;
+	private final TileCursor[] cursors = new TileCursor[ LANES ];
+
+	// per-lane results
+	private final double[] perpWallDists = new double[ LANES ];
+	private final double[] mapXs = new double[ LANES ];
+	private final double[] mapYs = new double[ LANES ];
+	private final int[] walls = new int[ LANES ];
+
+	public VectorRayCaster(TileManager tileManager,int maxRenderDistance)
+	{
+		this.maxRenderDistance = maxRenderDistance;
+		this.scalar = new RayCaster( tileManager , maxRenderDistance );
+		for ( int i = 0 ; i < LANES ; i++ ) {
+			cursors[i] = tileManager.newNonBlockingCursor();
+		}
+	}
+
+	/**
+	 * Returns whether the hardware supports vectors of more than one double.
+	 */
+	public static boolean isSupported() {
+		return LANES > 1;
+	}
+
+	/**
+	 * Returns the number of rays cast at once.
+	 */
+	public static int lanes() {
+		return LANES;
+	}
+
+	@Override
+	public void castColumns(Player player,RayTable rays,int fromX,int toX,int h,ColumnBuffer out)
+	{
+		int x = fromX;
+		for ( ; x + LANES <= toX ; x += LANES ) {
+			castLanes( player , rays , x , h , out );
+		}
+		for ( ; x < toX ; x++ ) {
+			scalar.castColumn( player , rays , x , h , out );
+		}
+	}
+
+	private void castLanes(Player player,RayTable rays,int fromX,int h,ColumnBuffer out)
+	{
+		final double rayPosX = player.position.x;
+		final double rayPosY = player.position.y;
+
+		// which box of the map we're in
+		final int startX = (int) Math.floor( rayPosX );
+		final int startY = (int) Math.floor( rayPosY );
+
+		final DoubleVector rayDirX = DoubleVector.fromArray( SPECIES , rays.rayDirX , fromX );
+		final DoubleVector rayDirY = DoubleVector.fromArray( SPECIES , rays.rayDirY , fromX );
+		final DoubleVector deltaDistX = DoubleVector.fromArray( SPECIES , rays.deltaDistX , fromX );
+		final DoubleVector deltaDistY = DoubleVector.fromArray( SPECIES , rays.deltaDistY , fromX );
+
+		// same step selection as RayTable
+		final VectorMask<Double> negativeX = rayDirX.compare( VectorOperators.LT , 0 );
+		final VectorMask<Double> negativeY = rayDirY.compare( VectorOperators.LT , 0 );
+		final DoubleVector stepX = DoubleVector.broadcast( SPECIES , 1 ).blend( -1 , negativeX );
+		final DoubleVector stepY = DoubleVector.broadcast( SPECIES , 1 ).blend( -1 , negativeY );
+		// (1 - step) / 2
+		final DoubleVector faceX = DoubleVector.zero( SPECIES ).blend( 1 , negativeX );
+		final DoubleVector faceY = DoubleVector.zero( SPECIES ).blend( 1 , negativeY );
+
+		// length of ray from current position to next x or y-side
+		DoubleVector sideDistX = DoubleVector.broadcast( SPECIES , startX + 1.0 ).sub( rayPosX ).mul( deltaDistX )
+				.blend( DoubleVector.broadcast( SPECIES , rayPosX - startX ).mul( deltaDistX ) , negativeX );
+		DoubleVector sideDistY = DoubleVector.broadcast( SPECIES , startY + 1.0 ).sub( rayPosY ).mul( deltaDistY )
+				.blend( DoubleVector.broadcast( SPECIES , rayPosY - startY ).mul( deltaDistY ) , negativeY );
+
+		DoubleVector mapX = DoubleVector.broadcast( SPECIES , startX );
+		DoubleVector mapY = DoubleVector.broadcast( SPECIES , startY );
+		VectorMask<Double> eastWest = SPECIES.maskAll( false );
+
+		for ( int i = 0 ; i < LANES ; i++ ) {
+			cursors[i].moveTo( startX , startY );
+		}
+		final int[] steppingX = rays.stepX;
+		final int[] steppingY = rays.stepY;
+
+		long active = ( 1L << LANES ) - 1;
+		long hits = 0;
+		while ( active != 0 )
+		{
+			final VectorMask<Double> activeMask = VectorMask.fromLong( SPECIES , active );
+
+			// jump to next map square, OR in x-direction, OR in y-direction
+			final VectorMask<Double> moveX = sideDistX.compare( VectorOperators.LT , sideDistY ).and( activeMask );
+			final VectorMask<Double> moveY = moveX.not().and( activeMask );
+			sideDistX = sideDistX.add( deltaDistX , moveX );
+			mapX = mapX.add( stepX , moveX );
+			sideDistY = sideDistY.add( deltaDistY , moveY );
+			mapY = mapY.add( stepY , moveY );
+			eastWest = moveX.or( eastWest.andNot( activeMask ) );
+
+			// Calculate distance projected on camera direction (oblique distance will give fisheye effect!)
+			final DoubleVector distX = mapX.sub( rayPosX ).add( faceX ).div( rayDirX ).abs();
+			final DoubleVector distY = mapY.sub( rayPosY ).add( faceY ).div( rayDirY ).abs();
+			final DoubleVector perpWallDist = distY.blend( distX , eastWest );
+			perpWallDist.intoArray( perpWallDists , 0 );
+
+			// Check if rays have hit a wall
+			final long movedX = moveX.toLong();
+			long finished = 0;
+			for ( long lanes = active ; lanes != 0 ; lanes &= lanes - 1 )
+			{
+				final int lane = Long.numberOfTrailingZeros( lanes );
+				final TileCursor cursor = cursors[lane];
+				if ( ( movedX & ( 1L << lane ) ) != 0 ) {
+					cursor.stepX( steppingX[ fromX + lane ] );
+				} else {
+					cursor.stepY( steppingY[ fromX + lane ] );
+				}
+				final int wall = cursor.paletteIndex();
+				if ( wall != Palette.EMPTY ) {
+					walls[lane] = wall;
+					hits |= 1L << lane;
+					finished |= 1L << lane;
+				} else if ( perpWallDists[lane] > maxRenderDistance ) {
+					finished |= 1L << lane;
+				}
+			}
+			if ( finished != 0 )
+			{
+				mapX.intoArray( mapXs , 0 );
+				mapY.intoArray( mapYs , 0 );
+				final long eastWestLanes = eastWest.toLong();
+				for ( long lanes = finished ; lanes != 0 ; lanes &= lanes - 1 )
+				{
+					final int lane = Long.numberOfTrailingZeros( lanes );
+					final int x = fromX + lane;
+					if ( ( hits & ( 1L << lane ) ) != 0 ) {
+						final RayCaster.Side side = ( eastWestLanes & ( 1L << lane ) ) != 0 ? RayCaster.Side.EAST_WEST : RayCaster.Side.NORTH_SOUTH;
+						RayCaster.writeWall( player , rays , x , h , out , walls[lane] , side , perpWallDists[lane] , (int) mapXs[lane] , (int) mapYs[lane] );
+					} else {
+						out.hit[x] = false;
+						out.perpWallDist[x] = Double.POSITIVE_INFINITY;
+					}
+				}
+				active &= ~finished;
+			}
+		}
+	}
+}